@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.sameInstance;
+
+@RunWith(AndroidJUnit4.class)
+public class AutofillHintsTest {
+
+    @Test
+    public void normalizeHintsDropsW3cPrefixes() {
+        assertThat(AutofillHints.normalizeHints(new String[]{"section-login", "shipping",
+                        "work", "tel", "postal-code"}),
+                arrayContaining("tel", "postal-code"));
+        assertThat(AutofillHints.normalizeHints(new String[]{"billing", "email"}),
+                arrayContaining("email"));
+    }
+
+    @Test
+    public void normalizeHintsKeepsPrefixesThatQualifyNothing() {
+        // "home" only qualifies telephone and contact hints.
+        assertThat(AutofillHints.normalizeHints(new String[]{"home", "postal-code"}),
+                arrayContaining("home", "postal-code"));
+        assertThat(AutofillHints.normalizeHints(new String[]{"section-login"}),
+                arrayContaining("section-login"));
+    }
+
+    @Test
+    public void normalizeHintsReturnsCanonicalInstances() {
+        String[] normalizedHints = AutofillHints.normalizeHints(new String[]{"EmailAddress"});
+        assertThat(normalizedHints[0], sameInstance(View.AUTOFILL_HINT_EMAIL_ADDRESS));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.autofill.service.settings.MyPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+@RunWith(AndroidJUnit4.class)
+public class DatasetSelectionTrackerTest {
+    private MyPreferences mPreferences;
+
+    @Before
+    public void setup() {
+        mPreferences = MyPreferences.getInstance(InstrumentationRegistry.getContext());
+        mPreferences.setLastFillEvents(null, 0);
+    }
+
+    @After
+    public void cleanUp() {
+        mPreferences.setLastFillEvents(null, 0);
+    }
+
+    @Test
+    public void onlyReturnsSelectionsAddedSinceLastRead() {
+        DatasetSelectionTracker tracker = new DatasetSelectionTracker(mPreferences);
+        assertThat(tracker.getNewSelections("response-1", Arrays.asList("a", null)),
+                contains("a"));
+        assertThat(tracker.getNewSelections("response-1", Arrays.asList("a", null, "b")),
+                contains("b"));
+        assertThat(tracker.getNewSelections("response-2", Arrays.asList("c")), contains("c"));
+    }
+
+    @Test
+    public void newInstancesDontCountTheSameSelectionsAgain() {
+        assertThat(new DatasetSelectionTracker(mPreferences)
+                .getNewSelections("response-1", Arrays.asList("a", "b")), contains("a", "b"));
+
+        // As when the system recreates the service, which reads the same history.
+        DatasetSelectionTracker recreated = new DatasetSelectionTracker(mPreferences);
+        assertThat(recreated.getNewSelections("response-1", Arrays.asList("a", "b")), empty());
+        assertThat(recreated.getNewSelections("response-1", Arrays.asList("a", "b", "a")),
+                contains("a"));
+    }
+}
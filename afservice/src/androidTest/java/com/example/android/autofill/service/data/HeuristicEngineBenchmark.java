@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.model.ResourceIdHeuristic;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares classifying views with a {@link HeuristicEngine} against checking every heuristic in
+ * turn, with 10k heuristics and 1k views.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class HeuristicEngineBenchmark {
+    private static final String TAG = "HeuristicEngineBenchmark";
+    private static final String PACKAGE_NAME = "com.example.client";
+    private static final int HEURISTIC_COUNT = 10000;
+    private static final int FIELD_TYPE_COUNT = 100;
+    private static final int PACKAGE_COUNT = 50;
+    private static final int NODE_COUNT = 1000;
+    private static final int ITERATIONS = 5;
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void engineMatchesLinearScan() {
+        List<FieldTypeWithHeuristics> fieldTypes = new ArrayList<>();
+        List<ResourceIdHeuristic> heuristics = new ArrayList<>();
+        List<String> hints = new ArrayList<>();
+        for (int i = 0; i < FIELD_TYPE_COUNT; i++) {
+            String typeName = "type" + i;
+            List<ResourceIdHeuristic> typeHeuristics = new ArrayList<>();
+            for (int j = i; j < HEURISTIC_COUNT; j += FIELD_TYPE_COUNT) {
+                // A quarter of the heuristics apply to all packages.
+                String packageName = j % 4 == 0 ? ResourceIdHeuristic.ALL_PACKAGES
+                        : "com.example.app" + (j % PACKAGE_COUNT);
+                ResourceIdHeuristic heuristic =
+                        new ResourceIdHeuristic(randomWord(4 + j % 8), typeName, packageName);
+                typeHeuristics.add(heuristic);
+                heuristics.add(heuristic);
+                hints.add(typeName);
+            }
+            fieldTypes.add(HeuristicEngineTest.fieldType(typeName,
+                    typeHeuristics.toArray(new ResourceIdHeuristic[typeHeuristics.size()])));
+        }
+        List<List<String>> nodes = new ArrayList<>();
+        for (int i = 0; i < NODE_COUNT; i++) {
+            String packageName =
+                    i % 2 == 0 ? PACKAGE_NAME : "com.example.app" + (i % PACKAGE_COUNT);
+            String pattern = heuristics.get(mRandom.nextInt(heuristics.size()))
+                    .mResourceIdHeuristic;
+            // Some views have the resource id entry of a heuristic learned for an app.
+            String idEntry = i % 4 == 1 ? pattern : randomWord(12);
+            nodes.add(ImmutableList.of(packageName, idEntry,
+                    randomWord(6) + pattern.toUpperCase(Locale.US) + randomWord(6),
+                    randomWord(20)));
+        }
+
+        long start = System.nanoTime();
+        HeuristicEngine engine = new HeuristicEngine(fieldTypes);
+        Log.i(TAG, String.format(Locale.US, "compiled %d heuristics: %.2f ms", HEURISTIC_COUNT,
+                (System.nanoTime() - start) / 1e6));
+
+        String[] engineHints = new String[NODE_COUNT];
+        String[] scanHints = new String[NODE_COUNT];
+        long engineNanos = Long.MAX_VALUE;
+        long scanNanos = Long.MAX_VALUE;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            start = System.nanoTime();
+            for (int i = 0; i < NODE_COUNT; i++) {
+                List<String> node = nodes.get(i);
+                engineHints[i] = engine.inferHint(node.get(0), node.get(1),
+                        node.subList(1, node.size()));
+            }
+            engineNanos = Math.min(engineNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < NODE_COUNT; i++) {
+                List<String> node = nodes.get(i);
+                scanHints[i] = scan(heuristics, hints, node.get(0), node.get(1),
+                        node.subList(1, node.size()));
+            }
+            scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+        }
+        log("engine", engineNanos);
+        log("linear scan", scanNanos);
+        // Only the results are asserted, the timings vary too much between devices.
+        for (int i = 0; i < NODE_COUNT; i++) {
+            assertThat(engineHints[i], is(scanHints[i]));
+        }
+    }
+
+    /**
+     * Same result as {@link HeuristicEngine#inferHint}, checking each heuristic in turn.
+     */
+    private static String scan(List<ResourceIdHeuristic> heuristics, List<String> hints,
+            String packageName, String idEntry, List<String> texts) {
+        // The last heuristic learned for the id entry wins, as in the engine.
+        String hint = null;
+        for (int i = 0; i < heuristics.size(); i++) {
+            ResourceIdHeuristic heuristic = heuristics.get(i);
+            if (heuristic.mPackageName.equals(packageName)
+                    && heuristic.mResourceIdHeuristic.equals(idEntry)) {
+                hint = hints.get(i);
+            }
+        }
+        return hint != null ? hint : scanPatterns(heuristics, hints, texts);
+    }
+
+    private static String scanPatterns(List<ResourceIdHeuristic> heuristics, List<String> hints,
+            List<String> texts) {
+        int best = -1;
+        for (String text : texts) {
+            String lowerCaseText = text.toLowerCase(Locale.US);
+            int textBest = -1;
+            for (int i = 0; i < heuristics.size(); i++) {
+                ResourceIdHeuristic heuristic = heuristics.get(i);
+                String pattern = heuristic.mResourceIdHeuristic;
+                if (heuristic.mPackageName.equals(ResourceIdHeuristic.ALL_PACKAGES)
+                        && lowerCaseText.contains(pattern.toLowerCase(Locale.US))
+                        && (textBest == -1 || pattern.length()
+                        > heuristics.get(textBest).mResourceIdHeuristic.length())) {
+                    textBest = i;
+                }
+            }
+            if (textBest != -1 && (best == -1 || heuristics.get(textBest).mResourceIdHeuristic
+                    .length() > heuristics.get(best).mResourceIdHeuristic.length())) {
+                best = textBest;
+            }
+        }
+        return best != -1 ? hints.get(best) : null;
+    }
+
+    private String randomWord(int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + mRandom.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private static void log(String label, long elapsedNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s, %d nodes: %.2f ms, %.2f us/node", label,
+                NODE_COUNT, elapsedNanos / 1e6, elapsedNanos / 1e3 / NODE_COUNT));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.FakeData;
+import com.example.android.autofill.service.model.FieldType;
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.model.ResourceIdHeuristic;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(AndroidJUnit4.class)
+public class HeuristicEngineTest {
+    private static final String PACKAGE_NAME = "com.example.client";
+
+    private final HeuristicEngine mEngine = new HeuristicEngine(ImmutableList.of(
+            fieldType(View.AUTOFILL_HINT_USERNAME,
+                    new ResourceIdHeuristic("user", View.AUTOFILL_HINT_USERNAME,
+                            ResourceIdHeuristic.ALL_PACKAGES),
+                    new ResourceIdHeuristic("login", View.AUTOFILL_HINT_USERNAME,
+                            PACKAGE_NAME)),
+            fieldType(View.AUTOFILL_HINT_PASSWORD,
+                    new ResourceIdHeuristic("pass", View.AUTOFILL_HINT_PASSWORD,
+                            ResourceIdHeuristic.ALL_PACKAGES)),
+            fieldType(View.AUTOFILL_HINT_EMAIL_ADDRESS,
+                    new ResourceIdHeuristic("user_email", View.AUTOFILL_HINT_EMAIL_ADDRESS,
+                            ResourceIdHeuristic.ALL_PACKAGES))));
+
+    @Test
+    public void matchesPatternsInAnyTextIgnoringCase() {
+        assertThat(mEngine.inferHint(PACKAGE_NAME, "usernameField",
+                ImmutableList.of("usernameField")), is(View.AUTOFILL_HINT_USERNAME));
+        assertThat(mEngine.inferHint(PACKAGE_NAME, "field1",
+                ImmutableList.of("field1", "Your PASSWORD")), is(View.AUTOFILL_HINT_PASSWORD));
+        assertThat(mEngine.inferHint(PACKAGE_NAME, "field1", ImmutableList.of("field1", "field2")),
+                is(nullValue()));
+    }
+
+    @Test
+    public void prefersLongestPattern() {
+        assertThat(mEngine.inferHint(PACKAGE_NAME, "new_user_email",
+                ImmutableList.of("new_user_email")), is(View.AUTOFILL_HINT_EMAIL_ADDRESS));
+    }
+
+    @Test
+    public void prefersPackageHeuristics() {
+        // "login" only applies to PACKAGE_NAME, and wins over the global "pass" in the hint text.
+        assertThat(mEngine.inferHint(PACKAGE_NAME, "login",
+                ImmutableList.of("login", "Password")), is(View.AUTOFILL_HINT_USERNAME));
+        assertThat(mEngine.inferHint("com.example.other", "login",
+                ImmutableList.of("login", "Password")), is(View.AUTOFILL_HINT_PASSWORD));
+    }
+
+    @Test
+    public void packageHeuristicsOnlyMatchTheWholeIdEntry() {
+        HeuristicEngine engine = mEngine.withHeuristic(PACKAGE_NAME, "input",
+                View.AUTOFILL_HINT_PASSWORD);
+        assertThat(engine.inferHint(PACKAGE_NAME, "input", ImmutableList.of("input")),
+                is(View.AUTOFILL_HINT_PASSWORD));
+        // The other views containing the id entry are still classified by the patterns.
+        assertThat(engine.inferHint(PACKAGE_NAME, "username_input",
+                ImmutableList.of("username_input")), is(View.AUTOFILL_HINT_USERNAME));
+        assertThat(engine.inferHint(PACKAGE_NAME, "search_input",
+                ImmutableList.of("search_input")), is(nullValue()));
+        // Nor do they match the other texts identifying the view.
+        assertThat(engine.inferHint(PACKAGE_NAME, "field1", ImmutableList.of("field1", "input")),
+                is(nullValue()));
+        assertThat(engine.inferHint(PACKAGE_NAME, null, ImmutableList.of("input")),
+                is(nullValue()));
+    }
+
+    @Test
+    public void learnedHeuristicOnlyAppliesToItsPackage() {
+        HeuristicEngine engine = mEngine.withHeuristic(PACKAGE_NAME, "edit_text_1",
+                View.AUTOFILL_HINT_PASSWORD);
+        assertThat(engine.inferHint(PACKAGE_NAME, "edit_text_1",
+                ImmutableList.of("edit_text_1")), is(View.AUTOFILL_HINT_PASSWORD));
+        assertThat(engine.inferHint("com.example.other", "edit_text_1",
+                ImmutableList.of("edit_text_1")), is(nullValue()));
+        // The other heuristics of the package are kept.
+        assertThat(engine.inferHint(PACKAGE_NAME, "login", ImmutableList.of("login")),
+                is(View.AUTOFILL_HINT_USERNAME));
+
+        engine = engine.withHeuristic(PACKAGE_NAME, "edit_text_1", View.AUTOFILL_HINT_USERNAME);
+        assertThat(engine.inferHint(PACKAGE_NAME, "edit_text_1",
+                ImmutableList.of("edit_text_1")), is(View.AUTOFILL_HINT_USERNAME));
+        engine = engine.withHeuristic(PACKAGE_NAME, "edit_text_1", null);
+        assertThat(engine.inferHint(PACKAGE_NAME, "edit_text_1",
+                ImmutableList.of("edit_text_1")), is(nullValue()));
+    }
+
+    static FieldTypeWithHeuristics fieldType(String typeName,
+            ResourceIdHeuristic... heuristics) {
+        FieldTypeWithHeuristics fieldType = new FieldTypeWithHeuristics();
+        fieldType.fieldType = new FieldType(typeName, 1 << View.AUTOFILL_TYPE_TEXT, 0, 0,
+                new FakeData(null, null, null));
+        fieldType.autofillHints = ImmutableList.of(new AutofillHint(typeName, typeName));
+        fieldType.resourceIdHeuristics = ImmutableList.copyOf(heuristics);
+        return fieldType;
+    }
+}
@@ -17,10 +17,12 @@
 package com.example.android.autofill.service.data.source.local;
 
 import android.arch.persistence.room.Room;
+import android.database.Cursor;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.view.View;
 
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
 import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
 import com.example.android.autofill.service.model.AutofillDataset;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
@@ -32,14 +34,23 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 
 @RunWith(AndroidJUnit4.class)
 public class AutofillDaoTest {
@@ -92,4 +103,136 @@ public class AutofillDaoTest {
         assertThat(loadedDatasets, contains(datasetWithFilledAutofillFields));
         assertThat(loadedDatasets, hasSize(1));
     }
+
+    @Test
+    public void savingSameValuesUpdatesLastSeen() {
+        AutofillDao dao = mDatabase.autofillDao();
+        dao.insertDatasets((datasetNumber) -> buildDataset("password", false, 1000));
+        // Same values, with the fields in another order.
+        dao.insertDatasets((datasetNumber) -> buildDataset("password", true, 2000));
+
+        List<DatasetWithFilledAutofillFields> datasets = dao.getAllDatasets();
+        assertThat(datasets, hasSize(1));
+        assertThat(datasets.get(0).autofillDataset.getLastSeen(), is(2000L));
+        // Both saves count towards the ranking of the dataset.
+        assertThat(datasets.get(0).autofillDataset.getUsageScore(), closeTo(
+                AutofillDataset.addUsage(1000 * AutofillDataset.USAGE_SCORE_PER_MILLISECOND,
+                        2000), 1e-12));
+
+        dao.insertDatasets((datasetNumber) -> buildDataset("new password", false, 3000));
+        assertThat(dao.getAllDatasets(), hasSize(2));
+    }
+
+    @Test
+    public void getDatasetsReturnsMostUsedFirst() {
+        AutofillDao dao = mDatabase.autofillDao();
+        String rarelyUsed = insertDataset(dao, "com.example.client", null);
+        String oftenUsed = insertDataset(dao, "com.example.client", null);
+        insertDataset(dao, "com.example.client", null);
+        long now = System.currentTimeMillis();
+        dao.recordDatasetUsage(ImmutableList.of(rarelyUsed), now - 1000);
+        dao.recordDatasetUsage(ImmutableList.of(oftenUsed, oftenUsed), now);
+
+        List<DatasetWithFilledAutofillFields> datasets =
+                dao.getDatasets(ImmutableList.of(View.AUTOFILL_HINT_USERNAME), 2);
+        assertThat(datasets, hasSize(2));
+        assertThat(datasets.get(0).autofillDataset.getId(), is(oftenUsed));
+        assertThat(datasets.get(0).autofillDataset.getUseCount(), is(2));
+        assertThat(datasets.get(0).autofillDataset.getLastUsed(), is(now));
+        assertThat(datasets.get(1).autofillDataset.getId(), is(rarelyUsed));
+    }
+
+    @Test
+    public void getDatasetsUsesIndexes() {
+        List<String> plan = explainQueryPlan(AutofillDao.SELECT_MOST_USED_DATASET_ROWS,
+                View.AUTOFILL_HINT_USERNAME, 10);
+        // The most used datasets are read in order from the index, without sorting all of the
+        // matching ones.
+        assertThat(plan, hasItem(containsString("index_AutofillDataset_usageScore_id")));
+        assertThat(plan, everyItem(not(containsString("USE TEMP B-TREE FOR ORDER BY"))));
+    }
+
+    @Test
+    public void getDatasetsWithNameUsesIndexes() {
+        List<String> plan = explainQueryPlan(AutofillDao.SELECT_DATASET_ROWS_WITH_NAME,
+                "dataset-1", View.AUTOFILL_HINT_USERNAME);
+        assertThat(plan, everyItem(not(startsWith("SCAN"))));
+    }
+
+    @Test
+    public void packageNameLookupUsesIndex() {
+        List<String> plan = explainQueryPlan("SELECT id FROM AutofillDataset"
+                + " WHERE packageName = ?", InstrumentationRegistry.getContext().getPackageName());
+        assertThat(plan, everyItem(not(startsWith("SCAN"))));
+        assertThat(plan,
+                hasItem(containsString("index_AutofillDataset_packageName_usageScore_id")));
+    }
+
+    @Test
+    public void getDatasetsForPackageOnlyReturnsThatPackage() {
+        AutofillDao dao = mDatabase.autofillDao();
+        insertDataset(dao, "com.example.client", null);
+        insertDataset(dao, "com.example.other", null);
+        insertDataset(dao, "com.example.other", "example.com");
+        List<String> hints = ImmutableList.of(View.AUTOFILL_HINT_USERNAME);
+
+        List<DatasetWithFilledAutofillFields> datasets =
+                dao.getDatasetsForPackage(hints, "com.example.client", AutofillDao.NO_LIMIT);
+        assertThat(datasets, hasSize(1));
+        assertThat(datasets.get(0).autofillDataset.getPackageName(), is("com.example.client"));
+
+        datasets = dao.getDatasetsForWebDomain(hints, "example.com", AutofillDao.NO_LIMIT);
+        assertThat(datasets, hasSize(1));
+        assertThat(datasets.get(0).autofillDataset.getWebDomain(), is("example.com"));
+    }
+
+    @Test
+    public void webDomainLookupUsesIndex() {
+        List<String> plan = explainQueryPlan("SELECT id FROM AutofillDataset"
+                + " WHERE webDomain = ?", "example.com");
+        assertThat(plan, everyItem(not(startsWith("SCAN"))));
+        assertThat(plan, hasItem(containsString("index_AutofillDataset_webDomain")));
+    }
+
+    private static String insertDataset(AutofillDao dao, String packageName,
+            String webDomain) {
+        String id = UUID.randomUUID().toString();
+        dao.insertAutofillDataset(new AutofillDataset(id, "dataset-" + id, packageName,
+                webDomain, null, 0));
+        dao.insertFilledAutofillFields(ImmutableList.of(
+                new FilledAutofillField(id, View.AUTOFILL_HINT_USERNAME, "login")));
+        return id;
+    }
+
+    private static List<DatasetWithFilledAutofillFields> buildDataset(String password,
+            boolean reversed, long lastSeen) {
+        String packageName = InstrumentationRegistry.getContext().getPackageName();
+        String id = UUID.randomUUID().toString();
+        List<FilledAutofillField> fields = new ArrayList<>(Arrays.asList(
+                new FilledAutofillField(id, View.AUTOFILL_HINT_USERNAME, "login"),
+                new FilledAutofillField(id, View.AUTOFILL_HINT_PASSWORD, password)));
+        if (reversed) {
+            Collections.reverse(fields);
+        }
+        DatasetWithFilledAutofillFields dataset = new DatasetWithFilledAutofillFields();
+        dataset.autofillDataset = new AutofillDataset(id, "dataset-1", packageName, null,
+                AutofillDataset.computeContentHash(packageName, null, 0, fields), lastSeen);
+        dataset.filledAutofillFields = fields;
+        return ImmutableList.of(dataset);
+    }
+
+    /**
+     * Returns the detail column of each step of the query plan of {@code query}, with its
+     * parameters bound in the order they first appear in it.
+     */
+    private List<String> explainQueryPlan(String query, Object... args) {
+        List<String> plan = new ArrayList<>();
+        try (Cursor cursor = mDatabase.query("EXPLAIN QUERY PLAN " + query, args)) {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        }
+        return plan;
+    }
 }
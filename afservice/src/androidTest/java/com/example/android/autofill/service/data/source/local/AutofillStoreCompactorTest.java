@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.model.AutofillDataset;
+import com.example.android.autofill.service.model.FilledAutofillField;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(AndroidJUnit4.class)
+public class AutofillStoreCompactorTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    private static final String SERVICE_PACKAGE_NAME = "com.example.android.autofill.service";
+
+    private AutofillDatabase mDatabase;
+    private AutofillDao mDao;
+    private AutofillStoreCompactor mCompactor;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                AutofillDatabase.class).build();
+        mDao = mDatabase.autofillDao();
+        AutofillTestFixtures.insertFieldTypes(mDao,
+                ImmutableList.of(View.AUTOFILL_HINT_USERNAME));
+        mCompactor = new AutofillStoreCompactor(mDatabase, SERVICE_PACKAGE_NAME);
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void deletesDatasetsOlderThanMaxAge() {
+        String expired = insertDataset("com.example.a", NOW - MAX_AGE - 1);
+        String kept = insertDataset("com.example.a", NOW - MAX_AGE + 1);
+
+        AutofillStoreCompactor.Result result =
+                mCompactor.compact(new RetentionPolicy(10, 10, MAX_AGE), NOW, null);
+
+        assertThat(result.getDeletedDatasets(), is(1));
+        assertThat(mDao.getAutofillDatasetWithId(expired) == null, is(true));
+        assertThat(mDao.getAutofillDatasetWithId(kept) == null, is(false));
+    }
+
+    @Test
+    public void keepsDatasetsUsedSinceMaxAge() {
+        String used = insertDataset("com.example.a", NOW - MAX_AGE * 10);
+        String unused = insertDataset("com.example.a", NOW - MAX_AGE * 10);
+        mDao.recordDatasetUsage(ImmutableList.of(used), NOW - TimeUnit.DAYS.toMillis(1));
+
+        mCompactor.compact(new RetentionPolicy(10, 10, MAX_AGE), NOW, null);
+
+        assertThat(mDao.getAutofillDatasetWithId(used) == null, is(false));
+        assertThat(mDao.getAutofillDatasetWithId(unused) == null, is(true));
+    }
+
+    @Test
+    public void evictsLeastUsedDatasetsFirst() {
+        // Saved long ago, but used every day since.
+        String used = insertDataset("com.example.a", NOW - MAX_AGE * 10);
+        for (int day = 1; day <= 10; day++) {
+            mDao.recordDatasetUsage(ImmutableList.of(used),
+                    NOW - TimeUnit.DAYS.toMillis(day));
+        }
+        for (int i = 0; i < 5; i++) {
+            insertDataset("com.example.a", NOW - TimeUnit.DAYS.toMillis(5));
+        }
+
+        mCompactor.compact(new RetentionPolicy(1, 10, MAX_AGE), NOW, null);
+
+        assertThat(mDao.countDatasetsForPackage("com.example.a"), is(1));
+        assertThat(mDao.getAutofillDatasetWithId(used) == null, is(false));
+    }
+
+    @Test
+    public void keepsMostRecentlySeenDatasetsPerPackage() {
+        int count = AutofillStoreCompactor.BATCH_SIZE * 2 + 5;
+        for (int i = 0; i < count; i++) {
+            insertDataset("com.example.a", NOW - count + i);
+        }
+        String newest = insertDataset("com.example.a", NOW);
+        insertDataset("com.example.b", NOW);
+
+        mCompactor.compact(new RetentionPolicy(3, 1000, MAX_AGE), NOW, null);
+
+        assertThat(mDao.countDatasetsForPackage("com.example.a"), is(3));
+        assertThat(mDao.countDatasetsForPackage("com.example.b"), is(1));
+        assertThat(mDao.getAutofillDatasetWithId(newest) == null, is(false));
+    }
+
+    @Test
+    public void legacyDatasetsOfTheServiceOnlyCountTowardsMaxDatasets() {
+        // Saved before the client package was recorded, so attributed to the service.
+        for (int i = 0; i < 20; i++) {
+            insertDataset(SERVICE_PACKAGE_NAME, NOW - i);
+        }
+        insertDataset("com.example.a", NOW);
+        insertDataset("com.example.a", NOW);
+
+        AutofillStoreCompactor.Result result =
+                mCompactor.compact(new RetentionPolicy(1, 100, MAX_AGE), NOW, null);
+
+        assertThat(mDao.countDatasetsForPackage(SERVICE_PACKAGE_NAME), is(20));
+        assertThat(mDao.countDatasetsForPackage("com.example.a"), is(1));
+        assertThat(result.getDeletedDatasets(), is(1));
+
+        mCompactor.compact(new RetentionPolicy(1, 10, MAX_AGE), NOW, null);
+
+        assertThat(mDao.countDatasets(), is(10));
+    }
+
+    @Test
+    public void keepsMaxDatasetsAndReleasesPages() {
+        for (int i = 0; i < 500; i++) {
+            insertDataset("com.example." + i, NOW - i);
+        }
+
+        AutofillStoreCompactor.Result result =
+                mCompactor.compact(new RetentionPolicy(10, 50, MAX_AGE), NOW, null);
+
+        assertThat(mDao.countDatasets(), is(50));
+        assertThat(result.getDeletedDatasets(), is(450));
+        assertThat(result.getReclaimedPages(), greaterThan(0L));
+    }
+
+    @Test
+    public void datasetsWithoutLastSeenStartAging() {
+        String unknown = insertDataset("com.example.a", 0);
+
+        mCompactor.compact(new RetentionPolicy(10, 10, MAX_AGE), NOW, null);
+
+        assertThat(mDao.getAutofillDatasetWithId(unknown).autofillDataset.getLastSeen(),
+                is(NOW));
+    }
+
+    private String insertDataset(String packageName, long lastSeen) {
+        String id = UUID.randomUUID().toString();
+        mDao.insertAutofillDataset(new AutofillDataset(id, "dataset", packageName, null,
+                null, lastSeen));
+        mDao.insertFilledAutofillFields(ImmutableList.of(
+                new FilledAutofillField(id, View.AUTOFILL_HINT_USERNAME, "user-" + id)));
+        return id;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.util.Log;
+import android.view.View;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.model.AutofillDataset;
+import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+import com.example.android.autofill.service.model.FakeData;
+import com.example.android.autofill.service.model.FieldType;
+import com.example.android.autofill.service.model.FilledAutofillField;
+import com.example.android.autofill.service.util.LatencyHistogram;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Data and helpers shared by the database tests and benchmarks.
+ */
+public final class AutofillTestFixtures {
+    public static final String CLIENT_PACKAGE_NAME = "com.example.client";
+    public static final List<String> CREDENTIAL_HINTS =
+            ImmutableList.of(View.AUTOFILL_HINT_USERNAME, View.AUTOFILL_HINT_PASSWORD);
+
+    private AutofillTestFixtures() {
+    }
+
+    /**
+     * Adds a text field type for each of {@code hints}, named after and matched by the hint.
+     */
+    public static void insertFieldTypes(AutofillDao dao, List<String> hints) {
+        for (String hint : hints) {
+            dao.insertFieldTypes(ImmutableList.of(new FieldType(hint,
+                    1 << View.AUTOFILL_TYPE_TEXT, 0, 0, new FakeData(null, null, null))));
+            dao.insertAutofillHints(ImmutableList.of(new AutofillHint(hint, hint)));
+        }
+    }
+
+    /**
+     * Builds {@code count} credential datasets of {@link #CLIENT_PACKAGE_NAME}, as saved with
+     * the dataset number {@code datasetNumber}.
+     */
+    public static List<DatasetWithFilledAutofillFields> buildDatasets(int datasetNumber,
+            int count) {
+        List<DatasetWithFilledAutofillFields> datasets = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            AutofillDataset autofillDataset = new AutofillDataset(UUID.randomUUID().toString(),
+                    "dataset-" + datasetNumber + "." + i, CLIENT_PACKAGE_NAME);
+            DatasetWithFilledAutofillFields dataset = new DatasetWithFilledAutofillFields();
+            dataset.autofillDataset = autofillDataset;
+            dataset.filledAutofillFields = ImmutableList.of(
+                    new FilledAutofillField(autofillDataset.getId(),
+                            View.AUTOFILL_HINT_USERNAME, "user" + datasetNumber),
+                    new FilledAutofillField(autofillDataset.getId(),
+                            View.AUTOFILL_HINT_PASSWORD, "password" + datasetNumber));
+            datasets.add(dataset);
+        }
+        return datasets;
+    }
+
+    /**
+     * Logs the median, 95th percentile and maximum of {@code histogram}.
+     */
+    public static void log(String tag, String label, LatencyHistogram histogram) {
+        Log.i(tag, String.format(Locale.US, "%s: p50=%.2f ms p95=%.2f ms max=%.2f ms", label,
+                histogram.getPercentileMicros(50) / 1000.0,
+                histogram.getPercentileMicros(95) / 1000.0, histogram.getMaxMicros() / 1000.0));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+import com.example.android.autofill.service.util.LatencyHistogram;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures the latency of fill lookups while saves are continuously written, with reads and
+ * writes sharing a single disk thread over a rollback journal, and with a read pool and a writer
+ * thread over WAL.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ContentionBenchmark {
+    private static final String TAG = "ContentionBenchmark";
+    private static final String DATABASE_NAME = "ContentionBenchmark.db";
+    private static final List<String> HINTS = AutofillTestFixtures.CREDENTIAL_HINTS;
+    private static final int ITERATIONS = 200;
+    private static final int DATASETS_PER_SAVE = 20;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private volatile boolean mSaving;
+    private AutofillDatabase mDatabase;
+
+    @After
+    public void cleanUp() {
+        mSaving = false;
+        try {
+            if (mDatabase != null) {
+                mDatabase.close();
+            }
+        } finally {
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void readsWhileWriting() throws Exception {
+        ExecutorService diskIO = Executors.newSingleThreadExecutor();
+        LatencyHistogram shared = measureReads(false, diskIO, diskIO);
+        diskIO.shutdown();
+
+        ExecutorService diskRead = Executors.newFixedThreadPool(2);
+        ExecutorService diskWrite = Executors.newSingleThreadExecutor();
+        LatencyHistogram split = measureReads(true, diskRead, diskWrite);
+        diskRead.shutdown();
+        diskWrite.shutdown();
+
+        // The latencies are only logged, as they depend too much on the device to be asserted.
+        AutofillTestFixtures.log(TAG, "single disk thread, rollback journal", shared);
+        AutofillTestFixtures.log(TAG, "read pool and writer, WAL", split);
+    }
+
+    /**
+     * Keeps {@code writeExecutor} busy with saves, and records the latency of dataset lookups
+     * submitted to {@code readExecutor} meanwhile.
+     */
+    private LatencyHistogram measureReads(boolean writeAheadLogging, ExecutorService readExecutor,
+            ExecutorService writeExecutor) throws Exception {
+        AutofillDao dao = openDatabase(writeAheadLogging);
+        mSaving = true;
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mSaving) {
+                    return;
+                }
+                dao.insertDatasets(ContentionBenchmark::buildDatasets);
+                // Queued again rather than looped, so that reads sharing the executor interleave.
+                writeExecutor.execute(this);
+            }
+        });
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            List<DatasetWithFilledAutofillFields> datasets =
+                    readExecutor.submit(() -> dao.getDatasets(HINTS)).get(10, TimeUnit.SECONDS);
+            histogram.recordNanos(System.nanoTime() - start);
+            assertThat(datasets.isEmpty(), is(false));
+        }
+        mSaving = false;
+        writeExecutor.submit(() -> {}).get(10, TimeUnit.SECONDS);
+        mDatabase.close();
+        mDatabase = null;
+        return histogram;
+    }
+
+    private AutofillDao openDatabase(boolean writeAheadLogging) {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = Room.databaseBuilder(mContext, AutofillDatabase.class, DATABASE_NAME).build();
+        mDatabase.getOpenHelper().setWriteAheadLoggingEnabled(writeAheadLogging);
+        if (writeAheadLogging) {
+            mDatabase.getOpenHelper().getWritableDatabase().execSQL("PRAGMA synchronous = NORMAL");
+        }
+        AutofillDao dao = mDatabase.autofillDao();
+        AutofillTestFixtures.insertFieldTypes(dao, HINTS);
+        dao.insertDatasets(ContentionBenchmark::buildDatasets);
+        return dao;
+    }
+
+    private static List<DatasetWithFilledAutofillFields> buildDatasets(int datasetNumber) {
+        return AutofillTestFixtures.buildDatasets(datasetNumber, DATASETS_PER_SAVE);
+    }
+}
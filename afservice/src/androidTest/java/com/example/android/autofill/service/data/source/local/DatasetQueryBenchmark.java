@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.model.AutofillDataset;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+import com.example.android.autofill.service.model.FilledAutofillField;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares loading datasets with a single joined query grouped from the cursor, against the
+ * {@code @Relation} query Room fills with a second query, at several database sizes.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DatasetQueryBenchmark {
+    private static final String TAG = "DatasetQueryBenchmark";
+    private static final List<String> HINTS = AutofillTestFixtures.CREDENTIAL_HINTS;
+    private static final int ITERATIONS = 5;
+
+    private AutofillDatabase mDatabase;
+    private AutofillDao mDao;
+    private int mFieldCount;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                AutofillDatabase.class).build();
+        mDao = mDatabase.autofillDao();
+        AutofillTestFixtures.insertFieldTypes(mDao, HINTS);
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void joinedQueryVersusRelation() {
+        for (int fieldCount : new int[]{10, 1000, 50000}) {
+            fillDatabase(fieldCount);
+            int joined = measure("joined cursor", mDao::getAllDatasets);
+            int relation = measure("@Relation", mDao::getAllDatasetsWithRelation);
+            assertThat(joined, is(fieldCount));
+            assertThat(relation, is(fieldCount));
+        }
+    }
+
+    /**
+     * Adds datasets of one field per hint until the database holds {@code fieldCount} fields.
+     */
+    private void fillDatabase(int fieldCount) {
+        mDatabase.runInTransaction(() -> {
+            for (; mFieldCount < fieldCount; mFieldCount += HINTS.size()) {
+                AutofillDataset dataset = new AutofillDataset(UUID.randomUUID().toString(),
+                        "dataset-" + mFieldCount + ".1", AutofillTestFixtures.CLIENT_PACKAGE_NAME);
+                mDao.insertAutofillDataset(dataset);
+                for (String hint : HINTS) {
+                    mDao.insertFilledAutofillFields(ImmutableList.of(
+                            new FilledAutofillField(dataset.getId(), hint, hint + mFieldCount)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Logs the average latency and allocated bytes of {@code query}, and returns the number of
+     * fields it loaded.
+     */
+    private int measure(String label,
+            Supplier<List<DatasetWithFilledAutofillFields>> query) {
+        // Warm up.
+        query.get();
+        int fieldCount = 0;
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            fieldCount = 0;
+            for (DatasetWithFilledAutofillFields dataset : query.get()) {
+                fieldCount += dataset.filledAutofillFields.size();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedBytes = getAllocatedBytes() - allocatedBefore;
+        Log.i(TAG, String.format(Locale.US, "%s, %d fields: %.2f ms, %d KiB allocated", label,
+                mFieldCount, elapsedNanos / 1e6 / ITERATIONS,
+                allocatedBytes / 1024 / ITERATIONS));
+        return fieldCount;
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
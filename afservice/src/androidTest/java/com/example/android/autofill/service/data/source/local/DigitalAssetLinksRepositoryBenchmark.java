@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.autofill.service.data.DataCallback;
+import com.example.android.autofill.service.data.source.local.db.DalCacheDatabase;
+import com.example.android.autofill.service.model.DalCheck;
+import com.example.android.autofill.service.model.DalInfo;
+import com.example.android.autofill.service.util.PackageFingerprintCache;
+import com.example.android.autofill.service.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static com.example.android.autofill.service.util.Util.DalCheckRequirement;
+import static com.example.android.autofill.service.util.Util.DalCheckRequirement.AllUrls;
+import static com.example.android.autofill.service.util.Util.DalCheckRequirement.Disabled;
+import static com.example.android.autofill.service.util.Util.DalCheckRequirement.LoginOnly;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures {@link DigitalAssetLinksRepository} against a local stub of the Digital Asset Links
+ * API, and checks that its verdicts are coalesced, cached and persisted.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DigitalAssetLinksRepositoryBenchmark {
+    private static final String TAG = "DalBenchmark";
+    private static final int CONCURRENT_CHECKS = 32;
+    private static final int CACHED_CHECKS = 1000;
+    private static final long DEADLINE_MS = 1000;
+
+    private final Context mContext = InstrumentationRegistry.getContext();
+    private MockWebServer mServer;
+    private DalCacheDatabase mDatabase;
+    // Responses served before the default linked one, in order.
+    private final Queue<MockResponse> mResponses = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setup() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = mResponses.poll();
+                if (response != null) {
+                    return response;
+                }
+                return new MockResponse()
+                        .setBody("{\"linked\": true, \"maxAge\": \"3600s\"}")
+                        .setBodyDelay(100, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+        mDatabase = Room.inMemoryDatabaseBuilder(mContext, DalCacheDatabase.class).build();
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        try {
+            mDatabase.close();
+        } finally {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentChecksShareOneRequest() throws Exception {
+        DigitalAssetLinksRepository repository = newRepository();
+        long start = System.nanoTime();
+        assertThat(checkConcurrently(repository, "example.com", CONCURRENT_CHECKS),
+                is(CONCURRENT_CHECKS));
+        Log.i(TAG, String.format("%d concurrent cold checks: %.2f ms", CONCURRENT_CHECKS,
+                (System.nanoTime() - start) / 1e6));
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void cachedChecksDontHitTheNetwork() throws Exception {
+        DigitalAssetLinksRepository repository = newRepository();
+        checkConcurrently(repository, "example.com", 1);
+
+        DalInfo dalInfo = new DalInfo("example.com", mContext.getPackageName());
+        AtomicInteger linked = new AtomicInteger();
+        DataCallback<DalCheck> callback = new LinkedCounter(linked, null);
+        long start = System.nanoTime();
+        for (int i = 0; i < CACHED_CHECKS; i++) {
+            // Cached verdicts are delivered synchronously.
+            repository.checkValid(LoginOnly, dalInfo, callback);
+        }
+        Log.i(TAG, String.format("cached check: %.2f us/op",
+                (System.nanoTime() - start) / 1e3 / CACHED_CHECKS));
+        assertThat(linked.get(), is(CACHED_CHECKS));
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void verdictsSurviveRestarts() throws Exception {
+        checkConcurrently(newRepository(), "example.com", 1);
+
+        // A new instance, as after a process restart, reads the verdict from the database.
+        long start = System.nanoTime();
+        assertThat(checkConcurrently(newRepository(), "example.com", 1), is(1));
+        Log.i(TAG, String.format("persisted check: %.2f ms", (System.nanoTime() - start) / 1e6));
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void transientErrorsAreRetried() throws Exception {
+        mResponses.add(new MockResponse().setResponseCode(503));
+        assertThat(checkConcurrently(newRepository(), "example.com", 1), is(1));
+        assertThat(mServer.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void disabledChecksAreLinkedWithoutRequest() throws Exception {
+        assertThat(checkConcurrently(newRepository(), Disabled, "example.com", 1), is(1));
+        assertThat(mServer.getRequestCount(), is(0));
+        assertThat(DigitalAssetLinksRepository.isLinkedOnFailure(Disabled), is(true));
+    }
+
+    @Test
+    public void slowLoginOnlyChecksFailClosedWithinDeadline() throws Exception {
+        assertThat(checkSlowly(LoginOnly), is(0));
+        assertThat(DigitalAssetLinksRepository.isLinkedOnFailure(LoginOnly), is(false));
+    }
+
+    @Test
+    public void slowAllUrlsChecksFailClosedWithinDeadline() throws Exception {
+        assertThat(checkSlowly(AllUrls), is(0));
+        assertThat(DigitalAssetLinksRepository.isLinkedOnFailure(AllUrls), is(false));
+    }
+
+    /**
+     * Runs a check the API answers after its deadline, and returns 1 if it was linked. As the
+     * late answer is linked, a check that waited for it instead of giving up at the deadline
+     * returns 1.
+     */
+    private int checkSlowly(DalCheckRequirement dalCheckRequirement) throws Exception {
+        mResponses.add(new MockResponse()
+                .setBody("{\"linked\": true, \"maxAge\": \"3600s\"}")
+                .setBodyDelay(DEADLINE_MS * 5, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        int linked = checkConcurrently(newRepository(), dalCheckRequirement, "example.com", 1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.i(TAG, String.format("timed out %s check: %d ms", dalCheckRequirement,
+                elapsedMillis));
+        return linked;
+    }
+
+    private DigitalAssetLinksRepository newRepository() {
+        return new DigitalAssetLinksRepository(PackageFingerprintCache.getInstance(mContext),
+                mDatabase.dalVerdictDao(), new SingleExecutors(), mServer.url("/").toString(),
+                DEADLINE_MS);
+    }
+
+    /**
+     * Runs {@code count} checks from as many threads and returns how many were linked.
+     */
+    private int checkConcurrently(DigitalAssetLinksRepository repository, String webDomain,
+            int count) throws InterruptedException {
+        return checkConcurrently(repository, LoginOnly, webDomain, count);
+    }
+
+    private int checkConcurrently(DigitalAssetLinksRepository repository,
+            DalCheckRequirement dalCheckRequirement, String webDomain, int count)
+            throws InterruptedException {
+        DalInfo dalInfo = new DalInfo(webDomain, mContext.getPackageName());
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger linked = new AtomicInteger();
+        DataCallback<DalCheck> callback = new LinkedCounter(linked, done);
+        for (int i = 0; i < count; i++) {
+            new Thread(() -> repository.checkValid(dalCheckRequirement, dalInfo, callback))
+                    .start();
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        return linked.get();
+    }
+
+    private static final class LinkedCounter implements DataCallback<DalCheck> {
+        private final AtomicInteger mLinked;
+        private final CountDownLatch mDone;
+
+        private LinkedCounter(AtomicInteger linked, CountDownLatch done) {
+            mLinked = linked;
+            mDone = done;
+        }
+
+        @Override
+        public void onLoaded(DalCheck dalCheck) {
+            if (dalCheck.linked) {
+                mLinked.incrementAndGet();
+            }
+            countDown();
+        }
+
+        @Override
+        public void onDataNotAvailable(String msg, Object... params) {
+            countDown();
+        }
+
+        private void countDown() {
+            if (mDone != null) {
+                mDone.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import com.example.android.autofill.service.data.DataCallback;
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.model.AutofillDataset;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.model.FilledAutofillField;
+import com.example.android.autofill.service.util.AppExecutors;
+import com.example.android.autofill.service.util.LatencyHistogram;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares the end-to-end latency of the hint map and dataset lookups of a fill request when they
+ * are chained through callbacks delivered on the main thread, and when they run synchronously on
+ * the fill worker, while the main thread is kept busy.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FillPipelineBenchmark {
+    private static final String TAG = "FillPipelineBenchmark";
+    private static final int ITERATIONS = 200;
+    // Simulates the main thread of the service process rendering frames.
+    private static final long MAIN_THREAD_BUSY_MS = 8;
+    private static final List<String> HINTS = AutofillTestFixtures.CREDENTIAL_HINTS;
+
+    private final Context mContext = InstrumentationRegistry.getContext();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mMainThreadBusy;
+    private AutofillDatabase mDatabase;
+    private AppExecutors mAppExecutors;
+    private LocalAutofillDataSource mLocalDataSource;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(mContext, AutofillDatabase.class).build();
+        AutofillTestFixtures.insertFieldTypes(mDatabase.autofillDao(), HINTS);
+        AutofillDataset dataset = new AutofillDataset(UUID.randomUUID().toString(),
+                "dataset-1", mContext.getPackageName());
+        mDatabase.autofillDao().insertAutofillDataset(dataset);
+        mDatabase.autofillDao().insertFilledAutofillFields(ImmutableList.of(
+                new FilledAutofillField(dataset.getId(), View.AUTOFILL_HINT_USERNAME, "login"),
+                new FilledAutofillField(dataset.getId(), View.AUTOFILL_HINT_PASSWORD, "pass")));
+
+        SharedPreferences sharedPreferences = mContext.getSharedPreferences(
+                LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
+        LocalAutofillDataSource.clearInstance();
+        mAppExecutors = AppExecutors.getInstance();
+        mLocalDataSource = LocalAutofillDataSource.getInstance(sharedPreferences,
+                mDatabase.autofillDao(), mAppExecutors);
+    }
+
+    @After
+    public void cleanUp() {
+        mMainThreadBusy = false;
+        try {
+            mDatabase.close();
+        } finally {
+            LocalAutofillDataSource.clearInstance();
+        }
+    }
+
+    @Test
+    public void workerPipelineAndMainThreadHops() throws Exception {
+        startMainThreadLoad();
+        LatencyHistogram callbacks = new LatencyHistogram();
+        LatencyHistogram worker = new LatencyHistogram();
+        for (int i = 0; i < ITERATIONS; i++) {
+            callbacks.recordNanos(runWithCallbacks());
+            worker.recordNanos(runOnFillWorker());
+        }
+        // Compared in the logs only: how long the main thread is held depends on the device.
+        AutofillTestFixtures.log(TAG, "main thread hops", callbacks);
+        AutofillTestFixtures.log(TAG, "fill worker", worker);
+    }
+
+    /**
+     * Chains the lookups the way {@code onFillRequest} used to, and returns the elapsed time.
+     */
+    private long runWithCallbacks() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        mLocalDataSource.getFieldTypeByAutofillHints(
+                new DataCallback<Map<String, FieldTypeWithHeuristics>>() {
+                    @Override
+                    public void onLoaded(Map<String, FieldTypeWithHeuristics> hintMap) {
+                        mLocalDataSource.getAutofillDatasets(HINTS, AutofillDao.NO_LIMIT,
+                                new DataCallback<List<DatasetWithFilledAutofillFields>>() {
+                                    @Override
+                                    public void onLoaded(
+                                            List<DatasetWithFilledAutofillFields> datasets) {
+                                        assertThat(datasets.size(), is(1));
+                                        done.countDown();
+                                    }
+
+                                    @Override
+                                    public void onDataNotAvailable(String msg,
+                                            Object... params) {
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void onDataNotAvailable(String msg, Object... params) {
+                    }
+                });
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the same lookups synchronously on the fill worker, and returns the elapsed time.
+     */
+    private long runOnFillWorker() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        mAppExecutors.fillWorker().execute(() -> {
+            assertThat(mLocalDataSource.getFieldTypeByAutofillHints().isEmpty(), is(false));
+            assertThat(mLocalDataSource.getAutofillDatasets(HINTS, AutofillDao.NO_LIMIT).size(),
+                    is(1));
+            done.countDown();
+        });
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        return System.nanoTime() - start;
+    }
+
+    private void startMainThreadLoad() {
+        mMainThreadBusy = true;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mMainThreadBusy) {
+                    return;
+                }
+                long end = SystemClock.uptimeMillis() + MAIN_THREAD_BUSY_MS;
+                while (SystemClock.uptimeMillis() < end) {
+                    // Busy wait.
+                }
+                mMainHandler.post(this);
+            }
+        });
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures the throughput of the save path, with each save written in its own transaction by
+ * {@link AutofillDao#insertDatasets}, against one implicit transaction per statement.
+ * <p>
+ * Uses a database file rather than an in-memory one, so that commits pay for the journal and
+ * fsync as on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SaveBenchmark {
+    private static final String TAG = "SaveBenchmark";
+    private static final String DATABASE_NAME = "SaveBenchmark.db";
+    private static final List<String> HINTS = AutofillTestFixtures.CREDENTIAL_HINTS;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private AutofillDatabase mDatabase;
+    private AutofillDao mDao;
+
+    @Before
+    public void setup() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = Room.databaseBuilder(mContext, AutofillDatabase.class, DATABASE_NAME).build();
+        mDao = mDatabase.autofillDao();
+        AutofillTestFixtures.insertFieldTypes(mDao, HINTS);
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            mDatabase.close();
+        } finally {
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void transactionalSaves() {
+        int total = 0;
+        for (int count : new int[]{1, 100, 10000}) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                mDao.insertDatasets(SaveBenchmark::buildDatasets);
+            }
+            log("transactional", count, System.nanoTime() - start);
+            total += count;
+        }
+        assertThat(mDao.getAllDatasets(), hasSize(total));
+    }
+
+    @Test
+    public void perStatementSaves() {
+        // The previous save path: one commit per statement, and no dataset number allocation.
+        // 10k saves would take minutes, so only the smaller runs are measured.
+        int total = 0;
+        for (int count : new int[]{1, 100}) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                for (DatasetWithFilledAutofillFields dataset : buildDatasets(total + i)) {
+                    mDao.insertAutofillDataset(dataset.autofillDataset);
+                    mDao.insertFilledAutofillFields(dataset.filledAutofillFields);
+                }
+            }
+            log("per statement", count, System.nanoTime() - start);
+            total += count;
+        }
+        assertThat(mDao.getAllDatasets(), hasSize(total));
+    }
+
+    @Test
+    public void concurrentSavesGetDistinctNumbers() throws Exception {
+        int threadCount = 4;
+        int savesPerThread = 50;
+        Set<Integer> datasetNumbers = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < savesPerThread; j++) {
+                    datasetNumbers.add(mDao.insertDatasets(SaveBenchmark::buildDatasets));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(datasetNumbers.size(), is(threadCount * savesPerThread));
+    }
+
+    private static List<DatasetWithFilledAutofillFields> buildDatasets(int datasetNumber) {
+        return AutofillTestFixtures.buildDatasets(datasetNumber, 1);
+    }
+
+    private static void log(String label, int count, long elapsedNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s, %d saves: %.2f ms total, %.0f saves/s", label,
+                count, elapsedNanos / 1e6, count / (elapsedNanos / 1e9)));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local.db;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.Room;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import com.example.android.autofill.service.model.AutofillDataset;
+import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Runs each migration of {@link AutofillDatabase} on a database created from the schema exported
+ * for its start version, and validates the result against the schema of its end version.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AutofillDatabaseMigrationTest {
+    private static final String TEST_DB = "migration-test";
+    private static final String DATASET_ID = "dataset-id";
+    private static final long LAST_SEEN = TimeUnit.DAYS.toMillis(17000);
+
+    @Rule
+    public final MigrationTestHelper mHelper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            AutofillDatabase.class.getCanonicalName(), new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrate1To2() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 1);
+        insertV1Rows(db, "1,");
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 2, true, AutofillDatabase.MIGRATION_1_2);
+
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM FilledAutofillField"), is(1L));
+    }
+
+    @Test
+    public void migrate2To3() throws Exception {
+        mHelper.createDatabase(TEST_DB, 2).close();
+
+        SupportSQLiteDatabase db = mHelper.runMigrationsAndValidate(TEST_DB, 3, true,
+                AutofillDatabase.MIGRATION_2_3);
+
+        db.execSQL("INSERT INTO DatasetSequence (name, nextValue) VALUES ('dataset', 2)");
+        assertThat(queryLong(db, "SELECT nextValue FROM DatasetSequence"), is(2L));
+    }
+
+    @Test
+    public void migrate3To4() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 3);
+        // As stored by the former Converters.intListToStoredString().
+        insertV1Rows(db, "1,3,");
+        db.execSQL("INSERT INTO FieldType (typeName, autofillTypes, saveInfo, partition)"
+                + " VALUES ('date', '4', 0, 0)");
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 4, true, AutofillDatabase.MIGRATION_3_4);
+
+        assertThat(queryLong(db, "SELECT autofillTypes FROM FieldType"
+                + " WHERE typeName = 'username'"),
+                is((long) (1 << View.AUTOFILL_TYPE_TEXT | 1 << View.AUTOFILL_TYPE_LIST)));
+        assertThat(queryLong(db, "SELECT autofillTypes FROM FieldType WHERE typeName = 'date'"),
+                is((long) (1 << View.AUTOFILL_TYPE_DATE)));
+        // Rebuilding FieldType must not cascade to the rows referencing it.
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM AutofillHint"), is(1L));
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM FilledAutofillField"), is(1L));
+    }
+
+    @Test
+    public void migrate4To5() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 4);
+        insertDataset(db, DATASET_ID);
+        insertDataset(db, "other-dataset-id");
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 5, true, AutofillDatabase.MIGRATION_4_5);
+
+        // Datasets saved before have no hash, which the unique index allows.
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM AutofillDataset"
+                + " WHERE contentHash IS NULL AND lastSeen = 0"), is(2L));
+    }
+
+    @Test
+    public void migrate5To6() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 5);
+        insertDataset(db, DATASET_ID);
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 6, true, AutofillDatabase.MIGRATION_5_6);
+
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM AutofillDataset"
+                + " WHERE webDomain IS NULL"), is(1L));
+    }
+
+    @Test
+    public void migrate6To7() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 6);
+        insertDataset(db, DATASET_ID);
+        db.execSQL("UPDATE AutofillDataset SET lastSeen = ?", new Object[]{LAST_SEEN});
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 7, true, AutofillDatabase.MIGRATION_6_7);
+
+        try (Cursor cursor = db.query("SELECT lastUsed, useCount, usageScore"
+                + " FROM AutofillDataset")) {
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getLong(0), is(0L));
+            assertThat(cursor.getInt(1), is(0));
+            assertThat(cursor.getDouble(2), closeTo(
+                    LAST_SEEN * AutofillDataset.USAGE_SCORE_PER_MILLISECOND, 1e-6));
+        }
+    }
+
+    @Test
+    public void migrate1To7MatchesTheRoomSchema() throws Exception {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 1);
+        insertV1Rows(db, "1,");
+        db.close();
+
+        // Room validates the migrated tables against its entities when opening the database.
+        AutofillDatabase database = Room.databaseBuilder(
+                InstrumentationRegistry.getTargetContext(), AutofillDatabase.class, TEST_DB)
+                .addMigrations(AutofillDatabase.MIGRATIONS)
+                .build();
+        mHelper.closeWhenFinished(database);
+
+        List<DatasetWithFilledAutofillFields> datasets = database.autofillDao()
+                .getDatasets(ImmutableList.of(View.AUTOFILL_HINT_USERNAME));
+        assertThat(datasets, hasSize(1));
+        assertThat(datasets.get(0).autofillDataset.getContentHash(), nullValue());
+        assertThat(datasets.get(0).filledAutofillFields.get(0).getTextValue(), is("login"));
+    }
+
+    /**
+     * Inserts a username field type with the given stored {@code autofillTypes}, its hint, and
+     * a dataset filling it, as in the first version of the schema.
+     */
+    private static void insertV1Rows(SupportSQLiteDatabase db, String autofillTypes) {
+        db.execSQL("INSERT INTO FieldType (typeName, autofillTypes, saveInfo, partition)"
+                + " VALUES ('username', ?, 0, 0)", new Object[]{autofillTypes});
+        db.execSQL("INSERT INTO AutofillHint (autofillHint, fieldTypeName)"
+                + " VALUES ('username', 'username')");
+        insertDataset(db, DATASET_ID);
+        db.execSQL("INSERT INTO FilledAutofillField (datasetId, textValue, fieldTypeName)"
+                + " VALUES (?, 'login', 'username')", new Object[]{DATASET_ID});
+    }
+
+    private static void insertDataset(SupportSQLiteDatabase db, String id) {
+        db.execSQL("INSERT INTO AutofillDataset (id, datasetName, packageName)"
+                + " VALUES (?, 'dataset-1', 'com.example.client')", new Object[]{id});
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String query) {
+        try (Cursor cursor = db.query(query)) {
+            assertThat(cursor.moveToFirst(), is(true));
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.simple;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeywordHintMatcherTest {
+    private final KeywordHintMatcher mMatcher = KeywordHintMatcher.getDefault();
+
+    @Test
+    public void rulesApplyInOrder() {
+        assertThat(hint("Password"), is(View.AUTOFILL_HINT_PASSWORD));
+        // "password" comes before "username" and "name".
+        assertThat(hint("username_or_PASSWORD"), is(View.AUTOFILL_HINT_PASSWORD));
+        assertThat(hint("user_name"), is(View.AUTOFILL_HINT_NAME));
+        assertThat(hint("loginId"), is(View.AUTOFILL_HINT_USERNAME));
+        assertThat(hint("login"), is(nullValue()));
+        assertThat(hint("Phone number"), is(View.AUTOFILL_HINT_PHONE));
+    }
+
+    @Test
+    public void ignoresLabels() {
+        int rule = mMatcher.findRule("password_label");
+        assertThat(rule == KeywordHintMatcher.NO_RULE, is(false));
+        assertThat(mMatcher.getHint(rule), is(nullValue()));
+    }
+
+    @Test
+    public void matchesLocalizedKeywords() {
+        assertThat(hint("Contrase\u00d1a"), is(View.AUTOFILL_HINT_PASSWORD));
+        assertThat(hint("Nombre de usuario"), is(View.AUTOFILL_HINT_USERNAME));
+        assertThat(hint("Telefonnummer"), is(View.AUTOFILL_HINT_PHONE));
+    }
+
+    @Test
+    public void tablesArePluggable() {
+        KeywordHintMatcher matcher = new KeywordHintMatcher.Builder()
+                .addRule(View.AUTOFILL_HINT_POSTAL_CODE, "zip")
+                .addRule(View.AUTOFILL_HINT_POSTAL_CODE, "postal", "code")
+                .build();
+        assertThat(matcher.getHint(matcher.findRule("ZipCode")),
+                is(View.AUTOFILL_HINT_POSTAL_CODE));
+        assertThat(matcher.getHint(matcher.findRule("postal_code")),
+                is(View.AUTOFILL_HINT_POSTAL_CODE));
+        assertThat(matcher.findRule("postal"), is(KeywordHintMatcher.NO_RULE));
+    }
+
+    private String hint(String text) {
+        int rule = mMatcher.findRule(text);
+        return rule != KeywordHintMatcher.NO_RULE ? mMatcher.getHint(rule) : null;
+    }
+}
@@ -25,6 +25,6 @@ public final class SingleExecutors extends AppExecutors {
     private static Executor sInstance = Runnable::run;
 
     public SingleExecutors() {
-        super(sInstance, sInstance, sInstance);
+        super(sInstance, sInstance, sInstance, sInstance, sInstance);
     }
 }
\ No newline at end of file
@@ -37,7 +37,7 @@ import com.example.android.autofill.service.data.DataCallback;
 import com.example.android.autofill.service.data.adapter.DatasetAdapter;
 import com.example.android.autofill.service.data.adapter.ResponseAdapter;
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
-import com.example.android.autofill.service.data.source.local.DefaultFieldTypesLocalJsonSource;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
 import com.example.android.autofill.service.data.source.local.DigitalAssetLinksRepository;
 import com.example.android.autofill.service.data.source.local.LocalAutofillDataSource;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
@@ -46,10 +46,9 @@ import com.example.android.autofill.service.model.DatasetWithFilledAutofillField
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.settings.MyPreferences;
 import com.example.android.autofill.service.util.AppExecutors;
-import com.google.gson.GsonBuilder;
 
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static android.view.autofill.AutofillManager.EXTRA_ASSIST_STRUCTURE;
 import static android.view.autofill.AutofillManager.EXTRA_AUTHENTICATION_RESULT;
@@ -99,14 +98,12 @@ public class AuthActivity extends AppCompatActivity {
         setContentView(R.layout.multidataset_service_auth_activity);
         SharedPreferences sharedPreferences =
                 getSharedPreferences(LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        DefaultFieldTypesSource defaultFieldTypesSource =
-                DefaultFieldTypesLocalJsonSource.getInstance(getResources(),
-                        new GsonBuilder().create());
+        DefaultFieldTypesSource defaultFieldTypesSource = DefaultFieldTypeCatalog.getInstance();
         AutofillDao autofillDao = AutofillDatabase.getInstance(this,
-                defaultFieldTypesSource, new AppExecutors()).autofillDao();
+                defaultFieldTypesSource).autofillDao();
         mLocalAutofillDataSource = LocalAutofillDataSource.getInstance(sharedPreferences,
-                autofillDao, new AppExecutors());
-        mDalRepository = DigitalAssetLinksRepository.getInstance(getPackageManager());
+                autofillDao, AppExecutors.getInstance());
+        mDalRepository = DigitalAssetLinksRepository.getInstance(this);
         mMasterPassword = findViewById(R.id.master_password);
         mPackageName = getPackageName();
         mPreferences = MyPreferences.getInstance(this);
@@ -147,16 +144,16 @@ public class AuthActivity extends AppCompatActivity {
         Intent intent = getIntent();
         boolean forResponse = intent.getBooleanExtra(EXTRA_FOR_RESPONSE, true);
         AssistStructure structure = intent.getParcelableExtra(EXTRA_ASSIST_STRUCTURE);
-        ClientParser clientParser = new ClientParser(structure);
+        StructureIndex structureIndex = StructureIndex.build(new ClientParser(structure));
         mReplyIntent = new Intent();
         mLocalAutofillDataSource.getFieldTypeByAutofillHints(
-                new DataCallback<HashMap<String, FieldTypeWithHeuristics>>() {
+                new DataCallback<Map<String, FieldTypeWithHeuristics>>() {
             @Override
-            public void onLoaded(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
-                ClientViewMetadataBuilder builder = new ClientViewMetadataBuilder(clientParser,
+            public void onLoaded(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
+                ClientViewMetadataBuilder builder = new ClientViewMetadataBuilder(structureIndex,
                         fieldTypesByAutofillHint);
                 mClientViewMetadata = builder.buildClientViewMetadata();
-                mDatasetAdapter = new DatasetAdapter(clientParser);
+                mDatasetAdapter = new DatasetAdapter(structureIndex);
                 mResponseAdapter = new ResponseAdapter(AuthActivity.this,
                         mClientViewMetadata, mPackageName, mDatasetAdapter);
                 if (forResponse) {
@@ -175,7 +172,7 @@ public class AuthActivity extends AppCompatActivity {
     }
 
     private void fetchDatasetAndSetIntent(
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint, String datasetName) {
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint, String datasetName) {
         mLocalAutofillDataSource.getAutofillDataset(mClientViewMetadata.getAllHints(),
                 datasetName, new DataCallback<DatasetWithFilledAutofillFields>() {
                     @Override
@@ -197,8 +194,9 @@ public class AuthActivity extends AppCompatActivity {
     }
 
     private void fetchAllDatasetsAndSetIntent(
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
         mLocalAutofillDataSource.getAutofillDatasets(mClientViewMetadata.getAllHints(),
+                mPreferences.getMaxFillDatasets(),
                 new DataCallback<List<DatasetWithFilledAutofillFields>>() {
                     @Override
                     public void onLoaded(List<DatasetWithFilledAutofillFields> datasets) {
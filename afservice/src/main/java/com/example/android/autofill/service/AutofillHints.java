@@ -16,21 +16,18 @@
 package com.example.android.autofill.service;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.autofill.service.model.FakeData;
-import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 
 import static com.example.android.autofill.service.util.Util.logd;
-import static com.example.android.autofill.service.util.Util.logw;
-import static java.util.stream.Collectors.toList;
 
 public final class AutofillHints {
     public static final int PARTITION_ALL = -1;
@@ -70,28 +67,40 @@ public final class AutofillHints {
     }
 
     public static String getFieldTypeNameFromAutofillHints(
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             @NonNull List<String> hints) {
         return getFieldTypeNameFromAutofillHints(fieldTypesByAutofillHint, hints, PARTITION_ALL);
     }
 
     public static String getFieldTypeNameFromAutofillHints(
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             @NonNull List<String> hints, int partition) {
-        List<String> fieldTypeNames = removePrefixes(hints)
-                .stream()
-                .filter(fieldTypesByAutofillHint::containsKey)
-                .map(fieldTypesByAutofillHint::get)
-                .filter(Objects::nonNull)
-                .filter((fieldTypeWithHints) ->
-                        matchesPartition(fieldTypeWithHints.fieldType.getPartition(), partition))
-                .map(FieldTypeWithHeuristics::getFieldType).map(FieldType::getTypeName)
-                .collect(toList());
-        if (fieldTypeNames != null && fieldTypeNames.size() > 0) {
-            return fieldTypeNames.get(0);
-        } else {
-            return null;
+        FieldTypeWithHeuristics fieldTypeWithHeuristics = getFieldTypeFromNormalizedHints(
+                fieldTypesByAutofillHint, normalizeHints(hints.toArray(new String[0])),
+                partition);
+        return fieldTypeWithHeuristics != null
+                ? fieldTypeWithHeuristics.getFieldType().getTypeName() : null;
+    }
+
+    /**
+     * Returns the field type of the first of {@code normalizedHints} that has one in
+     * {@code partition}, or {@code null} if none does. Doesn't allocate, so it can be called for
+     * every node and dataset.
+     *
+     * @param normalizedHints Hints returned by {@link #normalizeHints}.
+     */
+    @Nullable
+    public static FieldTypeWithHeuristics getFieldTypeFromNormalizedHints(
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            @NonNull String[] normalizedHints, int partition) {
+        for (String hint : normalizedHints) {
+            FieldTypeWithHeuristics fieldTypeWithHeuristics = fieldTypesByAutofillHint.get(hint);
+            if (fieldTypeWithHeuristics != null && matchesPartition(
+                    fieldTypeWithHeuristics.fieldType.getPartition(), partition)) {
+                return fieldTypeWithHeuristics;
+            }
         }
+        return null;
     }
 
     public static boolean matchesPartition(int partition, int otherPartition) {
@@ -99,77 +108,34 @@ public final class AutofillHints {
                 partition == otherPartition;
     }
 
-    private static List<String> removePrefixes(@NonNull List<String> hints) {
-        List<String> hintsWithoutPrefixes = new ArrayList<>();
-        String nextHint = null;
-        for (int i = 0; i < hints.size(); i++) {
-            String hint = hints.get(i);
-            if (i < hints.size() - 1) {
-                nextHint = hints.get(i + 1);
-            }
-            // First convert the compound W3C autofill hints
-            if (isW3cSectionPrefix(hint) && i < hints.size() - 1) {
-                i++;
-                hint = hints.get(i);
-                logd("Hint is a W3C section prefix; using %s instead", hint);
-                if (i < hints.size() - 1) {
-                    nextHint = hints.get(i + 1);
-                }
+    /**
+     * Drops the W3C prefixes qualifying the hint that follows them, which are a
+     * {@code section-*} prefix, an address type ({@code shipping}, {@code billing}), and a type
+     * prefix ({@code home}, {@code work}, ...) followed by a hint it applies to. The remaining
+     * hints are replaced by their canonical instances, e.g. {@code Email} by {@code email}.
+     */
+    @NonNull
+    public static String[] normalizeHints(@NonNull String[] hints) {
+        String[] normalizedHints = new String[hints.length];
+        int count = 0;
+        for (int i = 0; i < hints.length; i++) {
+            String hint = hints[i];
+            if (i < hints.length - 1 && isW3cPrefix(hint, hints[i + 1])) {
+                logd("Hint %s is a W3C prefix of %s", hint, hints[i + 1]);
+                continue;
             }
-            if (isW3cTypePrefix(hint) && nextHint != null && isW3cTypeHint(nextHint)) {
-                hint = nextHint;
-                i++;
-                logd("Hint is a W3C type prefix; using %s instead", hint);
-            }
-            if (isW3cAddressType(hint) && nextHint != null) {
-                hint = nextHint;
-                i++;
-                logd("Hint is a W3C address prefix; using %s instead", hint);
-            }
-            hintsWithoutPrefixes.add(hint);
-        }
-        return hintsWithoutPrefixes;
-    }
-
-    private static boolean isW3cSectionPrefix(@NonNull String hint) {
-        return hint.startsWith(W3cHints.PREFIX_SECTION);
-    }
-
-    private static boolean isW3cAddressType(@NonNull String hint) {
-        switch (hint) {
-            case W3cHints.SHIPPING:
-            case W3cHints.BILLING:
-                return true;
-        }
-        return false;
-    }
-
-    private static boolean isW3cTypePrefix(@NonNull String hint) {
-        switch (hint) {
-            case W3cHints.PREFIX_WORK:
-            case W3cHints.PREFIX_FAX:
-            case W3cHints.PREFIX_HOME:
-            case W3cHints.PREFIX_PAGER:
-                return true;
+            normalizedHints[count++] = CanonicalHints.canonicalize(hint);
         }
-        return false;
+        return count == hints.length ? normalizedHints : Arrays.copyOf(normalizedHints, count);
     }
 
-    private static boolean isW3cTypeHint(@NonNull String hint) {
-        switch (hint) {
-            case W3cHints.TEL:
-            case W3cHints.TEL_COUNTRY_CODE:
-            case W3cHints.TEL_NATIONAL:
-            case W3cHints.TEL_AREA_CODE:
-            case W3cHints.TEL_LOCAL:
-            case W3cHints.TEL_LOCAL_PREFIX:
-            case W3cHints.TEL_LOCAL_SUFFIX:
-            case W3cHints.TEL_EXTENSION:
-            case W3cHints.EMAIL:
-            case W3cHints.IMPP:
-                return true;
+    private static boolean isW3cPrefix(@NonNull String hint, @NonNull String nextHint) {
+        if (hint.startsWith(W3cHints.PREFIX_SECTION)) {
+            return true;
         }
-        logw("Invalid W3C type hint: %s", hint);
-        return false;
+        int flags = CanonicalHints.getFlags(hint);
+        return (flags & CanonicalHints.ADDRESS_TYPE) != 0
+                || ((flags & CanonicalHints.TYPE_PREFIX) != 0
+                && (CanonicalHints.getFlags(nextHint) & CanonicalHints.TYPE_HINT) != 0);
     }
 }
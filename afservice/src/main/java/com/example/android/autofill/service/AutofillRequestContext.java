@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.autofill.service.data.AutofillDataBuilder;
+import com.example.android.autofill.service.data.ClientAutofillDataBuilder;
+import com.example.android.autofill.service.data.ClientViewMetadata;
+import com.example.android.autofill.service.data.ClientViewMetadataBuilder;
+import com.example.android.autofill.service.data.adapter.DatasetAdapter;
+import com.example.android.autofill.service.data.adapter.ResponseAdapter;
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.util.FillMetrics;
+
+import java.util.Map;
+
+/**
+ * Everything {@link MyAutofillService} derives from a single fill or save request.
+ * <p>
+ * A new instance is created for each request and passed along its pipeline instead of being
+ * stored in the service, so concurrent requests never see each other's metadata or adapters.
+ * Instances are immutable and can be handed across threads.
+ */
+final class AutofillRequestContext {
+    private final String mClientPackageName;
+    private final StructureIndex mStructureIndex;
+    private final Map<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+    private final ClientViewMetadata mClientViewMetadata;
+    private final ResponseAdapter mResponseAdapter;
+    private final AutofillDataBuilder mAutofillDataBuilder;
+    private final boolean mResponseAuth;
+    private final boolean mDatasetAuth;
+    private final boolean mManual;
+    private final CancellationSignal mCancellationSignal;
+    private final long mStartNanos;
+
+    private AutofillRequestContext(String clientPackageName, StructureIndex structureIndex,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            ClientViewMetadata clientViewMetadata, ResponseAdapter responseAdapter,
+            AutofillDataBuilder autofillDataBuilder, boolean responseAuth, boolean datasetAuth,
+            boolean manual, CancellationSignal cancellationSignal, long startNanos) {
+        mClientPackageName = clientPackageName;
+        mStructureIndex = structureIndex;
+        mFieldTypesByAutofillHint = fieldTypesByAutofillHint;
+        mClientViewMetadata = clientViewMetadata;
+        mResponseAdapter = responseAdapter;
+        mAutofillDataBuilder = autofillDataBuilder;
+        mResponseAuth = responseAuth;
+        mDatasetAuth = datasetAuth;
+        mManual = manual;
+        mCancellationSignal = cancellationSignal;
+        mStartNanos = startNanos;
+    }
+
+    /**
+     * Creates the context of a fill request from the {@code resolution} of its structure,
+     * including the adapters used to build its response.
+     */
+    static AutofillRequestContext forFill(Context context, String clientPackageName,
+            ClientViewMetadataCache.Resolution resolution,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint, boolean responseAuth,
+            boolean datasetAuth, boolean manual, CancellationSignal cancellationSignal,
+            long startNanos) {
+        StructureIndex structureIndex = resolution.getStructureIndex();
+        ClientViewMetadata clientViewMetadata = resolution.getClientViewMetadata();
+        ResponseAdapter responseAdapter = new ResponseAdapter(context, clientViewMetadata,
+                context.getPackageName(), new DatasetAdapter(structureIndex,
+                        fieldTypesByAutofillHint, resolution.getFieldTypeNames()));
+        return new AutofillRequestContext(clientPackageName, structureIndex,
+                fieldTypesByAutofillHint, clientViewMetadata, responseAdapter, null,
+                responseAuth, datasetAuth, manual, cancellationSignal, startNanos);
+    }
+
+    /**
+     * Creates the context of a save request, including the builder of the datasets to save.
+     */
+    static AutofillRequestContext forSave(String clientPackageName,
+            StructureIndex structureIndex,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint, long startNanos) {
+        ClientViewMetadata clientViewMetadata = new ClientViewMetadataBuilder(structureIndex,
+                fieldTypesByAutofillHint).buildClientViewMetadata();
+        AutofillDataBuilder autofillDataBuilder = new ClientAutofillDataBuilder(
+                fieldTypesByAutofillHint, clientPackageName, structureIndex);
+        return new AutofillRequestContext(clientPackageName, structureIndex,
+                fieldTypesByAutofillHint, clientViewMetadata, null, autofillDataBuilder,
+                false, false, false, null, startNanos);
+    }
+
+    /**
+     * Package name of the app that triggered the request.
+     */
+    @NonNull
+    String getClientPackageName() {
+        return mClientPackageName;
+    }
+
+    @NonNull
+    StructureIndex getStructureIndex() {
+        return mStructureIndex;
+    }
+
+    @NonNull
+    Map<String, FieldTypeWithHeuristics> getFieldTypesByAutofillHint() {
+        return mFieldTypesByAutofillHint;
+    }
+
+    @NonNull
+    ClientViewMetadata getClientViewMetadata() {
+        return mClientViewMetadata;
+    }
+
+    /**
+     * Returns the adapter building the {@code FillResponse}, or {@code null} for save requests.
+     */
+    @Nullable
+    ResponseAdapter getResponseAdapter() {
+        return mResponseAdapter;
+    }
+
+    /**
+     * Returns the builder of the datasets to save, or {@code null} for fill requests.
+     */
+    @Nullable
+    AutofillDataBuilder getAutofillDataBuilder() {
+        return mAutofillDataBuilder;
+    }
+
+    boolean isResponseAuth() {
+        return mResponseAuth;
+    }
+
+    boolean isDatasetAuth() {
+        return mDatasetAuth;
+    }
+
+    boolean isManual() {
+        return mManual;
+    }
+
+    /**
+     * Returns the {@link CancellationSignal} of a fill request, or {@code null} for save requests.
+     */
+    @Nullable
+    CancellationSignal getCancellationSignal() {
+        return mCancellationSignal;
+    }
+
+    /**
+     * Whether the platform cancelled the request, so that no more work should be done for it.
+     * <p>
+     * The fill pipeline checks this between its stages only: a stage that already started, such
+     * as a dataset query, runs to completion, and the request stops before the next one.
+     */
+    boolean isCanceled() {
+        return mCancellationSignal != null && mCancellationSignal.isCanceled();
+    }
+
+    /**
+     * {@link FillMetrics#now()} timestamp of when the service received the request.
+     */
+    long getStartNanos() {
+        return mStartNanos;
+    }
+}
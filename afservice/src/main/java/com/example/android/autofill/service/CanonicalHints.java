@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.autofill.service;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Precompiled table of the autofill hints the service knows, the {@code View.AUTOFILL_HINT_*}
+ * constants and the {@link W3cHints}, with the role each one plays in compound W3C hints.
+ * <p>
+ * Built once per process, so that normalizing the hints of a node costs one lookup per hint
+ * instead of a series of string comparisons.
+ */
+final class CanonicalHints {
+    static final int TYPE_PREFIX = 1;
+    static final int TYPE_HINT = 1 << 1;
+    static final int ADDRESS_TYPE = 1 << 2;
+
+    private static final Map<String, Entry> sEntries = buildEntries();
+
+    private CanonicalHints() {
+    }
+
+    /**
+     * Returns the canonical instance of {@code hint}, matched case insensitively as W3C hints
+     * are, or {@code hint} itself if it isn't in the table.
+     */
+    @NonNull
+    static String canonicalize(@NonNull String hint) {
+        Entry entry = lookUp(hint);
+        return entry != null ? entry.mHint : hint;
+    }
+
+    /**
+     * Returns the roles ({@link #TYPE_PREFIX}, {@link #TYPE_HINT}, {@link #ADDRESS_TYPE}) of
+     * {@code hint} in compound W3C hints, or 0 if it has none.
+     */
+    static int getFlags(@NonNull String hint) {
+        Entry entry = lookUp(hint);
+        return entry != null ? entry.mFlags : 0;
+    }
+
+    private static Entry lookUp(@NonNull String hint) {
+        Entry entry = sEntries.get(hint);
+        // The table is keyed by lower case hints, so only other spellings pay for the conversion.
+        return entry != null ? entry : sEntries.get(hint.toLowerCase(Locale.US));
+    }
+
+    private static Map<String, Entry> buildEntries() {
+        Map<String, Entry> entries = new HashMap<>();
+        for (String hint : new String[]{
+                View.AUTOFILL_HINT_CREDIT_CARD_EXPIRATION_DATE,
+                View.AUTOFILL_HINT_CREDIT_CARD_EXPIRATION_DAY,
+                View.AUTOFILL_HINT_CREDIT_CARD_EXPIRATION_MONTH,
+                View.AUTOFILL_HINT_CREDIT_CARD_EXPIRATION_YEAR,
+                View.AUTOFILL_HINT_CREDIT_CARD_NUMBER,
+                View.AUTOFILL_HINT_CREDIT_CARD_SECURITY_CODE,
+                View.AUTOFILL_HINT_EMAIL_ADDRESS,
+                View.AUTOFILL_HINT_NAME,
+                View.AUTOFILL_HINT_PASSWORD,
+                View.AUTOFILL_HINT_PHONE,
+                View.AUTOFILL_HINT_POSTAL_ADDRESS,
+                View.AUTOFILL_HINT_POSTAL_CODE,
+                View.AUTOFILL_HINT_USERNAME}) {
+            put(entries, hint, 0);
+        }
+        for (String hint : new String[]{W3cHints.SHIPPING, W3cHints.BILLING}) {
+            put(entries, hint, ADDRESS_TYPE);
+        }
+        for (String hint : new String[]{W3cHints.PREFIX_HOME, W3cHints.PREFIX_WORK,
+                W3cHints.PREFIX_FAX, W3cHints.PREFIX_PAGER}) {
+            put(entries, hint, TYPE_PREFIX);
+        }
+        for (String hint : new String[]{W3cHints.TEL, W3cHints.TEL_COUNTRY_CODE,
+                W3cHints.TEL_NATIONAL, W3cHints.TEL_AREA_CODE, W3cHints.TEL_LOCAL,
+                W3cHints.TEL_LOCAL_PREFIX, W3cHints.TEL_LOCAL_SUFFIX, W3cHints.TEL_EXTENSION,
+                W3cHints.EMAIL, W3cHints.IMPP}) {
+            put(entries, hint, TYPE_HINT);
+        }
+        return ImmutableMap.copyOf(entries);
+    }
+
+    private static void put(Map<String, Entry> entries, String hint, int flags) {
+        Entry entry = new Entry(hint, flags);
+        entries.put(hint, entry);
+        entries.put(hint.toLowerCase(Locale.US), entry);
+    }
+
+    private static final class Entry {
+        private final String mHint;
+        private final int mFlags;
+
+        private Entry(String hint, int flags) {
+            mHint = hint;
+            mFlags = flags;
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package com.example.android.autofill.service;
 
 import android.app.assist.AssistStructure;
+import android.content.ComponentName;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -41,6 +43,15 @@ public final class ClientParser {
         this(ImmutableList.of(structure));
     }
 
+    /**
+     * Returns the activity of the latest structure, or {@code null} if there is none.
+     */
+    @Nullable
+    public ComponentName getActivityComponent() {
+        return mStructures.isEmpty() ? null
+                : mStructures.get(mStructures.size() - 1).getActivityComponent();
+    }
+
     /**
      * Traverses through the {@link AssistStructure} and does something at each {@link ViewNode}.
      *
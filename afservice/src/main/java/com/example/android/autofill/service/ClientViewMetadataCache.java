@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.autofill.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.example.android.autofill.service.data.ClientViewMetadata;
+import com.example.android.autofill.service.data.ClientViewMetadataBuilder;
+import com.example.android.autofill.service.data.HeuristicEngine;
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of what was resolved for the screens filled recently, keyed by the
+ * {@link StructureIndex#getFingerprint() fingerprint} of their structure.
+ * <p>
+ * Users fill the same login or checkout screens over and over. For a screen of a cached
+ * {@link StructureIndex.Shape shape}, resolved with the same field types and heuristics, the
+ * inferred hints, the {@link ClientViewMetadata} and the field type of each node are reused, and
+ * only the autofill ids of the new views are bound.
+ */
+final class ClientViewMetadataCache {
+    private static final int MAX_SCREENS = 32;
+
+    private static ClientViewMetadataCache sInstance;
+
+    private final LruCache<Long, Entry> mEntries = new LruCache<>(MAX_SCREENS);
+
+    private ClientViewMetadataCache() {
+    }
+
+    static synchronized ClientViewMetadataCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ClientViewMetadataCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns what was resolved for a screen with the shape of {@code parsedIndex}, bound to its
+     * views, or {@code null} if there is none for these field types and heuristics.
+     */
+    @Nullable
+    Resolution get(@NonNull StructureIndex parsedIndex,
+            @NonNull Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            @NonNull HeuristicEngine heuristicEngine) {
+        Entry entry = mEntries.get(parsedIndex.getFingerprint());
+        if (entry == null || entry.mFieldTypesByAutofillHint != fieldTypesByAutofillHint
+                || entry.mHeuristicEngine != heuristicEngine
+                || !entry.mShape.matches(parsedIndex)) {
+            return null;
+        }
+        StructureIndex structureIndex = entry.mHints != null
+                ? parsedIndex.withResolvedHints(entry.mHints, entry.mNormalizedHints)
+                : parsedIndex;
+        ClientViewMetadata clientViewMetadata = ClientViewMetadataBuilder.rebind(
+                entry.mClientViewMetadata, entry.mAutofillIdNodeIndexes, structureIndex);
+        return new Resolution(structureIndex, clientViewMetadata, entry.mFieldTypeNames,
+                entry.mHints != null);
+    }
+
+    /**
+     * Caches {@code resolution}, which was resolved from {@code parsedIndex} with
+     * {@code fieldTypesByAutofillHint} and {@code heuristicEngine}.
+     *
+     * @param autofillIdNodeIndexes see {@link ClientViewMetadataBuilder#getAutofillIdNodeIndexes}
+     */
+    void put(@NonNull StructureIndex parsedIndex,
+            @NonNull Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            @NonNull HeuristicEngine heuristicEngine, @NonNull Resolution resolution,
+            @NonNull int[] autofillIdNodeIndexes) {
+        mEntries.put(parsedIndex.getFingerprint(), new Entry(parsedIndex,
+                fieldTypesByAutofillHint, heuristicEngine, resolution, autofillIdNodeIndexes));
+    }
+
+    void clear() {
+        mEntries.evictAll();
+    }
+
+    /**
+     * What is resolved from the structure of a fill request before binding datasets to it.
+     */
+    static final class Resolution {
+        private final StructureIndex mStructureIndex;
+        private final ClientViewMetadata mClientViewMetadata;
+        private final String[] mFieldTypeNames;
+        private final boolean mHintsInferred;
+
+        /**
+         * @param structureIndex index with the inferred hints, if any.
+         * @param fieldTypeNames field type name of each node of {@code structureIndex}.
+         * @param hintsInferred whether heuristics gave hints to some nodes.
+         */
+        Resolution(@NonNull StructureIndex structureIndex,
+                @NonNull ClientViewMetadata clientViewMetadata, @NonNull String[] fieldTypeNames,
+                boolean hintsInferred) {
+            mStructureIndex = structureIndex;
+            mClientViewMetadata = clientViewMetadata;
+            mFieldTypeNames = fieldTypeNames;
+            mHintsInferred = hintsInferred;
+        }
+
+        @NonNull
+        StructureIndex getStructureIndex() {
+            return mStructureIndex;
+        }
+
+        @NonNull
+        ClientViewMetadata getClientViewMetadata() {
+            return mClientViewMetadata;
+        }
+
+        @NonNull
+        String[] getFieldTypeNames() {
+            return mFieldTypeNames;
+        }
+
+        boolean areHintsInferred() {
+            return mHintsInferred;
+        }
+    }
+
+    private static final class Entry {
+        private final StructureIndex.Shape mShape;
+        // Compared by identity: each FieldTypeRegistry snapshot has its own instances.
+        private final Map<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+        private final HeuristicEngine mHeuristicEngine;
+        // Hints of each node, only kept if some were inferred. The views aren't kept.
+        private final String[][] mHints;
+        private final String[][] mNormalizedHints;
+        private final ClientViewMetadata mClientViewMetadata;
+        private final int[] mAutofillIdNodeIndexes;
+        private final String[] mFieldTypeNames;
+
+        private Entry(StructureIndex parsedIndex,
+                Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+                HeuristicEngine heuristicEngine, Resolution resolution,
+                int[] autofillIdNodeIndexes) {
+            mShape = parsedIndex.getShape();
+            mFieldTypesByAutofillHint = fieldTypesByAutofillHint;
+            mHeuristicEngine = heuristicEngine;
+            StructureIndex structureIndex = resolution.getStructureIndex();
+            if (resolution.areHintsInferred()) {
+                mHints = new String[structureIndex.size()][];
+                mNormalizedHints = new String[structureIndex.size()][];
+                for (int i = 0; i < structureIndex.size(); i++) {
+                    mHints[i] = structureIndex.getHints(i);
+                    mNormalizedHints[i] = structureIndex.getNormalizedHints(i);
+                }
+            } else {
+                mHints = null;
+                mNormalizedHints = null;
+            }
+            mClientViewMetadata = resolution.getClientViewMetadata();
+            mAutofillIdNodeIndexes = autofillIdNodeIndexes;
+            mFieldTypeNames = resolution.getFieldTypeNames();
+        }
+    }
+}
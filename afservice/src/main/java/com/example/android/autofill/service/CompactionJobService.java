@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.CancellationSignal;
+
+import com.example.android.autofill.service.data.source.local.AutofillStoreCompactor;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+import com.example.android.autofill.service.settings.MyPreferences;
+import com.example.android.autofill.service.util.AppExecutors;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.autofill.service.util.Util.logd;
+
+/**
+ * Periodically compacts the stored datasets to the {@link MyPreferences#getRetentionPolicy()
+ * retention policy}, while the device is idle and charging.
+ */
+public class CompactionJobService extends JobService {
+    private static final int JOB_ID = 1;
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private Executor mDiskWrite;
+    private AutofillStoreCompactor mCompactor;
+    private MyPreferences mPreferences;
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * Schedules the compaction job, unless it already is.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setPeriodic(INTERVAL_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+        logd("Scheduled dataset compaction.");
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mDiskWrite = AppExecutors.getInstance().diskWrite();
+        mCompactor = new AutofillStoreCompactor(AutofillDatabase.getInstance(this,
+                DefaultFieldTypeCatalog.getInstance()), getPackageName());
+        mPreferences = MyPreferences.getInstance(this);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+        mDiskWrite.execute(() -> {
+            mCompactor.compact(mPreferences.getRetentionPolicy(), System.currentTimeMillis(),
+                    cancellationSignal);
+            jobFinished(params, false);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The deleted batches are committed, the next run picks up from there.
+        mCancellationSignal.cancel();
+        return false;
+    }
+}
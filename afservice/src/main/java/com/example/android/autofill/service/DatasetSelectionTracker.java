@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.autofill.service;
+
+import android.os.Bundle;
+import android.service.autofill.FillEventHistory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.autofill.service.data.adapter.ResponseAdapter;
+import com.example.android.autofill.service.settings.MyPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Extracts the datasets the user selected from the {@link FillEventHistory}.
+ * <p>
+ * The history only covers the last response, but it is read on every fill and save request, so
+ * the same events can be seen several times until a new response is returned. The response is
+ * identified by the id {@link ResponseAdapter} puts in its client state, and only the events
+ * added since the last time it was seen are returned.
+ * <p>
+ * The system recreates the service between requests, and the history outlives the process, so
+ * the last response id and event count seen are kept in {@link MyPreferences}.
+ */
+final class DatasetSelectionTracker {
+    // Shared by all the instances, since they share their state.
+    private static final Object sLock = new Object();
+
+    private final MyPreferences mPreferences;
+
+    DatasetSelectionTracker(@NonNull MyPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    /**
+     * Returns the ids of the datasets selected since the last call, in selection order.
+     */
+    List<String> getNewSelections(@Nullable FillEventHistory history) {
+        if (history == null || history.getEvents() == null) {
+            return Collections.emptyList();
+        }
+        Bundle clientState = history.getClientState();
+        String responseId = clientState != null
+                ? clientState.getString(ResponseAdapter.CLIENT_STATE_RESPONSE_ID) : null;
+        if (responseId == null) {
+            // Not a response of saved datasets.
+            return Collections.emptyList();
+        }
+        List<String> selectedDatasetIds = new ArrayList<>();
+        for (FillEventHistory.Event event : history.getEvents()) {
+            // Authenticated datasets are reported again as selected once they are unlocked.
+            selectedDatasetIds.add(
+                    event.getType() == FillEventHistory.Event.TYPE_DATASET_SELECTED
+                            ? event.getDatasetId() : null);
+        }
+        return getNewSelections(responseId, selectedDatasetIds);
+    }
+
+    /**
+     * Same as {@link #getNewSelections(FillEventHistory)}, with the id of the dataset selected
+     * by each event of the response {@code responseId}, or {@code null} for other events.
+     */
+    @VisibleForTesting
+    List<String> getNewSelections(@NonNull String responseId,
+            @NonNull List<String> selectedDatasetIds) {
+        synchronized (sLock) {
+            int firstNewEvent = responseId.equals(mPreferences.getLastFillEventResponseId())
+                    ? Math.min(mPreferences.getLastFillEventCount(), selectedDatasetIds.size())
+                    : 0;
+            List<String> datasetIds = new ArrayList<>();
+            for (int i = firstNewEvent; i < selectedDatasetIds.size(); i++) {
+                if (selectedDatasetIds.get(i) != null) {
+                    datasetIds.add(selectedDatasetIds.get(i));
+                }
+            }
+            mPreferences.setLastFillEvents(responseId, selectedDatasetIds.size());
+            return datasetIds;
+        }
+    }
+}
@@ -41,7 +41,7 @@ import com.example.android.autofill.service.data.DataCallback;
 import com.example.android.autofill.service.data.adapter.DatasetAdapter;
 import com.example.android.autofill.service.data.adapter.ResponseAdapter;
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
-import com.example.android.autofill.service.data.source.local.DefaultFieldTypesLocalJsonSource;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
 import com.example.android.autofill.service.data.source.local.LocalAutofillDataSource;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
 import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
@@ -50,14 +50,16 @@ import com.example.android.autofill.service.model.DatasetWithFilledAutofillField
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
+import com.example.android.autofill.service.model.ResourceIdHeuristic;
 import com.example.android.autofill.service.settings.MyPreferences;
 import com.example.android.autofill.service.util.AppExecutors;
+import com.example.android.autofill.service.util.FillMetrics;
+import com.example.android.autofill.service.util.FillMetrics.Counter;
 import com.google.common.collect.ImmutableList;
-import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static android.support.v7.widget.LinearLayoutManager.VERTICAL;
@@ -98,13 +100,11 @@ public class ManualActivity extends AppCompatActivity {
         setContentView(R.layout.multidataset_service_manual_activity);
         SharedPreferences sharedPreferences =
                 getSharedPreferences(LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        DefaultFieldTypesSource defaultFieldTypesSource =
-                DefaultFieldTypesLocalJsonSource.getInstance(getResources(),
-                        new GsonBuilder().create());
+        DefaultFieldTypesSource defaultFieldTypesSource = DefaultFieldTypeCatalog.getInstance();
         AutofillDao autofillDao = AutofillDatabase.getInstance(this,
-                defaultFieldTypesSource, new AppExecutors()).autofillDao();
+                defaultFieldTypesSource).autofillDao();
         mLocalAutofillDataSource = LocalAutofillDataSource.getInstance(sharedPreferences,
-                autofillDao, new AppExecutors());
+                autofillDao, AppExecutors.getInstance());
         mPackageName = getPackageName();
         mPreferences = MyPreferences.getInstance(this);
         mRecyclerView = findViewById(R.id.suggestionsList);
@@ -166,16 +166,18 @@ public class ManualActivity extends AppCompatActivity {
         datasetWithFilledAutofillFields.autofillDataset = autofillDataset;
         Intent intent = getIntent();
         AssistStructure structure = intent.getParcelableExtra(EXTRA_ASSIST_STRUCTURE);
-        ClientParser clientParser = new ClientParser(structure);
+        StructureIndex structureIndex = StructureIndex.build(new ClientParser(structure));
+        updateHeuristics(structure.getActivityComponent().getPackageName(), structureIndex,
+                field.getFieldTypeName());
         mReplyIntent = new Intent();
         mLocalAutofillDataSource.getFieldTypeByAutofillHints(
-                new DataCallback<HashMap<String, FieldTypeWithHeuristics>>() {
+                new DataCallback<Map<String, FieldTypeWithHeuristics>>() {
                     @Override
-                    public void onLoaded(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
-                        ClientViewMetadataBuilder builder = new ClientViewMetadataBuilder(clientParser,
+                    public void onLoaded(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
+                        ClientViewMetadataBuilder builder = new ClientViewMetadataBuilder(structureIndex,
                                 fieldTypesByAutofillHint);
                         mClientViewMetadata = builder.buildClientViewMetadata();
-                        mDatasetAdapter = new DatasetAdapter(clientParser);
+                        mDatasetAdapter = new DatasetAdapter(structureIndex);
                         mResponseAdapter = new ResponseAdapter(ManualActivity.this,
                                 mClientViewMetadata, mPackageName, mDatasetAdapter);
                         FillResponse fillResponse = mResponseAdapter.buildResponseForFocusedNode(
@@ -224,26 +226,24 @@ public class ManualActivity extends AppCompatActivity {
     }
 
 
-    private void updateHeuristics() {
-//        TODO: update heuristics in data source; something like:
-//        mLocalAutofillDataSource.getAutofillDataset(mClientViewMetadata.getAllHints(),
-//                datasetName, new DataCallback<DatasetWithFilledAutofillFields>() {
-//                    @Override
-//                    public void onLoaded(DatasetWithFilledAutofillFields dataset) {
-//                        String datasetName = dataset.autofillDataset.getDatasetName();
-//                        RemoteViews remoteViews = RemoteViewsHelper.viewsWithNoAuth(
-//                                mPackageName, datasetName);
-//                        setDatasetIntent(mDatasetAdapter.buildDataset(fieldTypesByAutofillHint,
-//                                dataset, remoteViews));
-//                        finish();
-//                    }
-//
-//                    @Override
-//                    public void onDataNotAvailable(String msg, Object... params) {
-//                        logw(msg, params);
-//                        finish();
-//                    }
-//                });
+    /**
+     * Remembers the field type the user picked for the focused view when the app gave it no
+     * autofill hints, keyed by the app and the resource id of the view. The next fill request of
+     * the app then classifies the view with that heuristic, without the manual flow.
+     */
+    private void updateHeuristics(String clientPackageName, StructureIndex structureIndex,
+            String fieldTypeName) {
+        for (int i = 0; i < structureIndex.size(); i++) {
+            String idEntry = structureIndex.getIdEntry(i);
+            if (!structureIndex.isFocused(i) || structureIndex.hasHints(i) || idEntry == null
+                    || idEntry.isEmpty()) {
+                continue;
+            }
+            mLocalAutofillDataSource.saveResourceIdHeuristic(
+                    new ResourceIdHeuristic(idEntry, fieldTypeName, clientPackageName));
+            FillMetrics.getInstance().increment(clientPackageName, Counter.LEARNED_HEURISTICS);
+            return;
+        }
     }
 
     private void setResponseIntent(FillResponse fillResponse) {
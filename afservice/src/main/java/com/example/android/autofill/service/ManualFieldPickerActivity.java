@@ -32,14 +32,13 @@ import android.widget.TextView;
 
 import com.example.android.autofill.service.data.DataCallback;
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
-import com.example.android.autofill.service.data.source.local.DefaultFieldTypesLocalJsonSource;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
 import com.example.android.autofill.service.data.source.local.LocalAutofillDataSource;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
 import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FilledAutofillField;
 import com.example.android.autofill.service.util.AppExecutors;
-import com.google.gson.GsonBuilder;
 
 import java.util.List;
 
@@ -68,17 +67,15 @@ public class ManualFieldPickerActivity extends AppCompatActivity {
         setContentView(R.layout.activity_field_picker);
         SharedPreferences sharedPreferences = getSharedPreferences(
                 LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        DefaultFieldTypesSource defaultFieldTypesSource =
-                DefaultFieldTypesLocalJsonSource.getInstance(getResources(),
-                        new GsonBuilder().create());
+        DefaultFieldTypesSource defaultFieldTypesSource = DefaultFieldTypeCatalog.getInstance();
         AutofillDao autofillDao = AutofillDatabase.getInstance(this,
-                defaultFieldTypesSource, new AppExecutors()).autofillDao();
+                defaultFieldTypesSource).autofillDao();
         String datasetId = getIntent().getStringExtra(EXTRA_DATASET_ID);
         mRecyclerView = findViewById(R.id.fieldsList);
         mRecyclerView.addItemDecoration(new DividerItemDecoration(this, VERTICAL));
         mListTitle = findViewById(R.id.listTitle);
         mLocalAutofillDataSource = LocalAutofillDataSource.getInstance(sharedPreferences,
-                autofillDao, new AppExecutors());
+                autofillDao, AppExecutors.getInstance());
         mLocalAutofillDataSource.getAutofillDatasetWithId(datasetId,
                 new DataCallback<DatasetWithFilledAutofillFields>() {
                     @Override
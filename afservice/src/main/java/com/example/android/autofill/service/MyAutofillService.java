@@ -21,6 +21,7 @@ import android.content.IntentSender;
 import android.content.SharedPreferences;
 import android.os.CancellationSignal;
 import android.service.autofill.AutofillService;
+import android.service.autofill.Dataset;
 import android.service.autofill.FillCallback;
 import android.service.autofill.FillContext;
 import android.service.autofill.FillRequest;
@@ -28,19 +29,21 @@ import android.service.autofill.FillResponse;
 import android.service.autofill.SaveCallback;
 import android.service.autofill.SaveRequest;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.view.autofill.AutofillManager;
 import android.widget.RemoteViews;
 
-import com.example.android.autofill.service.data.AutofillDataBuilder;
-import com.example.android.autofill.service.data.ClientAutofillDataBuilder;
+import com.example.android.autofill.service.ClientViewMetadataCache.Resolution;
 import com.example.android.autofill.service.data.ClientViewMetadata;
 import com.example.android.autofill.service.data.ClientViewMetadataBuilder;
 import com.example.android.autofill.service.data.DataCallback;
+import com.example.android.autofill.service.data.HeuristicEngine;
 import com.example.android.autofill.service.data.adapter.DatasetAdapter;
 import com.example.android.autofill.service.data.adapter.ResponseAdapter;
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
 import com.example.android.autofill.service.data.source.PackageVerificationDataSource;
-import com.example.android.autofill.service.data.source.local.DefaultFieldTypesLocalJsonSource;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
 import com.example.android.autofill.service.data.source.local.DigitalAssetLinksRepository;
 import com.example.android.autofill.service.data.source.local.LocalAutofillDataSource;
 import com.example.android.autofill.service.data.source.local.SharedPrefsPackageVerificationRepository;
@@ -52,13 +55,20 @@ import com.example.android.autofill.service.model.DatasetWithFilledAutofillField
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.settings.MyPreferences;
 import com.example.android.autofill.service.util.AppExecutors;
+import com.example.android.autofill.service.util.FillMetrics;
+import com.example.android.autofill.service.util.FillMetrics.Counter;
+import com.example.android.autofill.service.util.FillMetrics.Stage;
 import com.example.android.autofill.service.util.Util;
-import com.google.gson.GsonBuilder;
 
-import java.util.HashMap;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.example.android.autofill.service.data.source.local.DigitalAssetLinksRepository.getCanonicalDomain;
 import static com.example.android.autofill.service.util.Util.DalCheckRequirement;
 import static com.example.android.autofill.service.util.Util.bundleToString;
 import static com.example.android.autofill.service.util.Util.dumpStructure;
@@ -74,162 +84,308 @@ public class MyAutofillService extends AutofillService {
     private LocalAutofillDataSource mLocalAutofillDataSource;
     private DigitalAssetLinksRepository mDalRepository;
     private PackageVerificationDataSource mPackageVerificationRepository;
-    private AutofillDataBuilder mAutofillDataBuilder;
-    private ResponseAdapter mResponseAdapter;
-    private ClientViewMetadata mClientViewMetadata;
     private MyPreferences mPreferences;
+    private Executor mFillWorker;
+    private Executor mDiskWrite;
+    private final AtomicBoolean mFirstFillPending = new AtomicBoolean(true);
+    private volatile boolean mWarm;
+    private final FillMetrics mFillMetrics = FillMetrics.getInstance();
+    private DatasetSelectionTracker mSelectionTracker;
+    private final ClientViewMetadataCache mMetadataCache = ClientViewMetadataCache.getInstance();
 
     @Override
     public void onCreate() {
         super.onCreate();
         mPreferences = MyPreferences.getInstance(this);
         Util.setLoggingLevel(mPreferences.getLoggingLevel());
+        mSelectionTracker = new DatasetSelectionTracker(mPreferences);
         SharedPreferences localAfDataSourceSharedPrefs =
                 getSharedPreferences(LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        DefaultFieldTypesSource defaultFieldTypesSource =
-                DefaultFieldTypesLocalJsonSource.getInstance(getResources(),
-                        new GsonBuilder().create());
+        DefaultFieldTypesSource defaultFieldTypesSource = DefaultFieldTypeCatalog.getInstance();
+        AppExecutors appExecutors = AppExecutors.getInstance();
         AutofillDao autofillDao = AutofillDatabase.getInstance(this,
-                defaultFieldTypesSource, new AppExecutors()).autofillDao();
+                defaultFieldTypesSource).autofillDao();
         mLocalAutofillDataSource = LocalAutofillDataSource.getInstance(localAfDataSourceSharedPrefs,
-                autofillDao, new AppExecutors());
-        mDalRepository = DigitalAssetLinksRepository.getInstance(getPackageManager());
+                autofillDao, appExecutors);
+        mFillWorker = appExecutors.fillWorker();
+        mDiskWrite = appExecutors.diskWrite();
+        mDalRepository = DigitalAssetLinksRepository.getInstance(this);
         mPackageVerificationRepository = SharedPrefsPackageVerificationRepository.getInstance(this);
     }
 
     @Override
     public void onFillRequest(@NonNull FillRequest request,
             @NonNull CancellationSignal cancellationSignal, @NonNull FillCallback callback) {
+        long startNanos = FillMetrics.now();
+        boolean warm = mWarm;
+        List<FillContext> fillContexts = request.getFillContexts();
+        AssistStructure latestStructure = fillContexts.get(fillContexts.size() - 1).getStructure();
+        String packageName = latestStructure.getActivityComponent().getPackageName();
+        mFillMetrics.increment(packageName, Counter.FILL_REQUESTS);
+        // Stale requests (e.g. the user already moved the focus) are dropped by a fill worker
+        // before running any query, and no response is built for them. A CancellationSignal
+        // only holds one listener, so this is the only one: the stages poll the signal instead,
+        // and a query already running when the request is cancelled is not interrupted.
+        cancellationSignal.setOnCancelListener(() -> {
+            mFillMetrics.increment(packageName, Counter.CANCELLED_FILL_REQUESTS);
+            logd("Fill request from %s cancelled.", packageName);
+        });
+        // The whole request runs on a fill worker, which completes the callback directly
+        // instead of bouncing between the disk thread and the (possibly busy) main thread.
+        mFillWorker.execute(() -> {
+            boolean verified;
+            FillResponse response;
+            try {
+                recordDatasetSelections();
+                verified = verifyPackageSignatures(packageName);
+                response = verified
+                        ? fill(request, packageName, cancellationSignal, startNanos) : null;
+            } catch (RuntimeException e) {
+                loge(e, "Fill request from %s failed", packageName);
+                callback.onFailure(getString(R.string.fill_exception));
+                return;
+            }
+            // The callback is completed outside of the try block, so that it is never completed
+            // twice if it throws.
+            if (!verified) {
+                callback.onFailure(getString(R.string.invalid_package_signature));
+                return;
+            }
+            if (cancellationSignal.isCanceled()) {
+                return;
+            }
+            // A null response is the valid answer when there is no data for the request.
+            callback.onSuccess(response);
+            mFillMetrics.recordStage(packageName, Stage.FILL_TOTAL, startNanos);
+            if (mFirstFillPending.compareAndSet(true, false)) {
+                mFillMetrics.recordStage(packageName,
+                        warm ? Stage.FIRST_FILL_WARM : Stage.FIRST_FILL_COLD, startNanos);
+            }
+        });
+    }
+
+    /**
+     * Stores the signatures of {@code packageName}, or returns {@code false} if they don't match
+     * the ones stored earlier.
+     */
+    @WorkerThread
+    private boolean verifyPackageSignatures(String packageName) {
+        long startNanos = FillMetrics.now();
+        if (!mPackageVerificationRepository.putPackageSignatures(packageName)) {
+            return false;
+        }
+        mFillMetrics.recordStage(packageName, Stage.SIGNATURE, startNanos);
+        return true;
+    }
+
+    /**
+     * Builds the response to a fill request, or returns {@code null} if there is no data for it
+     * or it was cancelled.
+     */
+    @WorkerThread
+    @Nullable
+    private FillResponse fill(FillRequest request, String packageName,
+            CancellationSignal cancellationSignal, long startNanos) {
+        if (cancellationSignal.isCanceled()) {
+            return null;
+        }
+        long parseStartNanos = FillMetrics.now();
         List<FillContext> fillContexts = request.getFillContexts();
         List<AssistStructure> structures =
                 fillContexts.stream().map(FillContext::getStructure).collect(toList());
         AssistStructure latestStructure = fillContexts.get(fillContexts.size() - 1).getStructure();
-        ClientParser parser = new ClientParser(structures);
+        StructureIndex structureIndex = StructureIndex.build(new ClientParser(structures));
+        mFillMetrics.recordStage(packageName, Stage.PARSE, parseStartNanos);
 
+        long hintMapStartNanos = FillMetrics.now();
+        Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint =
+                mLocalAutofillDataSource.getFieldTypeByAutofillHints();
+        mFillMetrics.recordStage(packageName, Stage.HINT_MAP, hintMapStartNanos);
+        if (fieldTypesByAutofillHint.isEmpty()) {
+            loge("Should not happen - could not find field types.");
+            return null;
+        }
+        Resolution resolution = resolveStructure(structureIndex, packageName,
+                fieldTypesByAutofillHint, mLocalAutofillDataSource.getHeuristicEngine());
+        if (resolution.areHintsInferred()) {
+            mFillMetrics.increment(packageName, Counter.INFERRED_FILLS);
+        }
         // Check user's settings for authenticating Responses and Datasets.
         boolean responseAuth = mPreferences.isResponseAuth();
         boolean datasetAuth = mPreferences.isDatasetAuth();
         boolean manual = (request.getFlags() & FillRequest.FLAG_MANUAL_REQUEST) != 0;
-        mLocalAutofillDataSource.getFieldTypeByAutofillHints(
-                new DataCallback<HashMap<String, FieldTypeWithHeuristics>>() {
-                    @Override
-                    public void onLoaded(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
-                        DatasetAdapter datasetAdapter = new DatasetAdapter(parser);
-                        ClientViewMetadataBuilder clientViewMetadataBuilder =
-                                new ClientViewMetadataBuilder(parser, fieldTypesByAutofillHint);
-                        mClientViewMetadata = clientViewMetadataBuilder.buildClientViewMetadata();
-                        mResponseAdapter = new ResponseAdapter(MyAutofillService.this,
-                                mClientViewMetadata, getPackageName(), datasetAdapter);
-                        String packageName = latestStructure.getActivityComponent().getPackageName();
-                        if (!mPackageVerificationRepository.putPackageSignatures(packageName)) {
-                            callback.onFailure(getString(R.string.invalid_package_signature));
-                            return;
-                        }
-                        if (logVerboseEnabled()) {
-                            logv("onFillRequest(): clientState=%s",
-                                    bundleToString(request.getClientState()));
-                            dumpStructure(latestStructure);
-                        }
-                        cancellationSignal.setOnCancelListener(() ->
-                                logw("Cancel autofill not implemented in this sample.")
-                        );
-                        fetchDataAndGenerateResponse(fieldTypesByAutofillHint, responseAuth,
-                                datasetAuth, manual, callback);
-                    }
-
-                    @Override
-                    public void onDataNotAvailable(String msg, Object... params) {
-
-                    }
-                });
+        AutofillRequestContext requestContext = AutofillRequestContext.forFill(this,
+                packageName, resolution, fieldTypesByAutofillHint, responseAuth, datasetAuth,
+                manual, cancellationSignal, startNanos);
+        if (logVerboseEnabled()) {
+            logv("onFillRequest(): clientState=%s", bundleToString(request.getClientState()));
+            dumpStructure(latestStructure);
+        }
+        return fetchDataAndGenerateResponse(requestContext);
     }
 
-    private void fetchDataAndGenerateResponse(
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint, boolean responseAuth,
-            boolean datasetAuth, boolean manual, FillCallback callback) {
-        if (responseAuth) {
+    @WorkerThread
+    @Nullable
+    private FillResponse fetchDataAndGenerateResponse(AutofillRequestContext requestContext) {
+        if (requestContext.isCanceled()) {
+            return null;
+        }
+        ResponseAdapter responseAdapter = requestContext.getResponseAdapter();
+        FillResponse response;
+        if (requestContext.isResponseAuth()) {
             // If the entire Autofill Response is authenticated, AuthActivity is used
             // to generate Response.
             IntentSender sender = AuthActivity.getAuthIntentSenderForResponse(this);
             RemoteViews remoteViews = RemoteViewsHelper.viewsWithAuth(getPackageName(),
                     getString(R.string.autofill_sign_in_prompt));
-            FillResponse response = mResponseAdapter.buildResponse(sender, remoteViews);
-            if (response != null) {
-                callback.onSuccess(response);
-            }
+            long buildStartNanos = FillMetrics.now();
+            response = responseAdapter.buildResponse(sender, remoteViews);
+            recordStage(requestContext, Stage.RESPONSE_BUILD, buildStartNanos);
         } else {
-            mLocalAutofillDataSource.getAutofillDatasets(mClientViewMetadata.getAllHints(),
-                    new DataCallback<List<DatasetWithFilledAutofillFields>>() {
-                        @Override
-                        public void onLoaded(List<DatasetWithFilledAutofillFields> datasets) {
-                            if ((datasets == null || datasets.isEmpty()) && manual) {
-                                IntentSender sender = ManualActivity
-                                        .getManualIntentSenderForResponse(MyAutofillService.this);
-                                RemoteViews remoteViews = RemoteViewsHelper.viewsWithNoAuth(
-                                        getPackageName(),
-                                        getString(R.string.autofill_manual_prompt));
-                                FillResponse response = mResponseAdapter.buildManualResponse(sender,
-                                        remoteViews);
-                                if (response != null) {
-                                    callback.onSuccess(response);
-                                }
-                            } else {
-                                FillResponse response = mResponseAdapter.buildResponse(
-                                        fieldTypesByAutofillHint, datasets, datasetAuth);
-                                callback.onSuccess(response);
-                            }
-                        }
+            long queryStartNanos = FillMetrics.now();
+            List<DatasetWithFilledAutofillFields> datasets = queryDatasets(requestContext);
+            recordStage(requestContext, Stage.DATASET_QUERY, queryStartNanos);
+            if (requestContext.isCanceled()) {
+                return null;
+            }
+            if ((datasets == null || datasets.isEmpty()) && requestContext.isManual()) {
+                IntentSender sender = ManualActivity.getManualIntentSenderForResponse(this);
+                RemoteViews remoteViews = RemoteViewsHelper.viewsWithNoAuth(getPackageName(),
+                        getString(R.string.autofill_manual_prompt));
+                long buildStartNanos = FillMetrics.now();
+                response = responseAdapter.buildManualResponse(sender, remoteViews);
+                recordStage(requestContext, Stage.RESPONSE_BUILD, buildStartNanos);
+                mFillMetrics.increment(requestContext.getClientPackageName(),
+                        Counter.MANUAL_RESPONSES);
+            } else {
+                long bindStartNanos = FillMetrics.now();
+                List<Dataset> boundDatasets = responseAdapter.buildDatasets(
+                        requestContext.getFieldTypesByAutofillHint(), datasets,
+                        requestContext.isDatasetAuth());
+                recordStage(requestContext, Stage.DATASET_BIND, bindStartNanos);
+                long buildStartNanos = FillMetrics.now();
+                response = responseAdapter.buildResponse(boundDatasets);
+                recordStage(requestContext, Stage.RESPONSE_BUILD, buildStartNanos);
+            }
+        }
+        return response;
+    }
 
-                        @Override
-                        public void onDataNotAvailable(String msg, Object... params) {
-                            logw(msg, params);
-                            callback.onFailure(String.format(msg, params));
-                        }
-                    });
+    /**
+     * Loads the most used datasets matching the fields of a fill request, within the
+     * {@link MyPreferences#getDatasetScope() configured scope}.
+     */
+    @WorkerThread
+    private List<DatasetWithFilledAutofillFields> queryDatasets(
+            AutofillRequestContext requestContext) {
+        List<String> allHints = requestContext.getClientViewMetadata().getAllHints();
+        String packageName = requestContext.getClientPackageName();
+        int limit = mPreferences.getMaxFillDatasets();
+        switch (mPreferences.getDatasetScope()) {
+            case Package:
+                return mLocalAutofillDataSource.getAutofillDatasets(allHints, packageName, null,
+                        limit);
+            case WebDomainOrPackage:
+                String webDomain = getCanonicalDomain(
+                        requestContext.getClientViewMetadata().getWebDomain());
+                return mLocalAutofillDataSource.getAutofillDatasets(allHints, packageName,
+                        webDomain, limit);
+            default:
+                return mLocalAutofillDataSource.getAutofillDatasets(allHints, limit);
         }
     }
 
     @Override
     public void onSaveRequest(@NonNull SaveRequest request, @NonNull SaveCallback callback) {
+        long startNanos = FillMetrics.now();
         List<FillContext> fillContexts = request.getFillContexts();
         List<AssistStructure> structures =
                 fillContexts.stream().map(FillContext::getStructure).collect(toList());
         AssistStructure latestStructure = fillContexts.get(fillContexts.size() - 1).getStructure();
-        ClientParser parser = new ClientParser(structures);
-        mLocalAutofillDataSource.getFieldTypeByAutofillHints(
-                new DataCallback<HashMap<String, FieldTypeWithHeuristics>>() {
-                    @Override
-                    public void onLoaded(
-                            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
-                        mAutofillDataBuilder = new ClientAutofillDataBuilder(
-                                fieldTypesByAutofillHint, getPackageName(), parser);
-                        ClientViewMetadataBuilder clientViewMetadataBuilder =
-                                new ClientViewMetadataBuilder(parser, fieldTypesByAutofillHint);
-                        mClientViewMetadata = clientViewMetadataBuilder.buildClientViewMetadata();
-                        String packageName = latestStructure.getActivityComponent().getPackageName();
-                        if (!mPackageVerificationRepository.putPackageSignatures(packageName)) {
-                            callback.onFailure(getString(R.string.invalid_package_signature));
-                            return;
-                        }
-                        if (logVerboseEnabled()) {
-                            logv("onSaveRequest(): clientState=%s",
-                                    bundleToString(request.getClientState()));
-                        }
-                        dumpStructure(latestStructure);
-                        checkWebDomainAndBuildAutofillData(packageName, callback);
-                    }
+        String packageName = latestStructure.getActivityComponent().getPackageName();
+        StructureIndex structureIndex = StructureIndex.build(new ClientParser(structures));
+        mFillMetrics.increment(packageName, Counter.SAVE_REQUESTS);
+        recordDatasetSelections();
+        mFillMetrics.recordStage(packageName, Stage.PARSE, startNanos);
+        // Runs on the disk write thread, since the field types and heuristics may have to be
+        // loaded from the database, and saves are not worth delaying fill requests for.
+        mDiskWrite.execute(() -> {
+            long hintMapStartNanos = FillMetrics.now();
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint =
+                    mLocalAutofillDataSource.getFieldTypeByAutofillHints();
+            if (fieldTypesByAutofillHint.isEmpty()) {
+                loge("Should not happen - could not find field types.");
+                callback.onFailure(getString(R.string.save_exception));
+                return;
+            }
+            mFillMetrics.recordStage(packageName, Stage.HINT_MAP, hintMapStartNanos);
+            AutofillRequestContext requestContext = AutofillRequestContext.forSave(packageName,
+                    inferHints(structureIndex, mLocalAutofillDataSource.getHeuristicEngine(),
+                            packageName), fieldTypesByAutofillHint,
+                    startNanos);
+            long signatureStartNanos = FillMetrics.now();
+            if (!mPackageVerificationRepository.putPackageSignatures(packageName)) {
+                callback.onFailure(getString(R.string.invalid_package_signature));
+                return;
+            }
+            mFillMetrics.recordStage(packageName, Stage.SIGNATURE, signatureStartNanos);
+            if (logVerboseEnabled()) {
+                logv("onSaveRequest(): clientState=%s", bundleToString(request.getClientState()));
+            }
+            dumpStructure(latestStructure);
+            checkWebDomainAndBuildAutofillData(requestContext, callback);
+        });
+    }
+
+    /**
+     * Infers the hints of the views of a fill request and resolves its metadata and the field
+     * type of each view, or reuses what was resolved the last time the same screen was filled.
+     */
+    @WorkerThread
+    private Resolution resolveStructure(StructureIndex parsedIndex, String packageName,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            HeuristicEngine heuristicEngine) {
+        long startNanos = FillMetrics.now();
+        Resolution resolution =
+                mMetadataCache.get(parsedIndex, fieldTypesByAutofillHint, heuristicEngine);
+        if (resolution != null) {
+            mFillMetrics.increment(packageName, Counter.CACHED_RESOLUTIONS);
+        } else {
+            StructureIndex structureIndex =
+                    inferHints(parsedIndex, heuristicEngine, packageName);
+            ClientViewMetadataBuilder builder =
+                    new ClientViewMetadataBuilder(structureIndex, fieldTypesByAutofillHint);
+            ClientViewMetadata clientViewMetadata = builder.buildClientViewMetadata();
+            String[] fieldTypeNames = new DatasetAdapter(structureIndex)
+                    .getFieldTypeNames(fieldTypesByAutofillHint);
+            resolution = new Resolution(structureIndex, clientViewMetadata, fieldTypeNames,
+                    structureIndex != parsedIndex);
+            mMetadataCache.put(parsedIndex, fieldTypesByAutofillHint, heuristicEngine,
+                    resolution, builder.getAutofillIdNodeIndexes());
+        }
+        mFillMetrics.recordStage(packageName, Stage.RESOLVE, startNanos);
+        return resolution;
+    }
 
-                    @Override
-                    public void onDataNotAvailable(String msg, Object... params) {
-                        loge("Should not happen - could not find field types.");
-                    }
-                });
+    /**
+     * Gives the views without autofill hints the hints inferred by the stored heuristics.
+     */
+    @WorkerThread
+    private StructureIndex inferHints(StructureIndex structureIndex,
+            HeuristicEngine heuristicEngine, String packageName) {
+        long startNanos = FillMetrics.now();
+        StructureIndex inferredIndex =
+                structureIndex.withInferredHints(heuristicEngine, packageName);
+        mFillMetrics.recordStage(packageName, Stage.HEURISTICS, startNanos);
+        return inferredIndex;
     }
 
-    private void checkWebDomainAndBuildAutofillData(String packageName, SaveCallback callback) {
+    private void checkWebDomainAndBuildAutofillData(AutofillRequestContext requestContext,
+            SaveCallback callback) {
+        String packageName = requestContext.getClientPackageName();
         String webDomain;
         try {
-            webDomain = mClientViewMetadata.getWebDomain();
+            webDomain = requestContext.getClientViewMetadata().getWebDomain();
         } catch (SecurityException e) {
             logw(e.getMessage());
             callback.onFailure(getString(R.string.security_exception));
@@ -237,42 +393,87 @@ public class MyAutofillService extends AutofillService {
         }
         if (webDomain != null && webDomain.length() > 0) {
             DalCheckRequirement req = mPreferences.getDalCheckRequirement();
+            long dalCheckStartNanos = FillMetrics.now();
             mDalRepository.checkValid(req, new DalInfo(webDomain, packageName),
                     new DataCallback<DalCheck>() {
                         @Override
                         public void onLoaded(DalCheck dalCheck) {
+                            recordStage(requestContext, Stage.DAL_CHECK, dalCheckStartNanos);
                             if (dalCheck.linked) {
                                 logd("Domain %s is valid for %s", webDomain, packageName);
-                                buildAndSaveAutofillData();
+                                buildAndSaveAutofillData(requestContext, callback);
                             } else {
-                                loge("Could not associate web domain %s with app %s",
-                                        webDomain, packageName);
+                                loge("Could not associate web domain %s with app %s (%s)",
+                                        webDomain, packageName, dalCheck.debugString);
                                 callback.onFailure(getString(R.string.dal_exception));
                             }
                         }
 
                         @Override
                         public void onDataNotAvailable(String msg, Object... params) {
+                            recordStage(requestContext, Stage.DAL_CHECK, dalCheckStartNanos);
                             logw(msg, params);
                             callback.onFailure(getString(R.string.dal_exception));
                         }
                     });
         } else {
             logd("no web domain");
-            buildAndSaveAutofillData();
+            buildAndSaveAutofillData(requestContext, callback);
         }
     }
 
-    private void buildAndSaveAutofillData() {
-        int datasetNumber = mLocalAutofillDataSource.getDatasetNumber();
-        List<DatasetWithFilledAutofillFields> datasetsWithFilledAutofillFields =
-                mAutofillDataBuilder.buildDatasetsByPartition(datasetNumber);
-        mLocalAutofillDataSource.saveAutofillDatasets(datasetsWithFilledAutofillFields);
+    private void buildAndSaveAutofillData(AutofillRequestContext requestContext,
+            SaveCallback callback) {
+        mLocalAutofillDataSource.saveAutofillDatasets(requestContext.getAutofillDataBuilder());
+        callback.onSuccess();
+    }
+
+    /**
+     * Counts the datasets the user selected from the previous response towards their ranking.
+     */
+    private void recordDatasetSelections() {
+        List<String> datasetIds = mSelectionTracker.getNewSelections(getFillEventHistory());
+        if (!datasetIds.isEmpty()) {
+            mLocalAutofillDataSource.recordDatasetUsage(datasetIds);
+        }
+    }
+
+    private void recordStage(AutofillRequestContext requestContext, Stage stage,
+            long startNanos) {
+        mFillMetrics.recordStage(requestContext.getClientPackageName(), stage, startNanos);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mFillMetrics.dump(pw);
     }
 
     @Override
     public void onConnected() {
         logd("onConnected");
+        // Runs on a fill worker, so that binding itself is not delayed. A fill request arriving in
+        // the meantime runs on another one, and loads what it needs itself.
+        mFillWorker.execute(this::warmUp);
+        CompactionJobService.schedule(this);
+    }
+
+    /**
+     * Opens the database (creating and populating it if needed), loads the field types and
+     * computes the fingerprints of known client packages, which the first fill request would
+     * otherwise pay for.
+     */
+    @WorkerThread
+    private void warmUp() {
+        long startNanos = FillMetrics.now();
+        try {
+            mLocalAutofillDataSource.getFieldTypeByAutofillHints();
+            mPackageVerificationRepository.warmUp();
+        } catch (RuntimeException e) {
+            logw(e, "Warm-up failed");
+            return;
+        }
+        mFillMetrics.recordStage(getPackageName(), Stage.WARM_UP, startNanos);
+        mWarm = true;
     }
 
     @Override
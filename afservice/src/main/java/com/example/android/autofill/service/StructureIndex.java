@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service;
+
+import android.app.assist.AssistStructure;
+import android.app.assist.AssistStructure.ViewNode;
+import android.content.ComponentName;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Pair;
+import android.view.View;
+import android.view.ViewStructure;
+import android.view.autofill.AutofillId;
+import android.view.autofill.AutofillValue;
+
+import com.example.android.autofill.service.data.HeuristicEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static com.example.android.autofill.service.util.Util.logd;
+
+/**
+ * Flattened, read-only view of the {@link AssistStructure}s of a request.
+ * <p>
+ * The structure is traversed exactly once, when the index is built; every node that is relevant
+ * for autofill (it has autofill hints, an autofill type, or is focused) is then stored by position
+ * in parallel arrays, so that building the metadata, binding each dataset and collecting the
+ * values to save can iterate over plain arrays instead of walking the view hierarchy again.
+ * <p>
+ * The index also has a {@link #getFingerprint() fingerprint} of the shape of the screen, so that
+ * what is resolved from it can be reused the next time the same screen is filled.
+ */
+public final class StructureIndex {
+    private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private final ViewNode[] mNodes;
+    private final AutofillId[] mAutofillIds;
+    private final String[][] mHints;
+    private final String[][] mNormalizedHints;
+    private final int[] mAutofillTypes;
+    private final CharSequence[][] mAutofillOptions;
+    private final AutofillValue[] mAutofillValues;
+    private final String[] mIdEntries;
+    private final boolean[] mFocused;
+    // Texts heuristics are matched against, for the nodes they can classify, or null.
+    private final String[][] mIdentifyingTexts;
+    private final String mActivityComponent;
+    private final String mWebDomain;
+    private final String mConflictingWebDomain;
+    private final long mFingerprint;
+
+    /**
+     * Copy of {@code index} with other hints.
+     */
+    private StructureIndex(StructureIndex index, String[][] hints) {
+        this(index, hints, normalizeChangedHints(index, hints));
+    }
+
+    /**
+     * Copy of {@code index} with other hints, already normalized.
+     */
+    private StructureIndex(StructureIndex index, String[][] hints, String[][] normalizedHints) {
+        mNodes = index.mNodes;
+        mAutofillIds = index.mAutofillIds;
+        mHints = hints;
+        mNormalizedHints = normalizedHints;
+        mAutofillTypes = index.mAutofillTypes;
+        mAutofillOptions = index.mAutofillOptions;
+        mAutofillValues = index.mAutofillValues;
+        mIdEntries = index.mIdEntries;
+        mFocused = index.mFocused;
+        mIdentifyingTexts = index.mIdentifyingTexts;
+        mActivityComponent = index.mActivityComponent;
+        mWebDomain = index.mWebDomain;
+        mConflictingWebDomain = index.mConflictingWebDomain;
+        mFingerprint = index.mFingerprint;
+    }
+
+    private StructureIndex(Builder builder) {
+        int size = builder.mNodes.size();
+        mNodes = builder.mNodes.toArray(new ViewNode[size]);
+        mAutofillIds = new AutofillId[size];
+        mHints = new String[size][];
+        mNormalizedHints = new String[size][];
+        mAutofillTypes = new int[size];
+        mAutofillOptions = new CharSequence[size][];
+        mAutofillValues = new AutofillValue[size];
+        mIdEntries = new String[size];
+        mFocused = new boolean[size];
+        mIdentifyingTexts = new String[size][];
+        mActivityComponent = builder.mActivityComponent;
+        long fingerprint = mix(FINGERPRINT_SEED, Objects.hashCode(mActivityComponent));
+        for (int i = 0; i < size; i++) {
+            ViewNode node = mNodes[i];
+            mAutofillIds[i] = node.getAutofillId();
+            mHints[i] = node.getAutofillHints();
+            mNormalizedHints[i] = mHints[i] != null
+                    ? AutofillHints.normalizeHints(mHints[i]) : null;
+            mAutofillTypes[i] = node.getAutofillType();
+            mAutofillOptions[i] = node.getAutofillOptions();
+            mAutofillValues[i] = node.getAutofillValue();
+            mIdEntries[i] = node.getIdEntry();
+            mFocused[i] = node.isFocused();
+            if (!hasHints(i) && mAutofillIds[i] != null
+                    && mAutofillTypes[i] != View.AUTOFILL_TYPE_NONE) {
+                mIdentifyingTexts[i] = getIdentifyingTexts(node);
+            }
+            fingerprint = mix(fingerprint, Objects.hashCode(mIdEntries[i]));
+            fingerprint = mix(fingerprint, Arrays.hashCode(mHints[i]));
+            fingerprint = mix(fingerprint, mAutofillTypes[i]);
+            fingerprint = mix(fingerprint, Arrays.hashCode(mIdentifyingTexts[i]));
+        }
+        mWebDomain = builder.mWebDomain;
+        mConflictingWebDomain = builder.mConflictingWebDomain;
+        mFingerprint = mix(fingerprint, mWebDomain.hashCode());
+    }
+
+    /**
+     * Builds the index with a single traversal of every structure wrapped by {@code parser}.
+     */
+    public static StructureIndex build(@NonNull ClientParser parser) {
+        Builder builder = new Builder(parser.getActivityComponent());
+        parser.parse(builder::processNode);
+        return new StructureIndex(builder);
+    }
+
+    /**
+     * Returns a copy of this index in which the autofillable nodes without autofill hints that
+     * {@code heuristicEngine} classifies have the hint it infers, or this index if there are none.
+     * The rest of the pipeline then handles them as if the app had set the hint.
+     */
+    @NonNull
+    public StructureIndex withInferredHints(@NonNull HeuristicEngine heuristicEngine,
+            @NonNull String packageName) {
+        if (heuristicEngine.isEmpty()) {
+            return this;
+        }
+        String[][] hints = null;
+        for (int i = 0; i < mNodes.length; i++) {
+            if (mIdentifyingTexts[i] == null) {
+                continue;
+            }
+            String hint = heuristicEngine.inferHint(packageName, mIdEntries[i],
+                    Arrays.asList(mIdentifyingTexts[i]));
+            if (hint != null) {
+                logd("Inferred hint %s for %s", hint, mIdEntries[i]);
+                if (hints == null) {
+                    hints = mHints.clone();
+                }
+                hints[i] = new String[]{hint};
+            }
+        }
+        return hints != null ? new StructureIndex(this, hints) : this;
+    }
+
+    /**
+     * Returns a copy of this index with the given hints, e.g. the ones {@link #withInferredHints}
+     * resolved for a previous index with the same {@link Shape}.
+     */
+    @NonNull
+    public StructureIndex withResolvedHints(@NonNull String[][] hints,
+            @NonNull String[][] normalizedHints) {
+        if (hints.length != mNodes.length || normalizedHints.length != mNodes.length) {
+            throw new IllegalArgumentException("Expected hints for " + mNodes.length
+                    + " nodes, got " + hints.length);
+        }
+        return new StructureIndex(this, hints, normalizedHints);
+    }
+
+    private static String[][] normalizeChangedHints(StructureIndex index, String[][] hints) {
+        String[][] normalizedHints = new String[hints.length][];
+        for (int i = 0; i < hints.length; i++) {
+            normalizedHints[i] = hints[i] == index.mHints[i] ? index.mNormalizedHints[i]
+                    : AutofillHints.normalizeHints(hints[i]);
+        }
+        return normalizedHints;
+    }
+
+    /**
+     * Returns the texts heuristics are matched against: the resource id, the hint text, and the
+     * attributes identifying an HTML input.
+     */
+    private static String[] getIdentifyingTexts(ViewNode node) {
+        List<String> texts = new ArrayList<>();
+        if (node.getIdEntry() != null) {
+            texts.add(node.getIdEntry());
+        }
+        if (node.getHint() != null) {
+            texts.add(node.getHint());
+        }
+        ViewStructure.HtmlInfo htmlInfo = node.getHtmlInfo();
+        if (htmlInfo != null && htmlInfo.getAttributes() != null) {
+            for (Pair<String, String> attribute : htmlInfo.getAttributes()) {
+                if (attribute.second != null && isIdentifyingHtmlAttribute(attribute.first)) {
+                    texts.add(attribute.second);
+                }
+            }
+        }
+        return texts.toArray(new String[texts.size()]);
+    }
+
+    private static long mix(long hash, int value) {
+        // FNV-1a over whole ints.
+        return (hash ^ value) * FINGERPRINT_PRIME;
+    }
+
+    private static boolean isIdentifyingHtmlAttribute(String name) {
+        if (name == null) {
+            return false;
+        }
+        switch (name) {
+            case "id":
+            case "name":
+            case "type":
+            case "label":
+            case "placeholder":
+            case "aria-label":
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of indexed nodes.
+     */
+    public int size() {
+        return mNodes.length;
+    }
+
+    @NonNull
+    public ViewNode getNode(int index) {
+        return mNodes[index];
+    }
+
+    @Nullable
+    public AutofillId getAutofillId(int index) {
+        return mAutofillIds[index];
+    }
+
+    /**
+     * Returns the autofill hints of the node, or {@code null} if it doesn't have any.
+     */
+    @Nullable
+    public String[] getHints(int index) {
+        return mHints[index];
+    }
+
+    /**
+     * Returns the autofill hints of the node as {@link AutofillHints#normalizeHints normalized}
+     * when the index was built, or {@code null} if it doesn't have any.
+     */
+    @Nullable
+    public String[] getNormalizedHints(int index) {
+        return mNormalizedHints[index];
+    }
+
+    public boolean hasHints(int index) {
+        String[] hints = mHints[index];
+        return hints != null && hints.length > 0;
+    }
+
+    public int getAutofillType(int index) {
+        return mAutofillTypes[index];
+    }
+
+    @Nullable
+    public CharSequence[] getAutofillOptions(int index) {
+        return mAutofillOptions[index];
+    }
+
+    @Nullable
+    public AutofillValue getAutofillValue(int index) {
+        return mAutofillValues[index];
+    }
+
+    @Nullable
+    public String getIdEntry(int index) {
+        return mIdEntries[index];
+    }
+
+    public boolean isFocused(int index) {
+        return mFocused[index];
+    }
+
+    /**
+     * Returns a hash of the activity and of the resource id, autofill hints, autofill type and
+     * heuristic texts of each indexed node, in order. Indexes of the same screen have the same
+     * fingerprint, whatever the values of their views; use {@link Shape#matches} to rule out
+     * collisions.
+     */
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Returns the shape of the screen this index was built from, which doesn't keep its views.
+     */
+    @NonNull
+    public Shape getShape() {
+        return new Shape(this);
+    }
+
+    /**
+     * Returns the web domain shared by all nodes, or an empty string if there is none.
+     *
+     * @throws SecurityException if the nodes declare more than one web domain.
+     */
+    @NonNull
+    public String getWebDomain() {
+        if (mConflictingWebDomain != null) {
+            throw new SecurityException("Found multiple web domains: valid= "
+                    + mWebDomain + ", child=" + mConflictingWebDomain);
+        }
+        return mWebDomain;
+    }
+
+    /**
+     * What the fingerprint of an index is computed from: everything resolving its hints and
+     * field types depends on, but none of the views or their values.
+     */
+    public static final class Shape {
+        private final long mFingerprint;
+        private final String mActivityComponent;
+        private final String[] mIdEntries;
+        private final String[][] mHints;
+        private final int[] mAutofillTypes;
+        private final String[][] mIdentifyingTexts;
+        private final String mWebDomain;
+
+        private Shape(StructureIndex index) {
+            // The arrays of an index are never modified, so they are shared.
+            mFingerprint = index.mFingerprint;
+            mActivityComponent = index.mActivityComponent;
+            mIdEntries = index.mIdEntries;
+            mHints = index.mHints;
+            mAutofillTypes = index.mAutofillTypes;
+            mIdentifyingTexts = index.mIdentifyingTexts;
+            mWebDomain = index.mWebDomain;
+        }
+
+        /**
+         * Whether {@code index} was built from a screen of this shape.
+         */
+        public boolean matches(@NonNull StructureIndex index) {
+            return mFingerprint == index.mFingerprint
+                    && Objects.equals(mActivityComponent, index.mActivityComponent)
+                    && mWebDomain.equals(index.mWebDomain)
+                    && Arrays.equals(mIdEntries, index.mIdEntries)
+                    && Arrays.equals(mAutofillTypes, index.mAutofillTypes)
+                    && Arrays.deepEquals(mHints, index.mHints)
+                    && Arrays.deepEquals(mIdentifyingTexts, index.mIdentifyingTexts);
+        }
+    }
+
+    private static final class Builder {
+        private final List<ViewNode> mNodes = new ArrayList<>();
+        private final String mActivityComponent;
+        private String mWebDomain = "";
+        private String mConflictingWebDomain;
+
+        private Builder(@Nullable ComponentName activityComponent) {
+            mActivityComponent = activityComponent != null
+                    ? activityComponent.flattenToShortString() : null;
+        }
+
+        private void processNode(ViewNode node) {
+            String webDomain = node.getWebDomain();
+            if (webDomain != null) {
+                logd("child web domain: %s", webDomain);
+                if (mWebDomain.isEmpty()) {
+                    mWebDomain = webDomain;
+                } else if (mConflictingWebDomain == null && !webDomain.equals(mWebDomain)) {
+                    mConflictingWebDomain = webDomain;
+                }
+            }
+            String[] hints = node.getAutofillHints();
+            if ((hints != null && hints.length > 0) || node.isFocused()
+                    || node.getAutofillType() != View.AUTOFILL_TYPE_NONE) {
+                mNodes.add(node);
+            }
+        }
+    }
+}
@@ -16,13 +16,12 @@
 
 package com.example.android.autofill.service.data;
 
-import android.app.assist.AssistStructure;
 import android.support.annotation.NonNull;
 import android.view.View;
 import android.view.autofill.AutofillValue;
 
 import com.example.android.autofill.service.AutofillHints;
-import com.example.android.autofill.service.ClientParser;
+import com.example.android.autofill.service.StructureIndex;
 import com.example.android.autofill.service.model.AutofillDataset;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldType;
@@ -30,22 +29,23 @@ import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 import com.google.common.collect.ImmutableList;
 
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
 
+import static com.example.android.autofill.service.data.source.local.DigitalAssetLinksRepository.getCanonicalDomain;
 import static com.example.android.autofill.service.util.Util.loge;
 
 public class ClientAutofillDataBuilder implements AutofillDataBuilder {
-    private final ClientParser mClientParser;
-    private final HashMap<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+    private final StructureIndex mStructureIndex;
+    private final Map<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
     private final String mPackageName;
 
-    public ClientAutofillDataBuilder(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
-            String packageName, ClientParser clientParser) {
-        mClientParser = clientParser;
+    public ClientAutofillDataBuilder(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            String packageName, StructureIndex structureIndex) {
+        mStructureIndex = structureIndex;
         mFieldTypesByAutofillHint = fieldTypesByAutofillHint;
         mPackageName = packageName;
     }
@@ -54,12 +54,19 @@ public class ClientAutofillDataBuilder implements AutofillDataBuilder {
     public List<DatasetWithFilledAutofillFields> buildDatasetsByPartition(int datasetNumber) {
         ImmutableList.Builder<DatasetWithFilledAutofillFields> listBuilder =
                 new ImmutableList.Builder<>();
+        long now = System.currentTimeMillis();
+        // Null when the page has no valid web domain: the datasets are then only for the app.
+        String webDomain = getCanonicalDomain(mStructureIndex.getWebDomain());
         for (int partition : AutofillHints.PARTITIONS) {
             AutofillDataset autofillDataset = new AutofillDataset(UUID.randomUUID().toString(),
                     "dataset-" + datasetNumber + "." + partition, mPackageName);
             DatasetWithFilledAutofillFields dataset =
                     buildDatasetForPartition(autofillDataset, partition);
             if (dataset != null && dataset.filledAutofillFields != null) {
+                dataset.autofillDataset = new AutofillDataset(autofillDataset.getId(),
+                        autofillDataset.getDatasetName(), mPackageName, webDomain,
+                        AutofillDataset.computeContentHash(mPackageName, webDomain, partition,
+                                dataset.filledAutofillFields), now);
                 listBuilder.add(dataset);
             }
         }
@@ -67,7 +74,7 @@ public class ClientAutofillDataBuilder implements AutofillDataBuilder {
     }
 
     /**
-     * Parses a client view structure and build a dataset (in the form of a
+     * Iterates over the indexed client view nodes and build a dataset (in the form of a
      * {@link DatasetWithFilledAutofillFields}) from the view metadata found.
      */
     private DatasetWithFilledAutofillFields buildDatasetForPartition(AutofillDataset dataset,
@@ -75,20 +82,20 @@ public class ClientAutofillDataBuilder implements AutofillDataBuilder {
         DatasetWithFilledAutofillFields datasetWithFilledAutofillFields =
                 new DatasetWithFilledAutofillFields();
         datasetWithFilledAutofillFields.autofillDataset = dataset;
-        mClientParser.parse((node) ->
-                parseAutofillFields(node, datasetWithFilledAutofillFields, partition)
-        );
+        for (int i = 0; i < mStructureIndex.size(); i++) {
+            parseAutofillFields(i, datasetWithFilledAutofillFields, partition);
+        }
         return datasetWithFilledAutofillFields;
 
     }
 
-    private void parseAutofillFields(AssistStructure.ViewNode viewNode,
+    private void parseAutofillFields(int nodeIndex,
             DatasetWithFilledAutofillFields datasetWithFilledAutofillFields, int partition) {
-        String[] hints = viewNode.getAutofillHints();
+        String[] hints = mStructureIndex.getHints(nodeIndex);
         if (hints == null || hints.length == 0) {
             return;
         }
-        AutofillValue autofillValue = viewNode.getAutofillValue();
+        AutofillValue autofillValue = mStructureIndex.getAutofillValue(nodeIndex);
         String textValue = null;
         Long dateValue = null;
         Boolean toggleValue = null;
@@ -102,7 +109,7 @@ public class ClientAutofillDataBuilder implements AutofillDataBuilder {
             } else if (autofillValue.isDate()) {
                 dateValue = autofillValue.getDateValue();
             } else if (autofillValue.isList()) {
-                autofillOptions = viewNode.getAutofillOptions();
+                autofillOptions = mStructureIndex.getAutofillOptions(nodeIndex);
                 listIndex = autofillValue.getListValue();
             } else if (autofillValue.isToggle()) {
                 toggleValue = autofillValue.getToggleValue();
@@ -126,26 +133,26 @@ public class ClientAutofillDataBuilder implements AutofillDataBuilder {
                 if (!AutofillHints.matchesPartition(fieldType.getPartition(), partition)) {
                     continue;
                 }
-                    // Only add the field if the hint is supported by the type.
+                // Only add the field if the hint is supported by the type.
                 if (textValue != null) {
-                        if (!fieldType.getAutofillTypes().ints.contains(View.AUTOFILL_TYPE_TEXT)) {
-                            loge("Text is invalid type for hint '%s'", hint);
-                        }
+                    if (!fieldType.supportsAutofillType(View.AUTOFILL_TYPE_TEXT)) {
+                        loge("Text is invalid type for hint '%s'", hint);
                     }
+                }
                 if (autofillOptions != null && listIndex != null &&
                         autofillOptions.length > listIndex) {
-                    if (!fieldType.getAutofillTypes().ints.contains(View.AUTOFILL_TYPE_LIST)) {
+                    if (!fieldType.supportsAutofillType(View.AUTOFILL_TYPE_LIST)) {
                         loge("List is invalid type for hint '%s'", hint);
                     }
                     textValue = autofillOptions[listIndex].toString();
                 }
                 if (dateValue != null) {
-                    if (!fieldType.getAutofillTypes().ints.contains(View.AUTOFILL_TYPE_DATE)) {
+                    if (!fieldType.supportsAutofillType(View.AUTOFILL_TYPE_DATE)) {
                         loge("Date is invalid type for hint '%s'", hint);
                     }
                 }
                 if (toggleValue != null) {
-                    if (!fieldType.getAutofillTypes().ints.contains(View.AUTOFILL_TYPE_TOGGLE)) {
+                    if (!fieldType.supportsAutofillType(View.AUTOFILL_TYPE_TOGGLE)) {
                         loge("Toggle is invalid type for hint '%s'", hint);
                     }
                 }
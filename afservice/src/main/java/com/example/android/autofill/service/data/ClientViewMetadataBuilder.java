@@ -17,75 +17,86 @@
 package com.example.android.autofill.service.data;
 
 
-import android.app.assist.AssistStructure;
-import android.util.MutableInt;
 import android.view.autofill.AutofillId;
 
-import com.example.android.autofill.service.ClientParser;
-import com.example.android.autofill.service.model.FieldType;
+import com.example.android.autofill.service.StructureIndex;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-
-import static com.example.android.autofill.service.util.Util.logd;
+import java.util.Map;
 
 public class ClientViewMetadataBuilder {
-    private ClientParser mClientParser;
-    private HashMap<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+    private StructureIndex mStructureIndex;
+    private Map<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+    private int[] mAutofillIdNodeIndexes;
 
-    public ClientViewMetadataBuilder(ClientParser parser,
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
-        mClientParser = parser;
+    public ClientViewMetadataBuilder(StructureIndex structureIndex,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
+        mStructureIndex = structureIndex;
         mFieldTypesByAutofillHint = fieldTypesByAutofillHint;
     }
 
     public ClientViewMetadata buildClientViewMetadata() {
         List<String> allHints = new ArrayList<>();
-        MutableInt saveType = new MutableInt(0);
+        int saveType = 0;
         List<AutofillId> autofillIds = new ArrayList<>();
-        StringBuilder webDomainBuilder = new StringBuilder();
-        List<AutofillId> focusedAutofillIds = new ArrayList<>();
-        mClientParser.parse((node) -> parseNode(node, allHints, saveType, autofillIds, focusedAutofillIds));
-        mClientParser.parse((node) -> parseWebDomain(node, webDomainBuilder));
-        String webDomain = webDomainBuilder.toString();
+        List<Integer> autofillIdNodeIndexes = new ArrayList<>();
+        for (int i = 0; i < mStructureIndex.size(); i++) {
+            String[] hints = mStructureIndex.getHints(i);
+            if (hints != null) {
+                for (String hint : hints) {
+                    FieldTypeWithHeuristics fieldTypeWithHints =
+                            mFieldTypesByAutofillHint.get(hint);
+                    if (fieldTypeWithHints != null && fieldTypeWithHints.fieldType != null) {
+                        allHints.add(hint);
+                        saveType |= fieldTypeWithHints.fieldType.getSaveInfo();
+                        autofillIds.add(mStructureIndex.getAutofillId(i));
+                        autofillIdNodeIndexes.add(i);
+                    }
+                }
+            }
+        }
+        mAutofillIdNodeIndexes = new int[autofillIdNodeIndexes.size()];
+        for (int i = 0; i < mAutofillIdNodeIndexes.length; i++) {
+            mAutofillIdNodeIndexes[i] = autofillIdNodeIndexes.get(i);
+        }
+        String webDomain = mStructureIndex.getWebDomain();
         AutofillId[] autofillIdsArray = autofillIds.toArray(new AutofillId[autofillIds.size()]);
-        AutofillId[] focusedIds = focusedAutofillIds.toArray(new AutofillId[focusedAutofillIds.size()]);
-        return new ClientViewMetadata(allHints, saveType.value, autofillIdsArray, focusedIds, webDomain);
+        return new ClientViewMetadata(allHints, saveType, autofillIdsArray,
+                getFocusedIds(mStructureIndex), webDomain);
     }
 
-    private void parseWebDomain(AssistStructure.ViewNode viewNode, StringBuilder validWebDomain) {
-        String webDomain = viewNode.getWebDomain();
-        if (webDomain != null) {
-            logd("child web domain: %s", webDomain);
-            if (validWebDomain.length() > 0) {
-                if (!webDomain.equals(validWebDomain.toString())) {
-                    throw new SecurityException("Found multiple web domains: valid= "
-                            + validWebDomain + ", child=" + webDomain);
-                }
-            } else {
-                validWebDomain.append(webDomain);
-            }
+    /**
+     * Returns the index of the node of each autofill id of the metadata built last, so that it
+     * can be {@link #rebind rebound} to another structure with the same shape.
+     */
+    public int[] getAutofillIdNodeIndexes() {
+        return mAutofillIdNodeIndexes;
+    }
+
+    /**
+     * Builds the metadata of {@code structureIndex} from {@code metadata}, which was built for a
+     * structure with the same {@link StructureIndex.Shape shape} and the same field types: only
+     * the autofill ids are read from the new structure.
+     */
+    public static ClientViewMetadata rebind(ClientViewMetadata metadata,
+            int[] autofillIdNodeIndexes, StructureIndex structureIndex) {
+        AutofillId[] autofillIds = new AutofillId[autofillIdNodeIndexes.length];
+        for (int i = 0; i < autofillIds.length; i++) {
+            autofillIds[i] = structureIndex.getAutofillId(autofillIdNodeIndexes[i]);
         }
+        return new ClientViewMetadata(metadata.getAllHints(), metadata.getSaveType(),
+                autofillIds, getFocusedIds(structureIndex), structureIndex.getWebDomain());
     }
 
-    private void parseNode(AssistStructure.ViewNode root, List<String> allHints,
-            MutableInt autofillSaveType, List<AutofillId> autofillIds,
-            List<AutofillId> focusedAutofillIds) {
-        String[] hints = root.getAutofillHints();
-        if (hints != null) {
-            for (String hint : hints) {
-                FieldTypeWithHeuristics fieldTypeWithHints = mFieldTypesByAutofillHint.get(hint);
-                if (fieldTypeWithHints != null && fieldTypeWithHints.fieldType != null) {
-                    allHints.add(hint);
-                    autofillSaveType.value |= fieldTypeWithHints.fieldType.getSaveInfo();
-                    autofillIds.add(root.getAutofillId());
-                }
+    private static AutofillId[] getFocusedIds(StructureIndex structureIndex) {
+        List<AutofillId> focusedAutofillIds = new ArrayList<>();
+        for (int i = 0; i < structureIndex.size(); i++) {
+            if (structureIndex.isFocused(i)) {
+                focusedAutofillIds.add(structureIndex.getAutofillId(i));
             }
         }
-        if (root.isFocused()) {
-            focusedAutofillIds.add(root.getAutofillId());
-        }
+        return focusedAutofillIds.toArray(new AutofillId[focusedAutofillIds.size()]);
     }
 }
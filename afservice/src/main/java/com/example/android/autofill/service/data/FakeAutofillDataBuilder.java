@@ -29,12 +29,10 @@ import java.util.UUID;
 public class FakeAutofillDataBuilder implements AutofillDataBuilder {
     private final List<FieldTypeWithHeuristics> mFieldTypesWithHints;
     private final String mPackageName;
-    private final int mSeed;
 
     public FakeAutofillDataBuilder(List<FieldTypeWithHeuristics> fieldTypesWithHints,
-            String packageName, int seed) {
+            String packageName) {
         mFieldTypesWithHints = fieldTypesWithHints;
-        mSeed = seed;
         mPackageName = packageName;
     }
 
@@ -42,11 +40,13 @@ public class FakeAutofillDataBuilder implements AutofillDataBuilder {
     public List<DatasetWithFilledAutofillFields> buildDatasetsByPartition(int datasetNumber) {
         ImmutableList.Builder<DatasetWithFilledAutofillFields> listBuilder =
                 new ImmutableList.Builder<>();
+        long now = System.currentTimeMillis();
         for (int partition : AutofillHints.PARTITIONS) {
+            // Fake values are seeded with the dataset number, so they are never duplicates.
             AutofillDataset autofillDataset = new AutofillDataset(UUID.randomUUID().toString(),
-                    "dataset-" + datasetNumber + "." + partition, mPackageName);
+                    "dataset-" + datasetNumber + "." + partition, mPackageName, null, null, now);
             DatasetWithFilledAutofillFields datasetWithFilledAutofillFields =
-                    buildCollectionForPartition(autofillDataset, partition);
+                    buildCollectionForPartition(autofillDataset, partition, datasetNumber);
             if (datasetWithFilledAutofillFields != null &&
                     datasetWithFilledAutofillFields.filledAutofillFields != null &&
                     !datasetWithFilledAutofillFields.filledAutofillFields.isEmpty()) {
@@ -57,7 +57,7 @@ public class FakeAutofillDataBuilder implements AutofillDataBuilder {
     }
 
     private DatasetWithFilledAutofillFields buildCollectionForPartition(
-            AutofillDataset dataset, int partition) {
+            AutofillDataset dataset, int partition, int seed) {
         DatasetWithFilledAutofillFields datasetWithFilledAutofillFields =
                 new DatasetWithFilledAutofillFields();
         datasetWithFilledAutofillFields.autofillDataset = dataset;
@@ -66,7 +66,7 @@ public class FakeAutofillDataBuilder implements AutofillDataBuilder {
                     fieldTypeWithHeuristics.getFieldType().getPartition(), partition)) {
                 FilledAutofillField fakeField =
                         AutofillHints.generateFakeField(fieldTypeWithHeuristics, mPackageName,
-                                mSeed, dataset.getId());
+                                seed, dataset.getId());
                 datasetWithFilledAutofillFields.add(fakeField);
             }
         }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.model.ResourceIdHeuristic;
+import com.example.android.autofill.service.util.MultiPatternMatcher;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.android.autofill.service.util.MultiPatternMatcher.NO_MATCH;
+
+/**
+ * Classifies views that have no autofill hints, from the {@link ResourceIdHeuristic}s stored for
+ * the app and for {@link ResourceIdHeuristic#ALL_PACKAGES all apps}.
+ * <p>
+ * The heuristics of an app are learned from the user, for a given view: they only match a view
+ * whose resource id entry is the same, and are looked up in a map. The heuristics of all apps are
+ * patterns: one matches a view when it occurs, ignoring case, in one of the texts identifying the
+ * view (resource id, hint text, HTML attributes). They are compiled in a single
+ * {@link MultiPatternMatcher}, so a view is classified in one pass over its texts whatever the
+ * number of heuristics. The heuristics of the app win over the patterns, and a longer pattern
+ * over a shorter one.
+ */
+public final class HeuristicEngine {
+    // Hint inferred for each resource id entry, by package.
+    private final ImmutableMap<String, ImmutableMap<String, String>> mHintsByIdEntryByPackage;
+    @Nullable
+    private final PackageHeuristics mPatterns;
+
+    public HeuristicEngine(@NonNull List<FieldTypeWithHeuristics> fieldTypes) {
+        Map<String, Map<String, String>> hintsByIdEntryByPackage = new HashMap<>();
+        PackageHeuristics.Builder patterns = new PackageHeuristics.Builder();
+        for (FieldTypeWithHeuristics fieldType : fieldTypes) {
+            if (fieldType.resourceIdHeuristics == null || fieldType.autofillHints == null
+                    || fieldType.autofillHints.isEmpty()) {
+                // Views are classified by giving them a hint of the field type.
+                continue;
+            }
+            String hint = fieldType.autofillHints.get(0).mAutofillHint;
+            for (ResourceIdHeuristic heuristic : fieldType.resourceIdHeuristics) {
+                if (heuristic.mResourceIdHeuristic.isEmpty()) {
+                    continue;
+                }
+                if (heuristic.mPackageName.equals(ResourceIdHeuristic.ALL_PACKAGES)) {
+                    patterns.add(heuristic.mResourceIdHeuristic, hint);
+                } else {
+                    hintsByIdEntryByPackage.computeIfAbsent(heuristic.mPackageName,
+                            (packageName) -> new HashMap<>())
+                            .put(heuristic.mResourceIdHeuristic, hint);
+                }
+            }
+        }
+        ImmutableMap.Builder<String, ImmutableMap<String, String>> builder =
+                ImmutableMap.builder();
+        for (Map.Entry<String, Map<String, String>> entry : hintsByIdEntryByPackage.entrySet()) {
+            builder.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+        }
+        mHintsByIdEntryByPackage = builder.build();
+        mPatterns = patterns.isEmpty() ? null : patterns.build();
+    }
+
+    private HeuristicEngine(
+            ImmutableMap<String, ImmutableMap<String, String>> hintsByIdEntryByPackage,
+            @Nullable PackageHeuristics patterns) {
+        mHintsByIdEntryByPackage = hintsByIdEntryByPackage;
+        mPatterns = patterns;
+    }
+
+    /**
+     * Whether there are no heuristics at all, so views never need to be classified.
+     */
+    public boolean isEmpty() {
+        return mHintsByIdEntryByPackage.isEmpty() && mPatterns == null;
+    }
+
+    /**
+     * Returns a copy of this engine in which the {@code resourceIdHeuristic} heuristic of
+     * {@code packageName} infers {@code hint}, or is removed if {@code hint} is {@code null}.
+     * Only the heuristics of {@code packageName} are copied (or, for
+     * {@link ResourceIdHeuristic#ALL_PACKAGES}, compiled) again, so a heuristic learned from the
+     * user is applied to the next request without rebuilding the whole engine.
+     */
+    @NonNull
+    public HeuristicEngine withHeuristic(@NonNull String packageName,
+            @NonNull String resourceIdHeuristic, @Nullable String hint) {
+        if (packageName.equals(ResourceIdHeuristic.ALL_PACKAGES)) {
+            PackageHeuristics.Builder builder = new PackageHeuristics.Builder();
+            if (mPatterns != null) {
+                for (int i = 0; i < mPatterns.mPatterns.length; i++) {
+                    if (!mPatterns.mPatterns[i].equals(resourceIdHeuristic)) {
+                        builder.add(mPatterns.mPatterns[i], mPatterns.mHints[i]);
+                    }
+                }
+            }
+            if (hint != null && !resourceIdHeuristic.isEmpty()) {
+                builder.add(resourceIdHeuristic, hint);
+            }
+            return new HeuristicEngine(mHintsByIdEntryByPackage,
+                    builder.isEmpty() ? null : builder.build());
+        }
+        Map<String, String> hintsByIdEntry = new HashMap<>();
+        ImmutableMap<String, String> current = mHintsByIdEntryByPackage.get(packageName);
+        if (current != null) {
+            hintsByIdEntry.putAll(current);
+        }
+        if (hint != null && !resourceIdHeuristic.isEmpty()) {
+            hintsByIdEntry.put(resourceIdHeuristic, hint);
+        } else {
+            hintsByIdEntry.remove(resourceIdHeuristic);
+        }
+        ImmutableMap.Builder<String, ImmutableMap<String, String>> builder =
+                ImmutableMap.builder();
+        for (Map.Entry<String, ImmutableMap<String, String>> entry
+                : mHintsByIdEntryByPackage.entrySet()) {
+            if (!entry.getKey().equals(packageName)) {
+                builder.put(entry);
+            }
+        }
+        if (!hintsByIdEntry.isEmpty()) {
+            builder.put(packageName, ImmutableMap.copyOf(hintsByIdEntry));
+        }
+        return new HeuristicEngine(builder.build(), mPatterns);
+    }
+
+    /**
+     * Returns an autofill hint for a view of {@code packageName} with the resource id entry
+     * {@code idEntry} and identified by {@code texts}, or {@code null} if no heuristic matches
+     * it.
+     */
+    @Nullable
+    public String inferHint(@NonNull String packageName, @Nullable String idEntry,
+            @NonNull List<? extends CharSequence> texts) {
+        if (idEntry != null) {
+            ImmutableMap<String, String> hintsByIdEntry =
+                    mHintsByIdEntryByPackage.get(packageName);
+            String hint = hintsByIdEntry != null ? hintsByIdEntry.get(idEntry) : null;
+            if (hint != null) {
+                return hint;
+            }
+        }
+        return inferHint(mPatterns, texts);
+    }
+
+    @Nullable
+    private static String inferHint(@Nullable PackageHeuristics heuristics,
+            @NonNull List<? extends CharSequence> texts) {
+        if (heuristics == null) {
+            return null;
+        }
+        MultiPatternMatcher matcher = heuristics.mMatcher;
+        int bestPattern = NO_MATCH;
+        for (int i = 0; i < texts.size(); i++) {
+            CharSequence text = texts.get(i);
+            int pattern = text != null ? matcher.findLongestMatch(text) : NO_MATCH;
+            if (pattern != NO_MATCH && (bestPattern == NO_MATCH
+                    || matcher.getPatternLength(pattern) > matcher.getPatternLength(bestPattern))) {
+                bestPattern = pattern;
+            }
+        }
+        return bestPattern != NO_MATCH ? heuristics.mHints[bestPattern] : null;
+    }
+
+    private static final class PackageHeuristics {
+        private final MultiPatternMatcher mMatcher;
+        // Pattern and hint of the field type of each heuristic, by pattern id.
+        private final String[] mPatterns;
+        private final String[] mHints;
+
+        private PackageHeuristics(MultiPatternMatcher matcher, String[] patterns, String[] hints) {
+            mMatcher = matcher;
+            mPatterns = patterns;
+            mHints = hints;
+        }
+
+        private static final class Builder {
+            private final MultiPatternMatcher.Builder mMatcherBuilder =
+                    new MultiPatternMatcher.Builder();
+            private final List<String> mPatterns = new ArrayList<>();
+            private final List<String> mHints = new ArrayList<>();
+
+            private void add(String pattern, String hint) {
+                mMatcherBuilder.add(pattern);
+                mPatterns.add(pattern);
+                mHints.add(hint);
+            }
+
+            private boolean isEmpty() {
+                return mPatterns.isEmpty();
+            }
+
+            private PackageHeuristics build() {
+                return new PackageHeuristics(mMatcherBuilder.build(),
+                        mPatterns.toArray(new String[mPatterns.size()]),
+                        mHints.toArray(new String[mHints.size()]));
+            }
+        }
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.example.android.autofill.service.data.adapter;
 
-import android.app.assist.AssistStructure;
 import android.content.IntentSender;
 import android.service.autofill.Dataset;
 import android.util.MutableBoolean;
@@ -26,14 +25,12 @@ import android.view.autofill.AutofillValue;
 import android.widget.RemoteViews;
 
 import com.example.android.autofill.service.AutofillHints;
-import com.example.android.autofill.service.ClientParser;
+import com.example.android.autofill.service.StructureIndex;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
@@ -43,16 +40,32 @@ import static com.example.android.autofill.service.util.Util.logw;
 import static java.util.stream.Collectors.toMap;
 
 public class DatasetAdapter {
-    private final ClientParser mClientParser;
+    private final StructureIndex mStructureIndex;
+    // Field type name of each indexed node, resolved from its hints once for all the datasets
+    // bound with mResolvedFieldTypesByAutofillHint.
+    private String[] mFieldTypeNames;
+    private Map<String, FieldTypeWithHeuristics> mResolvedFieldTypesByAutofillHint;
 
-    public DatasetAdapter(ClientParser clientParser) {
-        mClientParser = clientParser;
+    public DatasetAdapter(StructureIndex structureIndex) {
+        mStructureIndex = structureIndex;
+    }
+
+    /**
+     * Creates an adapter binding datasets with {@code fieldTypesByAutofillHint}, reusing the
+     * {@code fieldTypeNames} resolved for a structure with the same shape.
+     */
+    public DatasetAdapter(StructureIndex structureIndex,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            String[] fieldTypeNames) {
+        mStructureIndex = structureIndex;
+        mFieldTypeNames = fieldTypeNames;
+        mResolvedFieldTypesByAutofillHint = fieldTypesByAutofillHint;
     }
 
     /**
      * Wraps autofill data in a {@link Dataset} object which can then be sent back to the client.
      */
-    public Dataset buildDataset(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+    public Dataset buildDataset(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             DatasetWithFilledAutofillFields datasetWithFilledAutofillFields,
             RemoteViews remoteViews) {
         return buildDataset(fieldTypesByAutofillHint, datasetWithFilledAutofillFields, remoteViews,
@@ -74,10 +87,12 @@ public class DatasetAdapter {
      * Wraps autofill data in a {@link Dataset} object with an IntentSender, which can then be
      * sent back to the client.
      */
-    public Dataset buildDataset(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+    public Dataset buildDataset(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             DatasetWithFilledAutofillFields datasetWithFilledAutofillFields,
             RemoteViews remoteViews, IntentSender intentSender) {
         Dataset.Builder datasetBuilder = new Dataset.Builder(remoteViews);
+        // Reported back in the FillEventHistory when the user selects the dataset.
+        datasetBuilder.setId(datasetWithFilledAutofillFields.autofillDataset.getId());
         if (intentSender != null) {
             datasetBuilder.setAuthentication(intentSender);
         }
@@ -90,44 +105,42 @@ public class DatasetAdapter {
     }
 
     /**
-     * Build an autofill {@link Dataset} using saved data and the client's AssistStructure.
+     * Build an autofill {@link Dataset} using saved data and the client's indexed view nodes.
      */
-    private boolean bindDataset(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+    private boolean bindDataset(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             DatasetWithFilledAutofillFields datasetWithFilledAutofillFields,
             Dataset.Builder datasetBuilder) {
         MutableBoolean setValueAtLeastOnce = new MutableBoolean(false);
         Map<String, FilledAutofillField> filledAutofillFieldsByTypeName =
                 datasetWithFilledAutofillFields.filledAutofillFields.stream()
                         .collect(toMap(FilledAutofillField::getFieldTypeName, Function.identity()));
-        mClientParser.parse((node) ->
-                parseAutofillFields(node, fieldTypesByAutofillHint, filledAutofillFieldsByTypeName,
-                        datasetBuilder, setValueAtLeastOnce)
-        );
+        for (int i = 0; i < mStructureIndex.size(); i++) {
+            parseAutofillFields(i, fieldTypesByAutofillHint, filledAutofillFieldsByTypeName,
+                    datasetBuilder, setValueAtLeastOnce);
+        }
         return setValueAtLeastOnce.value;
     }
 
     private boolean bindDatasetToFocusedNode(FilledAutofillField field,
             FieldType fieldType, Dataset.Builder builder) {
         MutableBoolean setValueAtLeastOnce = new MutableBoolean(false);
-        mClientParser.parse((node) -> {
-            if (node.isFocused() && node.getAutofillId() != null) {
-                bindValueToNode(node, field, builder, setValueAtLeastOnce);
+        for (int i = 0; i < mStructureIndex.size(); i++) {
+            if (mStructureIndex.isFocused(i) && mStructureIndex.getAutofillId(i) != null) {
+                bindValueToNode(i, field, builder, setValueAtLeastOnce);
             }
-        });
+        }
         return setValueAtLeastOnce.value;
     }
 
-    private void parseAutofillFields(AssistStructure.ViewNode viewNode,
-            HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+    private void parseAutofillFields(int nodeIndex,
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             Map<String, FilledAutofillField> filledAutofillFieldsByTypeName,
             Dataset.Builder builder, MutableBoolean setValueAtLeastOnce) {
-        String[] rawHints = viewNode.getAutofillHints();
-        if (rawHints == null || rawHints.length == 0) {
-            logv("No af hints at ViewNode - %s", viewNode.getIdEntry());
+        if (!mStructureIndex.hasHints(nodeIndex)) {
+            logv("No af hints at ViewNode - %s", mStructureIndex.getIdEntry(nodeIndex));
             return;
         }
-        String fieldTypeName = AutofillHints.getFieldTypeNameFromAutofillHints(
-                fieldTypesByAutofillHint, Arrays.asList(rawHints));
+        String fieldTypeName = getFieldTypeNames(fieldTypesByAutofillHint)[nodeIndex];
         if (fieldTypeName == null) {
             return;
         }
@@ -135,24 +148,47 @@ public class DatasetAdapter {
         if (field == null) {
             return;
         }
-        bindValueToNode(viewNode, field, builder, setValueAtLeastOnce);
+        bindValueToNode(nodeIndex, field, builder, setValueAtLeastOnce);
+    }
+
+    /**
+     * Returns the field type name of each indexed node, or {@code null} for the nodes that don't
+     * match any field type. Computed on the first call for a given hint map.
+     */
+    public String[] getFieldTypeNames(
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint) {
+        if (mFieldTypeNames == null
+                || mResolvedFieldTypesByAutofillHint != fieldTypesByAutofillHint) {
+            String[] fieldTypeNames = new String[mStructureIndex.size()];
+            for (int i = 0; i < fieldTypeNames.length; i++) {
+                String[] hints = mStructureIndex.getNormalizedHints(i);
+                FieldTypeWithHeuristics fieldTypeWithHeuristics = hints == null ? null
+                        : AutofillHints.getFieldTypeFromNormalizedHints(
+                                fieldTypesByAutofillHint, hints, AutofillHints.PARTITION_ALL);
+                fieldTypeNames[i] = fieldTypeWithHeuristics != null
+                        ? fieldTypeWithHeuristics.getFieldType().getTypeName() : null;
+            }
+            mFieldTypeNames = fieldTypeNames;
+            mResolvedFieldTypesByAutofillHint = fieldTypesByAutofillHint;
+        }
+        return mFieldTypeNames;
     }
 
-    void bindValueToNode(AssistStructure.ViewNode viewNode,
+    void bindValueToNode(int nodeIndex,
             FilledAutofillField field, Dataset.Builder builder,
             MutableBoolean setValueAtLeastOnce) {
-        AutofillId autofillId = viewNode.getAutofillId();
+        AutofillId autofillId = mStructureIndex.getAutofillId(nodeIndex);
         if (autofillId == null) {
-            logw("Autofill ID null for %s", viewNode.toString());
+            logw("Autofill ID null for %s", mStructureIndex.getNode(nodeIndex).toString());
             return;
         }
-        int autofillType = viewNode.getAutofillType();
+        int autofillType = mStructureIndex.getAutofillType(nodeIndex);
         switch (autofillType) {
             case View.AUTOFILL_TYPE_LIST:
-                CharSequence[] options = viewNode.getAutofillOptions();
+                CharSequence[] options = mStructureIndex.getAutofillOptions(nodeIndex);
                 int listValue = -1;
                 if (options != null) {
-                    listValue = indexOf(viewNode.getAutofillOptions(), field.getTextValue());
+                    listValue = indexOf(options, field.getTextValue());
                 }
                 if (listValue != -1) {
                     builder.setValue(autofillId, AutofillValue.forList(listValue));
@@ -18,6 +18,7 @@ package com.example.android.autofill.service.data.adapter;
 
 import android.content.Context;
 import android.content.IntentSender;
+import android.os.Bundle;
 import android.service.autofill.Dataset;
 import android.service.autofill.FillResponse;
 import android.service.autofill.SaveInfo;
@@ -32,10 +33,18 @@ import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public class ResponseAdapter {
+    /**
+     * Key of the id identifying a response of datasets in its client state, which is returned by
+     * {@link android.service.autofill.FillEventHistory#getClientState()}.
+     */
+    public static final String CLIENT_STATE_RESPONSE_ID = "responseId";
+
     private final Context mContext;
     private final DatasetAdapter mDatasetAdapter;
     private final String mPackageName;
@@ -67,9 +76,19 @@ public class ResponseAdapter {
      * Wraps autofill data in a Response object (essentially a series of Datasets) which can then
      * be sent back to the client View.
      */
-    public FillResponse buildResponse(HashMap<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+    public FillResponse buildResponse(Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
             List<DatasetWithFilledAutofillFields> datasets, boolean datasetAuth) {
-        FillResponse.Builder responseBuilder = new FillResponse.Builder();
+        return buildResponse(buildDatasets(fieldTypesByAutofillHint, datasets, datasetAuth));
+    }
+
+    /**
+     * Binds each of the saved {@code datasets} to the client View, skipping the ones that can't
+     * fill any of its fields.
+     */
+    public List<Dataset> buildDatasets(
+            Map<String, FieldTypeWithHeuristics> fieldTypesByAutofillHint,
+            List<DatasetWithFilledAutofillFields> datasets, boolean datasetAuth) {
+        List<Dataset> boundDatasets = new ArrayList<>();
         if (datasets != null) {
             for (DatasetWithFilledAutofillFields datasetWithFilledAutofillFields : datasets) {
                 if (datasetWithFilledAutofillFields != null) {
@@ -90,11 +109,25 @@ public class ResponseAdapter {
                                 datasetWithFilledAutofillFields, remoteViews);
                     }
                     if (dataset != null) {
-                        responseBuilder.addDataset(dataset);
+                        boundDatasets.add(dataset);
                     }
                 }
             }
         }
+        return boundDatasets;
+    }
+
+    /**
+     * Wraps already bound {@link Dataset}s in a Response object.
+     */
+    public FillResponse buildResponse(List<Dataset> datasets) {
+        FillResponse.Builder responseBuilder = new FillResponse.Builder();
+        for (Dataset dataset : datasets) {
+            responseBuilder.addDataset(dataset);
+        }
+        Bundle clientState = new Bundle();
+        clientState.putString(CLIENT_STATE_RESPONSE_ID, UUID.randomUUID().toString());
+        responseBuilder.setClientState(clientState);
         int saveType = mClientViewMetadata.getSaveType();
         AutofillId[] autofillIds = mClientViewMetadata.getAutofillIds();
         if (autofillIds != null && autofillIds.length > 0) {
@@ -15,25 +15,48 @@
  */
 package com.example.android.autofill.service.data.source;
 
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.example.android.autofill.service.data.AutofillDataBuilder;
 import com.example.android.autofill.service.data.DataCallback;
+import com.example.android.autofill.service.data.HeuristicEngine;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 import com.example.android.autofill.service.model.ResourceIdHeuristic;
 
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface AutofillDataSource {
 
     /**
      * Asynchronously gets saved list of {@link DatasetWithFilledAutofillFields} that contains some
-     * objects that can autofill fields with these {@code autofillHints}.
+     * objects that can autofill fields with these {@code autofillHints}, at most {@code limit} of
+     * them, most used first.
      */
-    void getAutofillDatasets(List<String> allAutofillHints,
+    void getAutofillDatasets(List<String> allAutofillHints, int limit,
             DataCallback<List<DatasetWithFilledAutofillFields>> datasetsCallback);
 
+    /**
+     * Synchronous version of {@link #getAutofillDatasets(List, int, DataCallback)}, for callers
+     * that already run on a background thread.
+     */
+    @WorkerThread
+    List<DatasetWithFilledAutofillFields> getAutofillDatasets(List<String> allAutofillHints,
+            int limit);
+
+    /**
+     * Same as {@link #getAutofillDatasets(List, int)}, but narrowed to the datasets saved from
+     * {@code webDomain} if it isn't {@code null}, or else to the ones saved from
+     * {@code packageName}.
+     */
+    @WorkerThread
+    List<DatasetWithFilledAutofillFields> getAutofillDatasets(List<String> allAutofillHints,
+            String packageName, @Nullable String webDomain, int limit);
+
     void getAllAutofillDatasets(
             DataCallback<List<DatasetWithFilledAutofillFields>> datasetsCallback);
 
@@ -46,10 +69,16 @@ public interface AutofillDataSource {
             String datasetName, DataCallback<DatasetWithFilledAutofillFields> datasetsCallback);
 
     /**
-     * Stores a collection of Autofill fields.
+     * Atomically stores the datasets built by {@code autofillDataBuilder}, which is called with a
+     * newly allocated dataset number.
+     */
+    void saveAutofillDatasets(AutofillDataBuilder autofillDataBuilder);
+
+    /**
+     * Records that the user just selected the datasets with these ids, which ranks them higher in
+     * later requests.
      */
-    void saveAutofillDatasets(List<DatasetWithFilledAutofillFields>
-            datasetsWithFilledAutofillFields);
+    void recordDatasetUsage(List<String> datasetIds);
 
     void saveResourceIdHeuristic(ResourceIdHeuristic resourceIdHeuristic);
 
@@ -64,7 +93,21 @@ public interface AutofillDataSource {
     void getFieldType(String typeName, DataCallback<FieldType> fieldTypeCallback);
 
     void getFieldTypeByAutofillHints(
-            DataCallback<HashMap<String, FieldTypeWithHeuristics>> fieldTypeMapCallback);
+            DataCallback<Map<String, FieldTypeWithHeuristics>> fieldTypeMapCallback);
+
+    /**
+     * Synchronous version of {@link #getFieldTypeByAutofillHints(DataCallback)}, for callers that
+     * already run on a background thread. Returns an empty map if no field types were found.
+     */
+    @WorkerThread
+    Map<String, FieldTypeWithHeuristics> getFieldTypeByAutofillHints();
+
+    /**
+     * Gets the engine classifying views without autofill hints with the stored heuristics, for
+     * callers that already run on a background thread.
+     */
+    @WorkerThread
+    HeuristicEngine getHeuristicEngine();
 
     void getFilledAutofillField(String datasetId, String fieldTypeName, DataCallback<FilledAutofillField> fieldCallback);
 
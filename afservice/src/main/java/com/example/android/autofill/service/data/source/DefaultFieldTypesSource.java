@@ -16,10 +16,16 @@
 
 package com.example.android.autofill.service.data.source;
 
-import com.example.android.autofill.service.model.DefaultFieldTypeWithHints;
+import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.FieldType;
 
 import java.util.List;
 
+/**
+ * Default field types and autofill hints the database is seeded with when it is created.
+ */
 public interface DefaultFieldTypesSource {
-    List<DefaultFieldTypeWithHints> getDefaultFieldTypes();
+    List<FieldType> getDefaultFieldTypes();
+
+    List<AutofillHint> getDefaultAutofillHints();
 }
@@ -29,6 +29,12 @@ public interface PackageVerificationDataSource {
      */
     boolean putPackageSignatures(String packageName);
 
+    /**
+     * Computes ahead of time the signatures of packages that were already verified, so that their
+     * next requests don't pay for it. Must be called on a background thread.
+     */
+    void warmUp();
+
     /**
      * Clears all signature data currently in storage.
      */
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
+import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
+
+import java.util.function.IntUnaryOperator;
+
+import static com.example.android.autofill.service.util.Util.logd;
+
+/**
+ * Deletes the datasets exceeding a {@link RetentionPolicy}, then releases the pages they used, so
+ * that the size of the database (and the cost of querying it) stays bounded.
+ */
+public class AutofillStoreCompactor {
+    // Each batch is its own transaction, so saves can be written in between.
+    @VisibleForTesting
+    static final int BATCH_SIZE = 100;
+    // Value of PRAGMA auto_vacuum.
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final AutofillDatabase mDatabase;
+    private final String mServicePackageName;
+
+    /**
+     * @param servicePackageName Package name of the service. Datasets saved before the client
+     *                           package was recorded are attributed to it, so they can't be told
+     *                           apart by app; they are only bounded by
+     *                           {@link RetentionPolicy#getMaxDatasets()}.
+     */
+    public AutofillStoreCompactor(@NonNull AutofillDatabase database,
+            @NonNull String servicePackageName) {
+        mDatabase = database;
+        mServicePackageName = servicePackageName;
+    }
+
+    /**
+     * Compacts the database. Stops between batches once {@code cancellationSignal} is cancelled,
+     * in which case the pages are not released until the next run.
+     */
+    @WorkerThread
+    @NonNull
+    public Result compact(@NonNull RetentionPolicy policy, long nowMillis,
+            @Nullable CancellationSignal cancellationSignal) {
+        AutofillDao dao = mDatabase.autofillDao();
+        dao.initDatasetsLastSeen(nowMillis);
+        long cutoffMillis = nowMillis - policy.getMaxAgeMillis();
+        int deleted = deleteInBatches(Integer.MAX_VALUE,
+                (count) -> dao.deleteDatasetsSeenOrUsedBefore(cutoffMillis, count), cancellationSignal);
+        for (String packageName : dao.getPackagesWithMoreDatasetsThan(
+                policy.getMaxDatasetsPerPackage(), mServicePackageName)) {
+            int excess = dao.countDatasetsForPackage(packageName)
+                    - policy.getMaxDatasetsPerPackage();
+            deleted += deleteInBatches(excess,
+                    (count) -> dao.deleteLeastUsedDatasetsForPackage(packageName, count),
+                    cancellationSignal);
+        }
+        deleted += deleteInBatches(dao.countDatasets() - policy.getMaxDatasets(),
+                dao::deleteLeastUsedDatasets, cancellationSignal);
+        long reclaimedPages = 0;
+        if (deleted > 0 && !isCanceled(cancellationSignal)) {
+            reclaimedPages = releaseFreePages();
+        }
+        logd("Compaction deleted %d datasets and reclaimed %d pages.", deleted, reclaimedPages);
+        return new Result(deleted, reclaimedPages);
+    }
+
+    /**
+     * Deletes up to {@code max} datasets, {@link #BATCH_SIZE} at a time, until
+     * {@code deleteBatch} deletes fewer than it was asked to.
+     */
+    private static int deleteInBatches(int max, IntUnaryOperator deleteBatch,
+            @Nullable CancellationSignal cancellationSignal) {
+        int deleted = 0;
+        while (deleted < max && !isCanceled(cancellationSignal)) {
+            int count = Math.min(max - deleted, BATCH_SIZE);
+            int batch = deleteBatch.applyAsInt(count);
+            deleted += batch;
+            if (batch < count) {
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the free pages to the file system, and the number of pages released.
+     */
+    private long releaseFreePages() {
+        SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+        long pagesBefore = queryLong(db, "PRAGMA page_count");
+        if (queryLong(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Databases are created without auto vacuum. Switching to incremental only takes
+            // effect once the database is rebuilt, which this first VACUUM does; later runs only
+            // release the free pages.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // Frees one page per step, so the cursor must be read to the end.
+            try (Cursor cursor = db.query("PRAGMA incremental_vacuum")) {
+                cursor.getCount();
+            }
+        }
+        return pagesBefore - queryLong(db, "PRAGMA page_count");
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String query) {
+        try (Cursor cursor = db.query(query)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private static boolean isCanceled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
+    public static final class Result {
+        private final int mDeletedDatasets;
+        private final long mReclaimedPages;
+
+        Result(int deletedDatasets, long reclaimedPages) {
+            mDeletedDatasets = deletedDatasets;
+            mReclaimedPages = reclaimedPages;
+        }
+
+        public int getDeletedDatasets() {
+            return mDeletedDatasets;
+        }
+
+        public long getReclaimedPages() {
+            return mReclaimedPages;
+        }
+    }
+}
@@ -15,74 +15,163 @@
  */
 package com.example.android.autofill.service.data.source.local;
 
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
+import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
+import com.example.android.autofill.service.BuildConfig;
 import com.example.android.autofill.service.data.DataCallback;
 import com.example.android.autofill.service.data.source.DalService;
 import com.example.android.autofill.service.data.source.DigitalAssetLinksDataSource;
+import com.example.android.autofill.service.data.source.local.dao.DalVerdictDao;
+import com.example.android.autofill.service.data.source.local.db.DalCacheDatabase;
 import com.example.android.autofill.service.model.DalCheck;
 import com.example.android.autofill.service.model.DalInfo;
-import com.example.android.autofill.service.util.SecurityHelper;
+import com.example.android.autofill.service.model.DalVerdict;
+import com.example.android.autofill.service.settings.MyPreferences;
+import com.example.android.autofill.service.util.AppExecutors;
+import com.example.android.autofill.service.util.PackageFingerprintCache;
 import com.google.common.net.InternetDomainName;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.OkHttpClient;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
 
 import static com.example.android.autofill.service.util.Util.DalCheckRequirement;
 import static com.example.android.autofill.service.util.Util.DalCheckRequirement.AllUrls;
 import static com.example.android.autofill.service.util.Util.DalCheckRequirement.Disabled;
-import static com.example.android.autofill.service.util.Util.DalCheckRequirement.LoginOnly;
 import static com.example.android.autofill.service.util.Util.logd;
+import static com.example.android.autofill.service.util.Util.logw;
 
 
 /**
  * Singleton repository that caches the result of Digital Asset Links checks.
+ * <p>
+ * Verdicts are kept in memory and persisted in {@link DalCacheDatabase}, so they survive process
+ * restarts. Linked verdicts are trusted for the {@code maxAge} returned by the API, negative ones
+ * for {@link #NOT_LINKED_TTL_MS}, and failed checks are retried after {@link #FAILURE_TTL_MS}.
+ * Concurrent checks of the same domain, package and certificate share a single network request.
+ * <p>
+ * Every check completes within a deadline: failed requests are retried once, and a check that
+ * still can't be completed in time gets the verdict of {@link #isLinkedOnFailure}.
  */
 public class DigitalAssetLinksRepository implements DigitalAssetLinksDataSource {
-    private static final String DAL_BASE_URL = "https://digitalassetlinks.googleapis.com";
     private static final String PERMISSION_GET_LOGIN_CREDS = "common.get_login_creds";
     private static final String PERMISSION_HANDLE_ALL_URLS = "common.handle_all_urls";
+    private static final long DEFAULT_LINKED_TTL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long MAX_LINKED_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long NOT_LINKED_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long FAILURE_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long CALL_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RETRY_BACKOFF_MS = 250;
+    private static final ScheduledExecutorService sScheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DalDeadline");
+                thread.setDaemon(true);
+                return thread;
+            });
     private static DigitalAssetLinksRepository sInstance;
 
-    private final PackageManager mPackageManager;
+    private final PackageFingerprintCache mFingerprintCache;
     private final DalService mDalService;
-    private final HashMap<DalInfo, DalCheck> mCache;
+    private final DalVerdictDao mVerdictDao;
+    private final AppExecutors mAppExecutors;
+    private final long mDeadlineMillis;
+    private final ConcurrentHashMap<String, DalVerdict> mVerdicts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PendingCheck> mPendingChecks =
+            new ConcurrentHashMap<>();
 
-    private DigitalAssetLinksRepository(PackageManager packageManager) {
-        mPackageManager = packageManager;
-        mCache = new HashMap<>();
+    @VisibleForTesting
+    DigitalAssetLinksRepository(PackageFingerprintCache fingerprintCache,
+            DalVerdictDao verdictDao, AppExecutors appExecutors, String baseUrl,
+            long deadlineMillis) {
+        mFingerprintCache = fingerprintCache;
+        mVerdictDao = verdictDao;
+        mAppExecutors = appExecutors;
+        mDeadlineMillis = deadlineMillis;
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
         mDalService = new Retrofit.Builder()
-                .baseUrl(DAL_BASE_URL)
+                .baseUrl(baseUrl)
+                .client(client)
+                .addConverterFactory(GsonConverterFactory.create())
                 .build()
                 .create(DalService.class);
+        // Warm up the memory cache with the verdicts persisted by previous processes.
+        mAppExecutors.diskWrite().execute(() -> {
+            long now = System.currentTimeMillis();
+            mVerdictDao.deleteExpiredVerdicts(now);
+            for (DalVerdict verdict : mVerdictDao.getUnexpiredVerdicts(now)) {
+                mVerdicts.putIfAbsent(verdict.getKey(), verdict);
+            }
+        });
     }
 
-    public static DigitalAssetLinksRepository getInstance(PackageManager packageManager) {
+    public static DigitalAssetLinksRepository getInstance(Context context) {
+        return getInstance(context, BuildConfig.DAL_BASE_URL);
+    }
+
+    /**
+     * Returns the repository, creating it with the given {@link DalService} base URL if needed.
+     * Tests can point the whole save path to a local stub server by calling
+     * {@link #clearInstance()} and then this method, before the service is created.
+     */
+    public static synchronized DigitalAssetLinksRepository getInstance(Context context,
+            String baseUrl) {
         if (sInstance == null) {
-            sInstance = new DigitalAssetLinksRepository(packageManager);
+            Context appContext = context.getApplicationContext();
+            sInstance = new DigitalAssetLinksRepository(
+                    PackageFingerprintCache.getInstance(appContext),
+                    DalCacheDatabase.getInstance(appContext).dalVerdictDao(),
+                    AppExecutors.getInstance(), baseUrl,
+                    MyPreferences.getInstance(appContext).getDalCheckDeadlineMillis());
         }
         return sInstance;
     }
 
-    public static String getCanonicalDomain(String domain) {
+    @VisibleForTesting
+    public static synchronized void clearInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * Returns the registrable part of {@code domain} (e.g. {@code example.com} for
+     * {@code www.example.com}), or {@code null} if it is empty or not a domain name.
+     */
+    @Nullable
+    public static String getCanonicalDomain(@Nullable String domain) {
+        if (domain == null || !InternetDomainName.isValid(domain)) {
+            return null;
+        }
         InternetDomainName idn = InternetDomainName.from(domain);
         while (idn != null && !idn.isTopPrivateDomain()) {
-            idn = idn.parent();
+            idn = idn.hasParent() ? idn.parent() : null;
         }
         return idn == null ? null : idn.toString();
     }
 
     @Override
     public void clear() {
-        mCache.clear();
+        mVerdicts.clear();
+        mAppExecutors.diskWrite().execute(mVerdictDao::clearAll);
     }
 
+    @Override
     public void checkValid(DalCheckRequirement dalCheckRequirement, DalInfo dalInfo,
             DataCallback<DalCheck> dalCheckDataCallback) {
         if (dalCheckRequirement.equals(Disabled)) {
@@ -91,69 +180,259 @@ public class DigitalAssetLinksRepository implements DigitalAssetLinksDataSource
             dalCheckDataCallback.onLoaded(dalCheck);
             return;
         }
-
-        DalCheck dalCheck = mCache.get(dalInfo);
-        if (dalCheck != null) {
-            dalCheckDataCallback.onLoaded(dalCheck);
-            return;
-        }
         String packageName = dalInfo.getPackageName();
         String webDomain = dalInfo.getWebDomain();
 
         final String fingerprint;
         try {
-            PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
-                    PackageManager.GET_SIGNATURES);
-            fingerprint = SecurityHelper.getFingerprint(packageInfo, packageName);
+            fingerprint = mFingerprintCache.getFingerprint(packageName);
         } catch (Exception e) {
             dalCheckDataCallback.onDataNotAvailable("Error getting fingerprint for %s",
                     packageName);
             return;
         }
-        logd("validating domain %s for pkg %s and fingerprint %s.", webDomain,
+        String key = DalVerdict.getKey(dalCheckRequirement.name(), webDomain, packageName,
+                fingerprint);
+        DalVerdict verdict = mVerdicts.get(key);
+        if (verdict != null && !verdict.isExpired(System.currentTimeMillis())) {
+            deliverVerdict(verdict, dalCheckDataCallback);
+            return;
+        }
+        PendingCheck newCheck = new PendingCheck(key, dalCheckRequirement, webDomain,
                 packageName, fingerprint);
-        mDalService.check(webDomain, PERMISSION_GET_LOGIN_CREDS, packageName, fingerprint).enqueue(
-                new Callback<DalCheck>() {
-                    @Override
-                    public void onResponse(@NonNull Call<DalCheck> call,
-                            @NonNull Response<DalCheck> response) {
-                        DalCheck dalCheck = response.body();
-                        if (dalCheck == null || !dalCheck.linked) {
-                            // get_login_creds check failed, so try handle_all_urls check
-                            if (dalCheckRequirement.equals(LoginOnly)) {
-                                dalCheckDataCallback.onDataNotAvailable(
-                                        "DAL: Login creds check failed.");
-                            } else if (dalCheckRequirement.equals(AllUrls)) {
-                                mDalService.check(webDomain, PERMISSION_HANDLE_ALL_URLS,
-                                        packageName, fingerprint).enqueue(new Callback<DalCheck>() {
-                                    @Override
-                                    public void onResponse(@NonNull Call<DalCheck> call,
-                                            @NonNull Response<DalCheck> response) {
-                                        DalCheck dalCheck = response.body();
-                                        mCache.put(dalInfo, dalCheck);
-                                        dalCheckDataCallback.onLoaded(dalCheck);
-                                    }
-
-                                    @Override
-                                    public void onFailure(@NonNull Call<DalCheck> call,
-                                            @NonNull Throwable t) {
-                                        dalCheckDataCallback.onDataNotAvailable(t.getMessage());
-                                    }
-                                });
-                            }
-                        } else {
-                            // get_login_creds check succeeded, so we're finished.
-                            mCache.put(dalInfo, dalCheck);
-                            dalCheckDataCallback.onLoaded(dalCheck);
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(@NonNull Call<DalCheck> call, @NonNull Throwable t) {
-                        // get_login_creds check failed, so try handle_all_urls check.
-                        mDalService.check(webDomain, PERMISSION_HANDLE_ALL_URLS, packageName,
-                                fingerprint);
-                    }
-                });
+        PendingCheck pendingCheck = mPendingChecks.putIfAbsent(key, newCheck);
+        if (pendingCheck != null) {
+            if (pendingCheck.addWaiter(dalCheckDataCallback)) {
+                logd("Joining in-flight DAL check for %s", webDomain);
+            } else {
+                // It completed in the meantime, so its verdict is now cached.
+                checkValid(dalCheckRequirement, dalInfo, dalCheckDataCallback);
+            }
+            return;
+        }
+        newCheck.addWaiter(dalCheckDataCallback);
+        newCheck.setDeadline(sScheduler.schedule(() -> {
+            logw("DAL check for %s did not complete within %d ms", webDomain,
+                    mDeadlineMillis);
+            completeCheck(newCheck, newCheck.newVerdict(false, FAILURE_TTL_MS, true));
+        }, mDeadlineMillis, TimeUnit.MILLISECONDS));
+        mAppExecutors.diskRead().execute(() -> {
+            // Another process instance may have persisted it before the memory cache was warm.
+            DalVerdict persistedVerdict = mVerdictDao.getVerdict(dalCheckRequirement.name(),
+                    webDomain, packageName, fingerprint);
+            if (persistedVerdict != null
+                    && !persistedVerdict.isExpired(System.currentTimeMillis())) {
+                completeCheck(newCheck, persistedVerdict);
+            } else {
+                logd("validating domain %s for pkg %s and fingerprint %s.", webDomain,
+                        packageName, fingerprint);
+                checkRelation(newCheck, PERMISSION_GET_LOGIN_CREDS, false);
+            }
+        });
+    }
+
+    private void checkRelation(PendingCheck check, String permission, boolean retry) {
+        Call<DalCheck> call = mDalService.check(check.mWebDomain, permission,
+                check.mPackageName, check.mFingerprint);
+        if (!check.setCall(call)) {
+            return;
+        }
+        call.enqueue(new Callback<DalCheck>() {
+            @Override
+            public void onResponse(@NonNull Call<DalCheck> call,
+                    @NonNull Response<DalCheck> response) {
+                if (call.isCanceled()) {
+                    return;
+                }
+                DalCheck dalCheck = response.body();
+                if (!response.isSuccessful() || dalCheck == null) {
+                    int code = response.code();
+                    logw("DAL check for %s failed with HTTP %d", check.mWebDomain, code);
+                    onRelationFailed(check, permission, retry, code >= 500 || code == 429);
+                } else if (dalCheck.linked) {
+                    completeCheck(check, check.newVerdict(true,
+                            getLinkedTtlMillis(dalCheck.maxAge), false));
+                } else if (check.mRequirement.equals(AllUrls)
+                        && permission.equals(PERMISSION_GET_LOGIN_CREDS)) {
+                    // get_login_creds check failed, so try handle_all_urls check.
+                    checkRelation(check, PERMISSION_HANDLE_ALL_URLS, false);
+                } else {
+                    completeCheck(check, check.newVerdict(false, NOT_LINKED_TTL_MS, false));
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<DalCheck> call, @NonNull Throwable t) {
+                if (call.isCanceled()) {
+                    logd("DAL check for %s cancelled.", check.mWebDomain);
+                    return;
+                }
+                logw(t, "DAL check for %s failed", check.mWebDomain);
+                onRelationFailed(check, permission, retry, true);
+            }
+        });
+    }
+
+    /**
+     * Retries a relation check that failed for a transient reason once, after a backoff. If it
+     * still fails, {@code handle_all_urls} is tried as a fallback when allowed, otherwise the
+     * check fails.
+     */
+    private void onRelationFailed(PendingCheck check, String permission, boolean retry,
+            boolean transientError) {
+        if (transientError && !retry) {
+            logd("Retrying DAL check for %s in %d ms", check.mWebDomain, RETRY_BACKOFF_MS);
+            sScheduler.schedule(() -> checkRelation(check, permission, true), RETRY_BACKOFF_MS,
+                    TimeUnit.MILLISECONDS);
+        } else if (check.mRequirement.equals(AllUrls)
+                && permission.equals(PERMISSION_GET_LOGIN_CREDS)) {
+            checkRelation(check, PERMISSION_HANDLE_ALL_URLS, false);
+        } else {
+            completeCheck(check, check.newVerdict(false, FAILURE_TTL_MS, true));
+        }
+    }
+
+    private void completeCheck(PendingCheck check, DalVerdict verdict) {
+        List<DataCallback<DalCheck>> waiters = check.complete(verdict);
+        if (waiters == null) {
+            // Already completed, e.g. its deadline passed.
+            return;
+        }
+        if (!verdict.isFailed()) {
+            mAppExecutors.diskWrite().execute(() -> mVerdictDao.insertVerdict(verdict));
+        }
+        mAppExecutors.mainThread().execute(() -> {
+            for (DataCallback<DalCheck> waiter : waiters) {
+                deliverVerdict(verdict, waiter);
+            }
+        });
+    }
+
+    private static void deliverVerdict(DalVerdict verdict, DataCallback<DalCheck> callback) {
+        DalCheck dalCheck = new DalCheck();
+        if (verdict.isFailed()) {
+            dalCheck.linked = isLinkedOnFailure(
+                    DalCheckRequirement.valueOf(verdict.getRequirement()));
+            dalCheck.debugString = "Check failed or timed out";
+        } else {
+            dalCheck.linked = verdict.isLinked();
+        }
+        callback.onLoaded(dalCheck);
+    }
+
+    /**
+     * Verdict used when a check could not be completed, because the API failed or didn't answer
+     * within the deadline. Checks that were asked for fail closed; only
+     * {@link DalCheckRequirement#Disabled} (which never reaches the network) allows.
+     */
+    @VisibleForTesting
+    static boolean isLinkedOnFailure(DalCheckRequirement dalCheckRequirement) {
+        return dalCheckRequirement.equals(Disabled);
+    }
+
+    /**
+     * Converts the {@code maxAge} returned by the API (a duration such as {@code "86400s"}) to a
+     * bounded TTL.
+     */
+    private static long getLinkedTtlMillis(@Nullable String maxAge) {
+        if (maxAge != null && maxAge.endsWith("s")) {
+            try {
+                double seconds = Double.parseDouble(maxAge.substring(0, maxAge.length() - 1));
+                return Math.min(Math.max((long) (seconds * 1000), 0), MAX_LINKED_TTL_MS);
+            } catch (NumberFormatException e) {
+                logw("Invalid DAL maxAge: %s", maxAge);
+            }
+        }
+        return DEFAULT_LINKED_TTL_MS;
+    }
+
+    /**
+     * A check being performed, and the callers waiting for its verdict.
+     */
+    private final class PendingCheck {
+        private final String mKey;
+        private final DalCheckRequirement mRequirement;
+        private final String mWebDomain;
+        private final String mPackageName;
+        private final String mFingerprint;
+        private final List<DataCallback<DalCheck>> mWaiters = new ArrayList<>();
+        private Call<DalCheck> mCall;
+        private ScheduledFuture<?> mDeadline;
+        private boolean mDone;
+
+        private PendingCheck(String key, DalCheckRequirement requirement, String webDomain,
+                String packageName, String fingerprint) {
+            mKey = key;
+            mRequirement = requirement;
+            mWebDomain = webDomain;
+            mPackageName = packageName;
+            mFingerprint = fingerprint;
+        }
+
+        /**
+         * Returns {@code false} if the check already completed.
+         */
+        private synchronized boolean addWaiter(DataCallback<DalCheck> callback) {
+            if (mDone) {
+                return false;
+            }
+            mWaiters.add(callback);
+            return true;
+        }
+
+        /**
+         * Returns {@code false} if the check already completed and the call should not be made.
+         */
+        private synchronized boolean setCall(Call<DalCheck> call) {
+            if (mDone) {
+                return false;
+            }
+            mCall = call;
+            return true;
+        }
+
+        private synchronized void setDeadline(ScheduledFuture<?> deadline) {
+            mDeadline = deadline;
+        }
+
+        /**
+         * Publishes {@code verdict} and returns the callers to notify, or {@code null} if the
+         * check was already completed.
+         */
+        private synchronized List<DataCallback<DalCheck>> complete(DalVerdict verdict) {
+            if (mDone) {
+                return null;
+            }
+            mDone = true;
+            // Publish the verdict before unregistering the check, so that a concurrent caller
+            // either joins the check or finds its verdict.
+            mVerdicts.put(mKey, verdict);
+            mPendingChecks.remove(mKey, this);
+            stop();
+            return new ArrayList<>(mWaiters);
+        }
+
+        /**
+         * Cancels the pending call, if any, and the deadline.
+         */
+        private void stop() {
+            if (mCall != null) {
+                mCall.cancel();
+            }
+            if (mDeadline != null) {
+                mDeadline.cancel(false);
+            }
+        }
+
+        private DalVerdict newVerdict(boolean linked, long ttlMillis, boolean failed) {
+            long expiresAt = System.currentTimeMillis() + ttlMillis;
+            String requirement = mRequirement.name();
+            if (failed) {
+                return DalVerdict.failure(requirement, mWebDomain, mPackageName, mFingerprint,
+                        expiresAt);
+            }
+            return new DalVerdict(requirement, mWebDomain, mPackageName, mFingerprint, linked,
+                    expiresAt);
+        }
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.autofill.service.data.HeuristicEngine;
+import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
+import com.example.android.autofill.service.model.ResourceIdHeuristic;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide, immutable snapshot of the autofill field types, indexed by autofill hint.
+ * <p>
+ * Field types are seed data that only change when a heuristic is saved, so the snapshot is loaded
+ * from the database once and replaced atomically whenever those tables change. Fill and save
+ * requests can then resolve hints without a database round trip.
+ */
+public final class FieldTypeRegistry {
+    private static final AtomicReference<FieldTypeRegistry> sSnapshot = new AtomicReference<>();
+    // Bumped by invalidate(), so that a load started before the tables changed isn't published.
+    private static int sGeneration;
+
+    private final ImmutableList<FieldTypeWithHeuristics> mFieldTypes;
+    private final ImmutableMap<String, FieldTypeWithHeuristics> mFieldTypesByAutofillHint;
+    private final ImmutableSet<String> mHeuristicFieldTypeNames;
+    private final HeuristicEngine mHeuristicEngine;
+
+    private FieldTypeRegistry(@NonNull List<FieldTypeWithHeuristics> fieldTypes) {
+        // Compiled with each snapshot loaded from the database.
+        this(fieldTypes, new HeuristicEngine(fieldTypes));
+    }
+
+    private FieldTypeRegistry(@NonNull List<FieldTypeWithHeuristics> fieldTypes,
+            @NonNull HeuristicEngine heuristicEngine) {
+        Map<String, FieldTypeWithHeuristics> hintMap = new HashMap<>();
+        ImmutableSet.Builder<String> heuristicFieldTypeNames = ImmutableSet.builder();
+        for (FieldTypeWithHeuristics fieldType : fieldTypes) {
+            if (fieldType.autofillHints != null) {
+                for (AutofillHint hint : fieldType.autofillHints) {
+                    hintMap.put(hint.mAutofillHint, fieldType);
+                }
+            }
+            if (fieldType.resourceIdHeuristics != null
+                    && !fieldType.resourceIdHeuristics.isEmpty()) {
+                heuristicFieldTypeNames.add(fieldType.fieldType.getTypeName());
+            }
+        }
+        mFieldTypes = ImmutableList.copyOf(fieldTypes);
+        mFieldTypesByAutofillHint = ImmutableMap.copyOf(hintMap);
+        mHeuristicFieldTypeNames = heuristicFieldTypeNames.build();
+        mHeuristicEngine = heuristicEngine;
+    }
+
+    /**
+     * Returns the current snapshot, or {@code null} if it hasn't been loaded yet.
+     */
+    @Nullable
+    public static FieldTypeRegistry getSnapshot() {
+        return sSnapshot.get();
+    }
+
+    /**
+     * Returns the current generation, to be read before loading the field types that are passed
+     * to {@link #publish}.
+     */
+    public static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Builds a new snapshot from the field types stored in the database and makes it the current
+     * one, unless the snapshot was invalidated after {@code generation} was read (the field types
+     * may predate the change). An empty list (e.g. the field types tables were cleared) is returned
+     * as an empty registry but not published, so the next lookup loads it again.
+     */
+    @NonNull
+    public static FieldTypeRegistry publish(@NonNull List<FieldTypeWithHeuristics> fieldTypes,
+            int generation) {
+        FieldTypeRegistry registry = new FieldTypeRegistry(fieldTypes);
+        synchronized (FieldTypeRegistry.class) {
+            if (generation == sGeneration) {
+                sSnapshot.set(fieldTypes.isEmpty() ? null : registry);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Drops the current snapshot, so the next lookup reloads it from the database.
+     */
+    public static synchronized void invalidate() {
+        sGeneration++;
+        sSnapshot.set(null);
+    }
+
+    /**
+     * Adds {@code heuristic}, which was just stored, to the current snapshot instead of reloading
+     * it from the database: only the heuristics of its package are compiled again, so the next
+     * request of that app already uses it. Like {@link #invalidate()}, keeps lookups that loaded
+     * the tables before it was stored from publishing them.
+     */
+    public static synchronized void addHeuristic(@NonNull ResourceIdHeuristic heuristic) {
+        sGeneration++;
+        FieldTypeRegistry registry = sSnapshot.get();
+        if (registry != null) {
+            sSnapshot.set(registry.withHeuristic(heuristic));
+        }
+    }
+
+    /**
+     * Returns a copy of this registry in which {@code heuristic} replaces the heuristic with the
+     * same pattern and package, if any.
+     */
+    @NonNull
+    private FieldTypeRegistry withHeuristic(@NonNull ResourceIdHeuristic heuristic) {
+        List<FieldTypeWithHeuristics> fieldTypes = new ArrayList<>(mFieldTypes.size());
+        String hint = null;
+        for (FieldTypeWithHeuristics fieldType : mFieldTypes) {
+            boolean isTarget = fieldType.fieldType.getTypeName().equals(heuristic.mFieldTypeName);
+            boolean changed = isTarget;
+            List<ResourceIdHeuristic> heuristics = new ArrayList<>();
+            if (fieldType.resourceIdHeuristics != null) {
+                for (ResourceIdHeuristic existing : fieldType.resourceIdHeuristics) {
+                    if (existing.mResourceIdHeuristic.equals(heuristic.mResourceIdHeuristic)
+                            && existing.mPackageName.equals(heuristic.mPackageName)) {
+                        changed = true;
+                    } else {
+                        heuristics.add(existing);
+                    }
+                }
+            }
+            if (isTarget) {
+                heuristics.add(heuristic);
+                if (fieldType.autofillHints != null && !fieldType.autofillHints.isEmpty()) {
+                    hint = fieldType.autofillHints.get(0).mAutofillHint;
+                }
+            }
+            if (changed) {
+                FieldTypeWithHeuristics copy = new FieldTypeWithHeuristics();
+                copy.fieldType = fieldType.fieldType;
+                copy.autofillHints = fieldType.autofillHints;
+                copy.resourceIdHeuristics = heuristics;
+                fieldType = copy;
+            }
+            fieldTypes.add(fieldType);
+        }
+        return new FieldTypeRegistry(fieldTypes, mHeuristicEngine.withHeuristic(
+                heuristic.mPackageName, heuristic.mResourceIdHeuristic, hint));
+    }
+
+    @NonNull
+    public List<FieldTypeWithHeuristics> getFieldTypes() {
+        return mFieldTypes;
+    }
+
+    @NonNull
+    public Map<String, FieldTypeWithHeuristics> getFieldTypesByAutofillHint() {
+        return mFieldTypesByAutofillHint;
+    }
+
+    /**
+     * Returns the engine classifying views without autofill hints with the stored heuristics.
+     */
+    @NonNull
+    public HeuristicEngine getHeuristicEngine() {
+        return mHeuristicEngine;
+    }
+
+    /**
+     * Returns the names of the field types matching {@code autofillHints}, plus the ones that can
+     * be detected by resource id heuristics.
+     */
+    @NonNull
+    public List<String> getFieldTypeNamesForAutofillHints(@NonNull List<String> autofillHints) {
+        Set<String> typeNames = new LinkedHashSet<>();
+        for (String hint : autofillHints) {
+            FieldTypeWithHeuristics fieldType = mFieldTypesByAutofillHint.get(hint);
+            if (fieldType != null) {
+                typeNames.add(fieldType.fieldType.getTypeName());
+            }
+        }
+        typeNames.addAll(mHeuristicFieldTypeNames);
+        return new ArrayList<>(typeNames);
+    }
+}
@@ -17,13 +17,15 @@
 package com.example.android.autofill.service.data.source.local;
 
 import android.content.SharedPreferences;
-import android.service.autofill.Dataset;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 
+import com.example.android.autofill.service.data.AutofillDataBuilder;
 import com.example.android.autofill.service.data.DataCallback;
+import com.example.android.autofill.service.data.HeuristicEngine;
 import com.example.android.autofill.service.data.source.AutofillDataSource;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
-import com.example.android.autofill.service.model.AutofillDataset;
-import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.DatasetSequence;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
@@ -31,10 +33,12 @@ import com.example.android.autofill.service.model.FilledAutofillField;
 import com.example.android.autofill.service.model.ResourceIdHeuristic;
 import com.example.android.autofill.service.util.AppExecutors;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+import static com.example.android.autofill.service.util.Util.logd;
+import static com.example.android.autofill.service.util.Util.logv;
 import static com.example.android.autofill.service.util.Util.logw;
 
 public class LocalAutofillDataSource implements AutofillDataSource {
@@ -54,6 +58,7 @@ public class LocalAutofillDataSource implements AutofillDataSource {
         mSharedPreferences = sharedPreferences;
         mAutofillDao = autofillDao;
         mAppExecutors = appExecutors;
+        mAppExecutors.diskWrite().execute(this::migrateDatasetNumber);
     }
 
     public static LocalAutofillDataSource getInstance(SharedPreferences sharedPreferences,
@@ -71,29 +76,46 @@ public class LocalAutofillDataSource implements AutofillDataSource {
         synchronized (sLock) {
             sInstance = null;
         }
+        FieldTypeRegistry.invalidate();
     }
 
     @Override
-    public void getAutofillDatasets(List<String> allAutofillHints,
+    public void getAutofillDatasets(List<String> allAutofillHints, int limit,
             DataCallback<List<DatasetWithFilledAutofillFields>> datasetsCallback) {
-        mAppExecutors.diskIO().execute(() -> {
-            final List<String> typeNames = getFieldTypesForAutofillHints(allAutofillHints)
-                    .stream()
-                    .map(FieldTypeWithHeuristics::getFieldType)
-                    .map(FieldType::getTypeName)
-                    .collect(Collectors.toList());
+        mAppExecutors.diskRead().execute(() -> {
             List<DatasetWithFilledAutofillFields> datasetsWithFilledAutofillFields =
-                    mAutofillDao.getDatasets(typeNames);
+                    getAutofillDatasets(allAutofillHints, limit);
             mAppExecutors.mainThread().execute(() ->
                     datasetsCallback.onLoaded(datasetsWithFilledAutofillFields)
             );
         });
     }
 
+    @WorkerThread
+    @Override
+    public List<DatasetWithFilledAutofillFields> getAutofillDatasets(
+            List<String> allAutofillHints, int limit) {
+        final List<String> typeNames = getFieldTypeRegistry()
+                .getFieldTypeNamesForAutofillHints(allAutofillHints);
+        return mAutofillDao.getDatasets(typeNames, limit);
+    }
+
+    @WorkerThread
+    @Override
+    public List<DatasetWithFilledAutofillFields> getAutofillDatasets(
+            List<String> allAutofillHints, String packageName, @Nullable String webDomain,
+            int limit) {
+        final List<String> typeNames = getFieldTypeRegistry()
+                .getFieldTypeNamesForAutofillHints(allAutofillHints);
+        return webDomain != null
+                ? mAutofillDao.getDatasetsForWebDomain(typeNames, webDomain, limit)
+                : mAutofillDao.getDatasetsForPackage(typeNames, packageName, limit);
+    }
+
     @Override
     public void getAllAutofillDatasets(
             DataCallback<List<DatasetWithFilledAutofillFields>> datasetsCallback) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskRead().execute(() -> {
             List<DatasetWithFilledAutofillFields> datasetsWithFilledAutofillFields =
                     mAutofillDao.getAllDatasets();
             mAppExecutors.mainThread().execute(() ->
@@ -105,7 +127,7 @@ public class LocalAutofillDataSource implements AutofillDataSource {
     @Override
     public void getAutofillDataset(List<String> allAutofillHints, String datasetName,
             DataCallback<DatasetWithFilledAutofillFields> datasetsCallback) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskRead().execute(() -> {
             // Room does not support TypeConverters for collections.
             List<DatasetWithFilledAutofillFields> autofillDatasetFields =
                     mAutofillDao.getDatasetsWithName(allAutofillHints, datasetName);
@@ -128,34 +150,42 @@ public class LocalAutofillDataSource implements AutofillDataSource {
 
 
     @Override
-    public void saveAutofillDatasets(List<DatasetWithFilledAutofillFields>
-            datasetsWithFilledAutofillFields) {
-        mAppExecutors.diskIO().execute(() -> {
-            for (DatasetWithFilledAutofillFields datasetWithFilledAutofillFields :
-                    datasetsWithFilledAutofillFields) {
-                List<FilledAutofillField> filledAutofillFields =
-                        datasetWithFilledAutofillFields.filledAutofillFields;
-                AutofillDataset autofillDataset = datasetWithFilledAutofillFields.autofillDataset;
-                mAutofillDao.insertAutofillDataset(autofillDataset);
-                mAutofillDao.insertFilledAutofillFields(filledAutofillFields);
-            }
+    public void saveAutofillDatasets(AutofillDataBuilder autofillDataBuilder) {
+        mAppExecutors.diskWrite().execute(() -> {
+            int datasetNumber =
+                    mAutofillDao.insertDatasets(autofillDataBuilder::buildDatasetsByPartition);
+            logv("Saved datasets with number %d", datasetNumber);
+        });
+    }
+
+    @Override
+    public void recordDatasetUsage(List<String> datasetIds) {
+        long nowMillis = System.currentTimeMillis();
+        mAppExecutors.diskWrite().execute(() -> {
+            mAutofillDao.recordDatasetUsage(datasetIds, nowMillis);
+            logv("Recorded usage of datasets %s", datasetIds);
         });
-        incrementDatasetNumber();
     }
 
     @Override
     public void saveResourceIdHeuristic(ResourceIdHeuristic resourceIdHeuristic) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskWrite().execute(() -> {
             mAutofillDao.insertResourceIdHeuristic(resourceIdHeuristic);
+            // Heuristics are part of the snapshot, which is patched in memory rather than
+            // reloaded, so the next fill request of the app already classifies its views.
+            FieldTypeRegistry.addHeuristic(resourceIdHeuristic);
+            logd("Learned heuristic %s for %s in %s", resourceIdHeuristic.mResourceIdHeuristic,
+                    resourceIdHeuristic.mFieldTypeName, resourceIdHeuristic.mPackageName);
         });
     }
 
     @Override
     public void getFieldTypes(DataCallback<List<FieldTypeWithHeuristics>> fieldTypesCallback) {
-        mAppExecutors.diskIO().execute(() -> {
-            List<FieldTypeWithHeuristics> fieldTypeWithHints = mAutofillDao.getFieldTypesWithHints();
+        mAppExecutors.diskRead().execute(() -> {
+            List<FieldTypeWithHeuristics> fieldTypeWithHints =
+                    getFieldTypeRegistry().getFieldTypes();
             mAppExecutors.mainThread().execute(() -> {
-                if (fieldTypeWithHints != null) {
+                if (!fieldTypeWithHints.isEmpty()) {
                     fieldTypesCallback.onLoaded(fieldTypeWithHints);
                 } else {
                     fieldTypesCallback.onDataNotAvailable("Field Types not found.");
@@ -166,22 +196,46 @@ public class LocalAutofillDataSource implements AutofillDataSource {
 
     @Override
     public void getFieldTypeByAutofillHints(
-            DataCallback<HashMap<String, FieldTypeWithHeuristics>> fieldTypeMapCallback) {
-        mAppExecutors.diskIO().execute(() -> {
-            HashMap<String, FieldTypeWithHeuristics> hintMap = getFieldTypeByAutofillHints();
-            mAppExecutors.mainThread().execute(() -> {
-                if (hintMap != null) {
-                    fieldTypeMapCallback.onLoaded(hintMap);
-                } else {
-                    fieldTypeMapCallback.onDataNotAvailable("FieldTypes not found");
-                }
-            });
+            DataCallback<Map<String, FieldTypeWithHeuristics>> fieldTypeMapCallback) {
+        FieldTypeRegistry registry = FieldTypeRegistry.getSnapshot();
+        if (registry != null) {
+            // Fast path: the hints were already resolved, no need to hop to a disk thread.
+            mAppExecutors.mainThread().execute(() ->
+                    deliverFieldTypeByAutofillHints(registry, fieldTypeMapCallback));
+            return;
+        }
+        mAppExecutors.diskRead().execute(() -> {
+            FieldTypeRegistry loadedRegistry = getFieldTypeRegistry();
+            mAppExecutors.mainThread().execute(() ->
+                    deliverFieldTypeByAutofillHints(loadedRegistry, fieldTypeMapCallback));
         });
     }
 
+    @WorkerThread
+    @Override
+    public Map<String, FieldTypeWithHeuristics> getFieldTypeByAutofillHints() {
+        return getFieldTypeRegistry().getFieldTypesByAutofillHint();
+    }
+
+    @WorkerThread
+    @Override
+    public HeuristicEngine getHeuristicEngine() {
+        return getFieldTypeRegistry().getHeuristicEngine();
+    }
+
+    private static void deliverFieldTypeByAutofillHints(FieldTypeRegistry registry,
+            DataCallback<Map<String, FieldTypeWithHeuristics>> fieldTypeMapCallback) {
+        Map<String, FieldTypeWithHeuristics> hintMap = registry.getFieldTypesByAutofillHint();
+        if (!hintMap.isEmpty()) {
+            fieldTypeMapCallback.onLoaded(hintMap);
+        } else {
+            fieldTypeMapCallback.onDataNotAvailable("FieldTypes not found");
+        }
+    }
+
     @Override
     public void getFilledAutofillField(String datasetId, String fieldTypeName, DataCallback<FilledAutofillField> fieldCallback) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskRead().execute(() -> {
             FilledAutofillField filledAutofillField = mAutofillDao.getFilledAutofillField(datasetId, fieldTypeName);
             mAppExecutors.mainThread().execute(() -> {
                 fieldCallback.onLoaded(filledAutofillField);
@@ -191,7 +245,7 @@ public class LocalAutofillDataSource implements AutofillDataSource {
 
     @Override
     public void getFieldType(String fieldTypeName, DataCallback<FieldType> fieldTypeCallback) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskRead().execute(() -> {
             FieldType fieldType = mAutofillDao.getFieldType(fieldTypeName);
             mAppExecutors.mainThread().execute(() -> {
                 fieldTypeCallback.onLoaded(fieldType);
@@ -201,7 +255,7 @@ public class LocalAutofillDataSource implements AutofillDataSource {
 
     public void getAutofillDatasetWithId(String datasetId,
             DataCallback<DatasetWithFilledAutofillFields> callback) {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskRead().execute(() -> {
             DatasetWithFilledAutofillFields dataset =
                     mAutofillDao.getAutofillDatasetWithId(datasetId);
             mAppExecutors.mainThread().execute(() -> {
@@ -210,48 +264,41 @@ public class LocalAutofillDataSource implements AutofillDataSource {
         });
     }
 
-    private HashMap<String, FieldTypeWithHeuristics> getFieldTypeByAutofillHints() {
-        HashMap<String, FieldTypeWithHeuristics> hintMap = new HashMap<>();
-        List<FieldTypeWithHeuristics> fieldTypeWithHints =
-                mAutofillDao.getFieldTypesWithHints();
-        if (fieldTypeWithHints != null) {
-            for (FieldTypeWithHeuristics fieldType : fieldTypeWithHints) {
-                for (AutofillHint hint : fieldType.autofillHints) {
-                    hintMap.put(hint.mAutofillHint, fieldType);
-                }
-            }
-            return hintMap;
-        } else {
-            return null;
-        }
+    /**
+     * Returns the current {@link FieldTypeRegistry}, loading it from the database the first time.
+     * Must be called on a background thread.
+     */
+    private FieldTypeRegistry getFieldTypeRegistry() {
+        FieldTypeRegistry registry = FieldTypeRegistry.getSnapshot();
+        return registry != null ? registry : reloadFieldTypeRegistry();
     }
 
-    private List<FieldTypeWithHeuristics> getFieldTypesForAutofillHints(List<String> autofillHints) {
-        return mAutofillDao.getFieldTypesForAutofillHints(autofillHints);
+    /**
+     * Reads the field types from the database and publishes them as the new snapshot.
+     */
+    private FieldTypeRegistry reloadFieldTypeRegistry() {
+        int generation = FieldTypeRegistry.getGeneration();
+        List<FieldTypeWithHeuristics> fieldTypes = mAutofillDao.getFieldTypesWithHints();
+        return FieldTypeRegistry.publish(fieldTypes != null ? fieldTypes : Collections.emptyList(),
+                generation);
     }
 
     @Override
     public void clear() {
-        mAppExecutors.diskIO().execute(() -> {
+        mAppExecutors.diskWrite().execute(() -> {
             mAutofillDao.clearAll();
-            mSharedPreferences.edit().putInt(DATASET_NUMBER_KEY, 0).apply();
+            mAutofillDao.clearDatasetSequences();
         });
     }
 
     /**
-     * For simplicity, {@link Dataset}s will be named in the form {@code dataset-X.P} where
-     * {@code X} means this was the Xth group of datasets saved, and {@code P} refers to the dataset
-     * partition number. This method returns the appropriate {@code X}.
+     * Dataset numbers used to be kept in {@link SharedPreferences}, carry on from there.
      */
-    public int getDatasetNumber() {
-        return mSharedPreferences.getInt(DATASET_NUMBER_KEY, 0);
-    }
-
-    /**
-     * Every time a dataset is saved, this should be called to increment the dataset number.
-     * (only important for this service's dataset naming scheme).
-     */
-    private void incrementDatasetNumber() {
-        mSharedPreferences.edit().putInt(DATASET_NUMBER_KEY, getDatasetNumber() + 1).apply();
+    private void migrateDatasetNumber() {
+        if (mSharedPreferences.contains(DATASET_NUMBER_KEY)) {
+            mAutofillDao.insertDatasetSequence(new DatasetSequence(DatasetSequence.DATASET_NUMBER,
+                    mSharedPreferences.getInt(DATASET_NUMBER_KEY, 0)));
+            mSharedPreferences.edit().remove(DATASET_NUMBER_KEY).apply();
+        }
     }
 }
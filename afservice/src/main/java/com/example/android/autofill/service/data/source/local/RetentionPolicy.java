@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local;
+
+/**
+ * Limits the stored datasets are compacted to by {@link AutofillStoreCompactor}. The datasets
+ * with the lowest {@link com.example.android.autofill.service.model.AutofillDataset#addUsage
+ * usage score} are deleted first.
+ */
+public final class RetentionPolicy {
+    private final int mMaxDatasetsPerPackage;
+    private final int mMaxDatasets;
+    private final long mMaxAgeMillis;
+
+    public RetentionPolicy(int maxDatasetsPerPackage, int maxDatasets, long maxAgeMillis) {
+        mMaxDatasetsPerPackage = maxDatasetsPerPackage;
+        mMaxDatasets = maxDatasets;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    public int getMaxDatasetsPerPackage() {
+        return mMaxDatasetsPerPackage;
+    }
+
+    public int getMaxDatasets() {
+        return mMaxDatasets;
+    }
+
+    /**
+     * Gets how long a dataset is kept after it was last saved or used.
+     */
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+}
@@ -17,11 +17,9 @@ package com.example.android.autofill.service.data.source.local;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 
 import com.example.android.autofill.service.data.source.PackageVerificationDataSource;
-import com.example.android.autofill.service.util.SecurityHelper;
+import com.example.android.autofill.service.util.PackageFingerprintCache;
 
 import static com.example.android.autofill.service.util.Util.logd;
 import static com.example.android.autofill.service.util.Util.logw;
@@ -30,15 +28,16 @@ public class SharedPrefsPackageVerificationRepository implements PackageVerifica
 
     private static final String SHARED_PREF_KEY = "com.example.android.autofill.service"
             + ".datasource.PackageVerificationDataSource";
+    private static final int MAX_WARM_UP_PACKAGES = 16;
     private static PackageVerificationDataSource sInstance;
 
     private final SharedPreferences mSharedPrefs;
-    private final Context mContext;
+    private final PackageFingerprintCache mFingerprintCache;
 
     private SharedPrefsPackageVerificationRepository(Context context) {
         mSharedPrefs = context.getApplicationContext()
                 .getSharedPreferences(SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        mContext = context.getApplicationContext();
+        mFingerprintCache = PackageFingerprintCache.getInstance(context);
     }
 
     public static PackageVerificationDataSource getInstance(Context context) {
@@ -52,15 +51,14 @@ public class SharedPrefsPackageVerificationRepository implements PackageVerifica
     @Override
     public void clear() {
         mSharedPrefs.edit().clear().apply();
+        mFingerprintCache.clear();
     }
 
     @Override
     public boolean putPackageSignatures(String packageName) {
         String hash;
         try {
-            PackageManager pm = mContext.getPackageManager();
-            PackageInfo packageInfo = pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
-            hash = SecurityHelper.getFingerprint(packageInfo, packageName);
+            hash = mFingerprintCache.getFingerprint(packageName);
             logd("Hash for %s: %s", packageName, hash);
         } catch (Exception e) {
             logw(e, "Error getting hash for %s.", packageName);
@@ -75,6 +73,22 @@ public class SharedPrefsPackageVerificationRepository implements PackageVerifica
         return containsMatchingSignatureForPackage(packageName, hash);
     }
 
+    @Override
+    public void warmUp() {
+        int count = 0;
+        for (String packageName : mSharedPrefs.getAll().keySet()) {
+            if (count++ == MAX_WARM_UP_PACKAGES) {
+                break;
+            }
+            try {
+                mFingerprintCache.getFingerprint(packageName);
+            } catch (Exception e) {
+                // E.g. it was uninstalled, its next request (if any) will report it.
+                logd("Could not warm up hash for %s: %s", packageName, e.getMessage());
+            }
+        }
+    }
+
     private boolean containsSignatureForPackage(String packageName) {
         return mSharedPrefs.contains(packageName);
     }
@@ -20,34 +20,141 @@ import android.arch.persistence.room.Dao;
 import android.arch.persistence.room.Insert;
 import android.arch.persistence.room.OnConflictStrategy;
 import android.arch.persistence.room.Query;
+import android.arch.persistence.room.Transaction;
+import android.database.Cursor;
+import android.support.annotation.VisibleForTesting;
 
 import com.example.android.autofill.service.model.AutofillDataset;
 import com.example.android.autofill.service.model.AutofillHint;
+import com.example.android.autofill.service.model.DatasetSequence;
 import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.model.FilledAutofillField;
 import com.example.android.autofill.service.model.ResourceIdHeuristic;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.IntFunction;
 
 @Dao
-public interface AutofillDao {
+public abstract class AutofillDao {
     /**
-     * Fetches a list of datasets associated to autofill fields on the page.
+     * Passed as the limit of the dataset queries to return all the matching datasets.
+     */
+    public static final int NO_LIMIT = -1;
+
+    // Datasets are loaded with all of their fields in a single query, with one row per field
+    // ordered by dataset, and grouped by readDatasets().
+    private static final String SELECT_DATASET_ROWS = "SELECT AutofillDataset.id," +
+            " AutofillDataset.datasetName, AutofillDataset.packageName," +
+            " AutofillDataset.webDomain, AutofillDataset.contentHash," +
+            " AutofillDataset.lastSeen, AutofillDataset.lastUsed, AutofillDataset.useCount," +
+            " AutofillDataset.usageScore," +
+            " FilledAutofillField.fieldTypeName, FilledAutofillField.textValue," +
+            " FilledAutofillField.dateValue, FilledAutofillField.toggleValue" +
+            " FROM AutofillDataset" +
+            " JOIN FilledAutofillField ON FilledAutofillField.datasetId = AutofillDataset.id";
+    private static final String ORDER_BY_DATASET = " ORDER BY AutofillDataset.id";
+    // Keeps the datasets having a field of one of the given types.
+    private static final String HAS_MATCHING_FIELD = "EXISTS (SELECT 1" +
+            " FROM FilledAutofillField AS MatchingField" +
+            " WHERE MatchingField.datasetId = AutofillDataset.id" +
+            " AND MatchingField.fieldTypeName IN (:allAutofillHints))";
+    // Most used first. Selecting the most used datasets this way reads them in order from the
+    // (usageScore, id) or (packageName, usageScore, id) index and stops at the limit; domain
+    // lookups filter by domain first, and sort the few datasets found. The selected rows are
+    // then read grouped by dataset and sorted by sortByUsage().
+    private static final String ORDER_BY_USAGE =
+            " ORDER BY AutofillDataset.usageScore DESC, AutofillDataset.id DESC";
+    @VisibleForTesting
+    public static final String SELECT_MOST_USED_DATASET_ROWS = SELECT_DATASET_ROWS +
+            " WHERE AutofillDataset.id IN (SELECT id FROM AutofillDataset" +
+            " WHERE " + HAS_MATCHING_FIELD +
+            ORDER_BY_USAGE + " LIMIT (:limit))" + ORDER_BY_DATASET;
+    @VisibleForTesting
+    public static final String SELECT_DATASET_ROWS_WITH_NAME = SELECT_DATASET_ROWS +
+            " WHERE AutofillDataset.datasetName = (:datasetName)" +
+            " AND AutofillDataset.id IN (SELECT datasetId FROM FilledAutofillField" +
+            " WHERE fieldTypeName IN (:fieldTypes))" + ORDER_BY_DATASET;
+
+    /**
+     * Fetches a list of datasets associated to autofill fields on the page, most used first.
      *
      * @param allAutofillHints Filtering parameter; represents all of the hints associated with
      *                         all of the views on the page.
+     * @param limit            Maximum number of datasets returned, or {@link #NO_LIMIT}.
+     */
+    public List<DatasetWithFilledAutofillFields> getDatasets(List<String> allAutofillHints,
+            int limit) {
+        try (Cursor cursor = queryDatasetRows(allAutofillHints, limit)) {
+            return sortByUsage(readDatasets(cursor));
+        }
+    }
+
+    public List<DatasetWithFilledAutofillFields> getDatasets(List<String> allAutofillHints) {
+        return getDatasets(allAutofillHints, NO_LIMIT);
+    }
+
+    @Query(SELECT_MOST_USED_DATASET_ROWS)
+    abstract Cursor queryDatasetRows(List<String> allAutofillHints, int limit);
+
+    /**
+     * Same as {@link #getDatasets(List, int)}, but only returns the datasets saved from
+     * {@code packageName}.
+     */
+    public List<DatasetWithFilledAutofillFields> getDatasetsForPackage(
+            List<String> allAutofillHints, String packageName, int limit) {
+        try (Cursor cursor = queryDatasetRowsForPackage(allAutofillHints, packageName, limit)) {
+            return sortByUsage(readDatasets(cursor));
+        }
+    }
+
+    @Query(SELECT_DATASET_ROWS +
+            " WHERE AutofillDataset.id IN (SELECT id FROM AutofillDataset" +
+            " WHERE packageName = (:packageName) AND " + HAS_MATCHING_FIELD +
+            ORDER_BY_USAGE + " LIMIT (:limit))" + ORDER_BY_DATASET)
+    abstract Cursor queryDatasetRowsForPackage(List<String> allAutofillHints, String packageName,
+            int limit);
+
+    /**
+     * Same as {@link #getDatasets(List, int)}, but only returns the datasets saved from pages of
+     * {@code webDomain}, by any app.
      */
-    @Query("SELECT DISTINCT id, datasetName FROM FilledAutofillField, AutofillDataset" +
-            " WHERE AutofillDataset.id = FilledAutofillField.datasetId" +
-            " AND FilledAutofillField.fieldTypeName IN (:allAutofillHints)")
-    List<DatasetWithFilledAutofillFields> getDatasets(List<String> allAutofillHints);
+    public List<DatasetWithFilledAutofillFields> getDatasetsForWebDomain(
+            List<String> allAutofillHints, String webDomain, int limit) {
+        try (Cursor cursor = queryDatasetRowsForWebDomain(allAutofillHints, webDomain, limit)) {
+            return sortByUsage(readDatasets(cursor));
+        }
+    }
+
+    @Query(SELECT_DATASET_ROWS +
+            " WHERE AutofillDataset.id IN (SELECT id FROM AutofillDataset" +
+            " WHERE webDomain = (:webDomain) AND " + HAS_MATCHING_FIELD +
+            ORDER_BY_USAGE + " LIMIT (:limit))" + ORDER_BY_DATASET)
+    abstract Cursor queryDatasetRowsForWebDomain(List<String> allAutofillHints, String webDomain,
+            int limit);
+
+    public List<DatasetWithFilledAutofillFields> getAllDatasets() {
+        try (Cursor cursor = queryAllDatasetRows()) {
+            return readDatasets(cursor);
+        }
+    }
+
+    @Query(SELECT_DATASET_ROWS + ORDER_BY_DATASET)
+    abstract Cursor queryAllDatasetRows();
 
-    @Query("SELECT DISTINCT id, datasetName FROM FilledAutofillField, AutofillDataset" +
-            " WHERE AutofillDataset.id = FilledAutofillField.datasetId")
-    List<DatasetWithFilledAutofillFields> getAllDatasets();
+    /**
+     * Same as {@link #getAllDatasets()}, but with the fields loaded by Room through
+     * {@link android.arch.persistence.room.Relation}, to compare both in benchmarks.
+     */
+    @VisibleForTesting
+    @Query("SELECT DISTINCT id, datasetName, packageName, webDomain, contentHash, lastSeen," +
+            " lastUsed, useCount, usageScore FROM FilledAutofillField," +
+            " AutofillDataset WHERE AutofillDataset.id = FilledAutofillField.datasetId")
+    public abstract List<DatasetWithFilledAutofillFields> getAllDatasetsWithRelation();
 
     /**
      * Fetches a list of datasets associated to autofill fields. It should only return a dataset
@@ -58,12 +165,15 @@ public interface AutofillDao {
      *                         all of the views on the page.
      * @param datasetName      Filtering parameter; only return datasets with this name.
      */
-    @Query("SELECT DISTINCT id, datasetName FROM FilledAutofillField, AutofillDataset" +
-            " WHERE AutofillDataset.id = FilledAutofillField.datasetId" +
-            " AND AutofillDataset.datasetName = (:datasetName)" +
-            " AND FilledAutofillField.fieldTypeName IN (:fieldTypes)")
-    List<DatasetWithFilledAutofillFields> getDatasetsWithName(
-            List<String> fieldTypes, String datasetName);
+    public List<DatasetWithFilledAutofillFields> getDatasetsWithName(
+            List<String> fieldTypes, String datasetName) {
+        try (Cursor cursor = queryDatasetRowsWithName(fieldTypes, datasetName)) {
+            return readDatasets(cursor);
+        }
+    }
+
+    @Query(SELECT_DATASET_ROWS_WITH_NAME)
+    abstract Cursor queryDatasetRowsWithName(List<String> fieldTypes, String datasetName);
 
     @Query("SELECT DISTINCT typeName, autofillTypes, saveInfo, partition, strictExampleSet, " +
             "textTemplate, dateTemplate" +
@@ -74,7 +184,7 @@ public interface AutofillDao {
             "textTemplate, dateTemplate" +
             " FROM FieldType, ResourceIdHeuristic" +
             " WHERE FieldType.typeName = ResourceIdHeuristic.fieldTypeName")
-    List<FieldTypeWithHeuristics> getFieldTypesWithHints();
+    public abstract List<FieldTypeWithHeuristics> getFieldTypesWithHints();
 
     @Query("SELECT DISTINCT typeName, autofillTypes, saveInfo, partition, strictExampleSet, " +
             "textTemplate, dateTemplate" +
@@ -86,41 +196,242 @@ public interface AutofillDao {
             "textTemplate, dateTemplate" +
             " FROM FieldType, ResourceIdHeuristic" +
             " WHERE FieldType.typeName = ResourceIdHeuristic.fieldTypeName")
-    List<FieldTypeWithHeuristics> getFieldTypesForAutofillHints(List<String> autofillHints);
+    public abstract List<FieldTypeWithHeuristics> getFieldTypesForAutofillHints(
+            List<String> autofillHints);
+
+    public DatasetWithFilledAutofillFields getAutofillDatasetWithId(String datasetId) {
+        try (Cursor cursor = queryDatasetRowsWithId(datasetId)) {
+            List<DatasetWithFilledAutofillFields> datasets = readDatasets(cursor);
+            return datasets.isEmpty() ? null : datasets.get(0);
+        }
+    }
 
-    @Query("SELECT DISTINCT id, datasetName FROM FilledAutofillField, AutofillDataset" +
-            " WHERE AutofillDataset.id = FilledAutofillField.datasetId" +
-            " AND AutofillDataset.id = (:datasetId)")
-    DatasetWithFilledAutofillFields getAutofillDatasetWithId(String datasetId);
+    @Query(SELECT_DATASET_ROWS + " WHERE AutofillDataset.id = (:datasetId)")
+    abstract Cursor queryDatasetRowsWithId(String datasetId);
 
     @Query("SELECT * FROM FilledAutofillField" +
             " WHERE FilledAutofillField.datasetId = (:datasetId)" +
             " AND FilledAutofillField.fieldTypeName = (:fieldTypeName)")
-    FilledAutofillField getFilledAutofillField(String datasetId, String fieldTypeName);
+    public abstract FilledAutofillField getFilledAutofillField(String datasetId,
+            String fieldTypeName);
 
     @Query("SELECT * FROM FieldType" +
             " WHERE FieldType.typeName = (:fieldTypeName)")
-    FieldType getFieldType(String fieldTypeName);
+    public abstract FieldType getFieldType(String fieldTypeName);
 
     /**
      * @param autofillFields Collection of autofill fields to be saved to the db.
      */
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertFilledAutofillFields(Collection<FilledAutofillField> autofillFields);
+    public abstract void insertFilledAutofillFields(Collection<FilledAutofillField> autofillFields);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertAutofillDataset(AutofillDataset datasets);
+    public abstract void insertAutofillDataset(AutofillDataset datasets);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertAutofillHints(List<AutofillHint> autofillHints);
+    public abstract void insertAutofillHints(List<AutofillHint> autofillHints);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertResourceIdHeuristic(ResourceIdHeuristic resourceIdHeuristic);
+    public abstract void insertResourceIdHeuristic(ResourceIdHeuristic resourceIdHeuristic);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertFieldTypes(List<FieldType> fieldTypes);
+    public abstract void insertFieldTypes(List<FieldType> fieldTypes);
+
+    /**
+     * Creates {@code datasetSequence} unless a sequence with the same name already exists.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertDatasetSequence(DatasetSequence datasetSequence);
+
+    @Query("SELECT nextValue FROM DatasetSequence WHERE name = (:name)")
+    public abstract int getDatasetSequenceValue(String name);
+
+    @Query("UPDATE DatasetSequence SET nextValue = nextValue + 1 WHERE name = (:name)")
+    public abstract void incrementDatasetSequence(String name);
+
+    @Query("SELECT usageScore FROM AutofillDataset WHERE contentHash = (:contentHash)")
+    abstract Double getDatasetUsageScoreByContentHash(String contentHash);
+
+    /**
+     * Marks the dataset with the given content hash as seen at {@code lastSeen}, with its new
+     * usage score.
+     */
+    @Query("UPDATE AutofillDataset SET lastSeen = (:lastSeen), usageScore = (:usageScore)" +
+            " WHERE contentHash = (:contentHash)")
+    abstract int updateDatasetLastSeen(String contentHash, long lastSeen, double usageScore);
+
+    /**
+     * Saves all the partitions of a save request in a single transaction, so they are written
+     * with one commit and either all or none of them are stored.
+     * <p>
+     * The dataset number used to name them is allocated from {@link DatasetSequence} in the same
+     * transaction, so concurrent saves never share a number.
+     * <p>
+     * A dataset with the same {@link AutofillDataset#getContentHash() content hash} as a stored
+     * one only updates the stored dataset's last seen time, so saving the same values again
+     * doesn't add a duplicate. Like the first save of a dataset, saving it again counts as a use
+     * towards its usage score, so it ranks as a newly saved dataset would.
+     *
+     * @param datasetsByNumber Builds the datasets to save, given their dataset number.
+     * @return The dataset number the datasets were built with.
+     */
+    @Transaction
+    public int insertDatasets(
+            IntFunction<List<DatasetWithFilledAutofillFields>> datasetsByNumber) {
+        insertDatasetSequence(new DatasetSequence(DatasetSequence.DATASET_NUMBER, 0));
+        int datasetNumber = getDatasetSequenceValue(DatasetSequence.DATASET_NUMBER);
+        incrementDatasetSequence(DatasetSequence.DATASET_NUMBER);
+        for (DatasetWithFilledAutofillFields datasetWithFilledAutofillFields :
+                datasetsByNumber.apply(datasetNumber)) {
+            AutofillDataset autofillDataset = datasetWithFilledAutofillFields.autofillDataset;
+            String contentHash = autofillDataset.getContentHash();
+            Double usageScore = contentHash != null
+                    ? getDatasetUsageScoreByContentHash(contentHash) : null;
+            if (usageScore != null) {
+                long lastSeen = autofillDataset.getLastSeen();
+                updateDatasetLastSeen(contentHash, lastSeen,
+                        AutofillDataset.addUsage(usageScore, lastSeen));
+                continue;
+            }
+            insertAutofillDataset(autofillDataset);
+            insertFilledAutofillFields(datasetWithFilledAutofillFields.filledAutofillFields);
+        }
+        return datasetNumber;
+    }
+
+    @Query("SELECT usageScore FROM AutofillDataset WHERE id = (:datasetId)")
+    abstract Double getDatasetUsageScore(String datasetId);
 
+    @Query("UPDATE AutofillDataset SET lastUsed = (:lastUsed), useCount = useCount + 1," +
+            " usageScore = (:usageScore) WHERE id = (:datasetId)")
+    abstract int updateDatasetUsage(String datasetId, long lastUsed, double usageScore);
+
+    /**
+     * Records that the user selected each of {@code datasetIds} at {@code nowMillis}. Datasets
+     * deleted in the meantime are skipped.
+     */
+    @Transaction
+    public void recordDatasetUsage(Collection<String> datasetIds, long nowMillis) {
+        for (String datasetId : datasetIds) {
+            Double usageScore = getDatasetUsageScore(datasetId);
+            if (usageScore != null) {
+                updateDatasetUsage(datasetId, nowMillis,
+                        AutofillDataset.addUsage(usageScore, nowMillis));
+            }
+        }
+    }
 
     @Query("DELETE FROM AutofillDataset")
-    void clearAll();
+    public abstract void clearAll();
+
+    /**
+     * Starts the age of the datasets saved before their last seen time was recorded.
+     */
+    @Query("UPDATE AutofillDataset SET lastSeen = (:nowMillis) WHERE lastSeen = 0")
+    public abstract int initDatasetsLastSeen(long nowMillis);
+
+    @Query("SELECT COUNT(*) FROM AutofillDataset")
+    public abstract int countDatasets();
+
+    @Query("SELECT COUNT(*) FROM AutofillDataset WHERE packageName = (:packageName)")
+    public abstract int countDatasetsForPackage(String packageName);
+
+    /**
+     * Gets the packages, other than {@code excludedPackageName}, with more than
+     * {@code maxDatasets} datasets.
+     */
+    @Query("SELECT packageName FROM AutofillDataset" +
+            " WHERE packageName != (:excludedPackageName)" +
+            " GROUP BY packageName HAVING COUNT(*) > (:maxDatasets)")
+    public abstract List<String> getPackagesWithMoreDatasetsThan(int maxDatasets,
+            String excludedPackageName);
+
+    /**
+     * Deletes up to {@code limit} datasets neither saved nor used since {@code cutoffMillis},
+     * with their fields. Scans the table, so it is only meant for the idle compaction.
+     *
+     * @return The number of datasets deleted.
+     */
+    @Query("DELETE FROM AutofillDataset WHERE id IN (SELECT id FROM AutofillDataset" +
+            " WHERE MAX(lastSeen, lastUsed) < (:cutoffMillis) LIMIT (:limit))")
+    public abstract int deleteDatasetsSeenOrUsedBefore(long cutoffMillis, int limit);
+
+    /**
+     * Deletes the {@code count} least used datasets, with their fields. Saves count as uses, so
+     * a dataset saved recently but never used outranks one used rarely and long ago.
+     *
+     * @return The number of datasets deleted.
+     */
+    @Query("DELETE FROM AutofillDataset WHERE id IN (SELECT id FROM AutofillDataset" +
+            " ORDER BY usageScore, id LIMIT (:count))")
+    public abstract int deleteLeastUsedDatasets(int count);
+
+    /**
+     * Deletes the {@code count} least used datasets of {@code packageName}, with their fields.
+     *
+     * @return The number of datasets deleted.
+     */
+    @Query("DELETE FROM AutofillDataset WHERE id IN (SELECT id FROM AutofillDataset" +
+            " WHERE packageName = (:packageName) ORDER BY usageScore, id LIMIT (:count))")
+    public abstract int deleteLeastUsedDatasetsForPackage(String packageName, int count);
+
+    /**
+     * Groups the rows returned by the {@link #SELECT_DATASET_ROWS} queries, which must be ordered
+     * by dataset, in a single pass.
+     */
+    private static List<DatasetWithFilledAutofillFields> readDatasets(Cursor cursor) {
+        List<DatasetWithFilledAutofillFields> datasets = new ArrayList<>();
+        int idColumn = cursor.getColumnIndexOrThrow("id");
+        int datasetNameColumn = cursor.getColumnIndexOrThrow("datasetName");
+        int packageNameColumn = cursor.getColumnIndexOrThrow("packageName");
+        int webDomainColumn = cursor.getColumnIndexOrThrow("webDomain");
+        int contentHashColumn = cursor.getColumnIndexOrThrow("contentHash");
+        int lastSeenColumn = cursor.getColumnIndexOrThrow("lastSeen");
+        int lastUsedColumn = cursor.getColumnIndexOrThrow("lastUsed");
+        int useCountColumn = cursor.getColumnIndexOrThrow("useCount");
+        int usageScoreColumn = cursor.getColumnIndexOrThrow("usageScore");
+        int fieldTypeNameColumn = cursor.getColumnIndexOrThrow("fieldTypeName");
+        int textValueColumn = cursor.getColumnIndexOrThrow("textValue");
+        int dateValueColumn = cursor.getColumnIndexOrThrow("dateValue");
+        int toggleValueColumn = cursor.getColumnIndexOrThrow("toggleValue");
+        DatasetWithFilledAutofillFields dataset = null;
+        while (cursor.moveToNext()) {
+            String id = cursor.getString(idColumn);
+            if (dataset == null || !dataset.autofillDataset.getId().equals(id)) {
+                dataset = new DatasetWithFilledAutofillFields();
+                dataset.autofillDataset = new AutofillDataset(id,
+                        cursor.getString(datasetNameColumn), cursor.getString(packageNameColumn),
+                        cursor.isNull(webDomainColumn) ? null : cursor.getString(webDomainColumn),
+                        cursor.isNull(contentHashColumn) ? null
+                                : cursor.getString(contentHashColumn),
+                        cursor.getLong(lastSeenColumn), cursor.getLong(lastUsedColumn),
+                        cursor.getInt(useCountColumn), cursor.getDouble(usageScoreColumn));
+                dataset.filledAutofillFields = new ArrayList<>();
+                datasets.add(dataset);
+            }
+            dataset.filledAutofillFields.add(new FilledAutofillField(id,
+                    cursor.getString(fieldTypeNameColumn),
+                    cursor.isNull(textValueColumn) ? null : cursor.getString(textValueColumn),
+                    cursor.isNull(dateValueColumn) ? null : cursor.getLong(dateValueColumn),
+                    cursor.isNull(toggleValueColumn) ? null
+                            : cursor.getInt(toggleValueColumn) != 0));
+        }
+        return datasets;
+    }
+
+    /**
+     * Sorts datasets read grouped by id the most used first, like {@link #ORDER_BY_USAGE}.
+     */
+    private static List<DatasetWithFilledAutofillFields> sortByUsage(
+            List<DatasetWithFilledAutofillFields> datasets) {
+        datasets.sort(Comparator.comparingDouble(
+                (DatasetWithFilledAutofillFields dataset) ->
+                        dataset.autofillDataset.getUsageScore())
+                .thenComparing(dataset -> dataset.autofillDataset.getId())
+                .reversed());
+        return datasets;
+    }
+
+    @Query("DELETE FROM DatasetSequence")
+    public abstract void clearDatasetSequences();
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local.dao;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import com.example.android.autofill.service.model.DalVerdict;
+
+import java.util.List;
+
+@Dao
+public interface DalVerdictDao {
+    /**
+     * Fetches the verdicts that are still valid at {@code nowMillis}.
+     */
+    @Query("SELECT * FROM DalVerdict WHERE expiresAt > :nowMillis")
+    List<DalVerdict> getUnexpiredVerdicts(long nowMillis);
+
+    @Query("SELECT * FROM DalVerdict WHERE requirement = :requirement AND webDomain = :webDomain"
+            + " AND packageName = :packageName AND fingerprint = :fingerprint")
+    DalVerdict getVerdict(String requirement, String webDomain, String packageName,
+            String fingerprint);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertVerdict(DalVerdict verdict);
+
+    @Query("DELETE FROM DalVerdict WHERE expiresAt <= :nowMillis")
+    int deleteExpiredVerdicts(long nowMillis);
+
+    @Query("DELETE FROM DalVerdict")
+    void clearAll();
+}
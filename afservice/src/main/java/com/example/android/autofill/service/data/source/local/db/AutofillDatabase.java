@@ -21,93 +21,225 @@ import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
 import android.arch.persistence.room.TypeConverters;
+import android.arch.persistence.room.migration.Migration;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.view.View;
 
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
 import com.example.android.autofill.service.model.AutofillDataset;
 import com.example.android.autofill.service.model.AutofillHint;
-import com.example.android.autofill.service.model.DefaultFieldTypeWithHints;
+import com.example.android.autofill.service.model.DatasetSequence;
 import com.example.android.autofill.service.model.FakeData;
 import com.example.android.autofill.service.model.FieldType;
 import com.example.android.autofill.service.model.FilledAutofillField;
 import com.example.android.autofill.service.model.ResourceIdHeuristic;
-import com.example.android.autofill.service.util.AppExecutors;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import static com.example.android.autofill.service.data.source.local.db.Converters.IntList;
-import static java.util.stream.Collectors.toList;
 
 @Database(entities = {
         FilledAutofillField.class,
         AutofillDataset.class,
         FieldType.class,
         AutofillHint.class,
-        ResourceIdHeuristic.class
-}, version = 1)
+        ResourceIdHeuristic.class,
+        DatasetSequence.class
+}, version = 7)
 @TypeConverters({Converters.class})
 public abstract class AutofillDatabase extends RoomDatabase {
 
+    /**
+     * Adds the indexes used by the dataset lookup queries.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS"
+                    + " `index_FilledAutofillField_fieldTypeName_datasetId`"
+                    + " ON `FilledAutofillField` (`fieldTypeName`, `datasetId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AutofillDataset_datasetName`"
+                    + " ON `AutofillDataset` (`datasetName`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AutofillDataset_packageName`"
+                    + " ON `AutofillDataset` (`packageName`)");
+        }
+    };
+
+    /**
+     * Adds the sequence used to allocate dataset numbers, which used to be kept in
+     * {@link android.content.SharedPreferences}.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `DatasetSequence` ("
+                    + "`name` TEXT NOT NULL, `nextValue` INTEGER NOT NULL, PRIMARY KEY(`name`))");
+        }
+    };
+
+    /**
+     * Converts {@code FieldType.autofillTypes} from a comma delimited list of autofill types to
+     * the bitmask returned by {@link FieldType#toAutofillTypes}. SQLite can't change the type of
+     * a column, so the table is rebuilt.
+     * <p>
+     * Dropping {@code FieldType} would cascade to the hints, fields and heuristics referencing it
+     * if foreign keys were enforced; Room only enables them once the migrations have run.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Padded with commas so that every type in the list is matched as ",type,".
+            String paddedTypes = "',' || REPLACE(autofillTypes, ' ', '') || ','";
+            StringBuilder bitmask = new StringBuilder("0");
+            for (int type = View.AUTOFILL_TYPE_NONE; type <= View.AUTOFILL_TYPE_DATE; type++) {
+                bitmask.append(" | (CASE WHEN ").append(paddedTypes).append(" LIKE '%,")
+                        .append(type).append(",%' THEN ").append(1 << type).append(" ELSE 0 END)");
+            }
+            database.execSQL("CREATE TABLE `FieldType_new` (`typeName` TEXT NOT NULL,"
+                    + " `autofillTypes` INTEGER NOT NULL, `saveInfo` INTEGER NOT NULL,"
+                    + " `partition` INTEGER NOT NULL, `strictExampleSet` TEXT,"
+                    + " `textTemplate` TEXT, `dateTemplate` TEXT, PRIMARY KEY(`typeName`))");
+            database.execSQL("INSERT INTO `FieldType_new` SELECT typeName, " + bitmask
+                    + ", saveInfo, partition, strictExampleSet, textTemplate, dateTemplate"
+                    + " FROM `FieldType`");
+            database.execSQL("DROP TABLE `FieldType`");
+            database.execSQL("ALTER TABLE `FieldType_new` RENAME TO `FieldType`");
+        }
+    };
+
+    /**
+     * Adds the content hash used to deduplicate saved datasets, and their last seen time. Datasets
+     * saved before have no hash, so they are never matched.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AutofillDataset` ADD COLUMN `contentHash` TEXT");
+            database.execSQL("ALTER TABLE `AutofillDataset`"
+                    + " ADD COLUMN `lastSeen` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS"
+                    + " `index_AutofillDataset_contentHash` ON `AutofillDataset` (`contentHash`)");
+        }
+    };
+
+    /**
+     * Adds the web domain datasets were saved from, so fill requests can be scoped to it.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AutofillDataset` ADD COLUMN `webDomain` TEXT");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AutofillDataset_webDomain`"
+                    + " ON `AutofillDataset` (`webDomain`)");
+        }
+    };
+
+    /**
+     * Adds the usage statistics datasets are ranked and retained by. Existing datasets get the
+     * score of a single use when they were last saved, as new ones do. The package index is
+     * extended with the score, so the datasets of a package are also read in that order.
+     */
+    @VisibleForTesting
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AutofillDataset`"
+                    + " ADD COLUMN `lastUsed` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `AutofillDataset`"
+                    + " ADD COLUMN `useCount` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `AutofillDataset`"
+                    + " ADD COLUMN `usageScore` REAL NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE `AutofillDataset` SET `usageScore` = `lastSeen` * ?",
+                    new Object[]{AutofillDataset.USAGE_SCORE_PER_MILLISECOND});
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AutofillDataset_usageScore_id`"
+                    + " ON `AutofillDataset` (`usageScore`, `id`)");
+            database.execSQL("DROP INDEX IF EXISTS `index_AutofillDataset_packageName`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS"
+                    + " `index_AutofillDataset_packageName_usageScore_id`"
+                    + " ON `AutofillDataset` (`packageName`, `usageScore`, `id`)");
+        }
+    };
+
+    /**
+     * All the migrations, in order.
+     */
+    @VisibleForTesting
+    static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4,
+            MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7};
+
     private static final Object sLock = new Object();
     private static AutofillDatabase sInstance;
 
     public static AutofillDatabase getInstance(Context context,
-            DefaultFieldTypesSource defaultFieldTypesSource,
-            AppExecutors appExecutors) {
+            DefaultFieldTypesSource defaultFieldTypesSource) {
         if (sInstance == null) {
             synchronized (sLock) {
                 if (sInstance == null) {
-                    sInstance = Room.databaseBuilder(context.getApplicationContext(),
+                    AutofillDatabase database = Room.databaseBuilder(
+                            context.getApplicationContext(),
                             AutofillDatabase.class, "AutofillSample.db")
                             .addCallback(new RoomDatabase.Callback() {
                                 @Override
                                 public void onCreate(@NonNull SupportSQLiteDatabase db) {
-                                    appExecutors.diskIO().execute(() -> {
-                                        List<DefaultFieldTypeWithHints> fieldTypes =
-                                                defaultFieldTypesSource.getDefaultFieldTypes();
-                                        AutofillDatabase autofillDatabase =
-                                                getInstance(context, defaultFieldTypesSource,
-                                                        appExecutors);
-                                        autofillDatabase.saveDefaultFieldTypes(fieldTypes);
-                                    });
+                                    // Runs in the transaction creating the tables, so the field
+                                    // types are already there when the first query runs.
+                                    saveDefaultFieldTypes(db, defaultFieldTypesSource);
                                 }
 
                                 @Override
                                 public void onOpen(@NonNull SupportSQLiteDatabase db) {
                                     super.onOpen(db);
+                                    // In WAL mode a commit that was not synced yet can only be
+                                    // lost on a power failure, never corrupt the database. That
+                                    // is fine for autofill data, and commits skip an fsync.
+                                    db.execSQL("PRAGMA synchronous = NORMAL");
                                 }
                             })
+                            .addMigrations(MIGRATIONS)
                             .build();
+                    // Lets fill lookups read while a save is being written, on separate
+                    // connections. Must be set before the database is first opened.
+                    database.getOpenHelper().setWriteAheadLoggingEnabled(true);
+                    sInstance = database;
                 }
             }
         }
         return sInstance;
     }
 
-    private void saveDefaultFieldTypes(List<DefaultFieldTypeWithHints> defaultFieldTypes) {
-        List<FieldType> storedFieldTypes = new ArrayList<>();
-        List<AutofillHint> storedAutofillHints = new ArrayList<>();
-        for (DefaultFieldTypeWithHints defaultType : defaultFieldTypes) {
-            DefaultFieldTypeWithHints.DefaultFieldType defaultFieldType = defaultType.fieldType;
-            List<String> autofillHints = defaultType.autofillHints;
-            IntList autofillTypes = new IntList(defaultFieldType.autofillTypes);
-            DefaultFieldTypeWithHints.DefaultFakeData defaultFakeData = defaultType.fieldType.fakeData;
-            FakeData fakeData = new FakeData(new Converters.StringList(
-                    defaultFakeData.strictExampleSet), defaultFakeData.textTemplate,
-                    defaultFakeData.dateTemplate);
-            FieldType storedFieldType = new FieldType(defaultFieldType.typeName, autofillTypes,
-                    defaultFieldType.saveInfo, defaultFieldType.partition, fakeData);
-            storedFieldTypes.add(storedFieldType);
-            storedAutofillHints.addAll(autofillHints.stream()
-                    .map((autofillHint) -> new AutofillHint(autofillHint,
-                            storedFieldType.getTypeName())).collect(toList()));
+    /**
+     * Inserts the default field types and their autofill hints. The DAO can't be used while the
+     * database is being created, so the rows are written directly.
+     */
+    @VisibleForTesting
+    public static void saveDefaultFieldTypes(@NonNull SupportSQLiteDatabase db,
+            @NonNull DefaultFieldTypesSource defaultFieldTypesSource) {
+        ContentValues values = new ContentValues();
+        for (FieldType fieldType : defaultFieldTypesSource.getDefaultFieldTypes()) {
+            FakeData fakeData = fieldType.getFakeData();
+            values.clear();
+            values.put("typeName", fieldType.getTypeName());
+            values.put("autofillTypes", fieldType.getAutofillTypes());
+            values.put("saveInfo", fieldType.getSaveInfo());
+            values.put("partition", fieldType.getPartition());
+            values.put("strictExampleSet", fakeData.strictExampleSet != null
+                    ? Converters.stringListToStoredString(fakeData.strictExampleSet) : null);
+            values.put("textTemplate", fakeData.textTemplate);
+            values.put("dateTemplate", fakeData.dateTemplate);
+            db.insert("FieldType", SQLiteDatabase.CONFLICT_REPLACE, values);
+        }
+        for (AutofillHint autofillHint : defaultFieldTypesSource.getDefaultAutofillHints()) {
+            values.clear();
+            values.put("autofillHint", autofillHint.mAutofillHint);
+            values.put("fieldTypeName", autofillHint.mFieldTypeName);
+            db.insert("AutofillHint", SQLiteDatabase.CONFLICT_REPLACE, values);
         }
-        AutofillDao autofillDao = autofillDao();
-        autofillDao.insertFieldTypes(storedFieldTypes);
-        autofillDao.insertAutofillHints(storedAutofillHints);
     }
 
     public abstract AutofillDao autofillDao();
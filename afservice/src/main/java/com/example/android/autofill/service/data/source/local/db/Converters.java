@@ -20,37 +20,13 @@ import android.arch.persistence.room.TypeConverter;
 
 import java.util.Arrays;
 import java.util.List;
-
-import static java.util.stream.Collectors.toList;
+import java.util.regex.Pattern;
 
 /**
  * Type converter for Room database.
  */
 public class Converters {
-
-    /**
-     * If database returns a {@link String} containing a comma delimited list of ints, this converts
-     * the {@link String} to an {@link IntList}.
-     */
-    @TypeConverter
-    public static IntList storedStringToIntList(String value) {
-        List<String> strings = Arrays.asList(value.split("\\s*,\\s*"));
-        List<Integer> ints = strings.stream().map(Integer::parseInt).collect(toList());
-        return new IntList(ints);
-    }
-
-    /**
-     * Converts the {@link IntList} back into a String containing a comma delimited list of
-     * ints.
-     */
-    @TypeConverter
-    public static String intListToStoredString(IntList list) {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (Integer integer : list.ints) {
-            stringBuilder.append(integer).append(",");
-        }
-        return stringBuilder.toString();
-    }
+    private static final Pattern SEPARATOR = Pattern.compile("\\s*,\\s*");
 
     /**
      * If database returns a {@link String} containing a comma delimited list of Strings, this
@@ -58,7 +34,7 @@ public class Converters {
      */
     @TypeConverter
     public static StringList storedStringToStringList(String value) {
-        List<String> strings = Arrays.asList(value.split("\\s*,\\s*"));
+        List<String> strings = Arrays.asList(SEPARATOR.split(value));
         return new StringList(strings);
     }
 
@@ -76,17 +52,6 @@ public class Converters {
         return stringBuilder.toString();
     }
 
-    /**
-     * Wrapper class for {@code List<Integer>} so it can work with Room type converters.
-     */
-    public static class IntList {
-        public final List<Integer> ints;
-
-        public IntList(List<Integer> ints) {
-            this.ints = ints;
-        }
-    }
-
     /**
      * Wrapper class for {@code List<String>} so it can work with Room type converters.
      */
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.data.source.local.db;
+
+import android.arch.persistence.room.Database;
+import android.arch.persistence.room.Room;
+import android.arch.persistence.room.RoomDatabase;
+import android.content.Context;
+
+import com.example.android.autofill.service.data.source.local.dao.DalVerdictDao;
+import com.example.android.autofill.service.model.DalVerdict;
+
+/**
+ * Small database persisting Digital Asset Links verdicts across process restarts.
+ * <p>
+ * It only holds cached network results, so it is kept apart from {@link AutofillDatabase} and is
+ * simply recreated instead of migrated when its schema changes.
+ */
+@Database(entities = {DalVerdict.class}, version = 1, exportSchema = false)
+public abstract class DalCacheDatabase extends RoomDatabase {
+
+    private static final Object sLock = new Object();
+    private static DalCacheDatabase sInstance;
+
+    public static DalCacheDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (sLock) {
+                if (sInstance == null) {
+                    sInstance = Room.databaseBuilder(context.getApplicationContext(),
+                            DalCacheDatabase.class, "DalCache.db")
+                            .fallbackToDestructiveMigration()
+                            .build();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    public abstract DalVerdictDao dalVerdictDao();
+}
@@ -18,10 +18,38 @@ package com.example.android.autofill.service.model;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-@Entity(primaryKeys = {"id"})
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Entity(primaryKeys = {"id"}, indices = {
+        @Index(value = "datasetName"),
+        @Index(value = {"packageName", "usageScore", "id"}),
+        @Index(value = "webDomain"),
+        @Index(value = "contentHash", unique = true),
+        @Index(value = {"usageScore", "id"})
+})
 public class AutofillDataset {
+    /**
+     * A use (or save) of a dataset counts half as much towards its usage score after this long.
+     */
+    public static final long USAGE_HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    /**
+     * Usage score of a single use at time 0, per millisecond after that.
+     */
+    public static final double USAGE_SCORE_PER_MILLISECOND = Math.log(2) / USAGE_HALF_LIFE_MILLIS;
+
     @NonNull
     @ColumnInfo(name = "id")
     private final String mId;
@@ -34,11 +62,110 @@ public class AutofillDataset {
     @ColumnInfo(name = "packageName")
     private final String mPackageName;
 
+    // Canonical web domain of the page the dataset was saved from, if any.
+    @Nullable
+    @ColumnInfo(name = "webDomain")
+    private final String mWebDomain;
+
+    // Null for datasets that are not deduplicated, e.g. the ones created manually.
+    @Nullable
+    @ColumnInfo(name = "contentHash")
+    private final String mContentHash;
+
+    // When the dataset was last saved, in milliseconds since the epoch.
+    @ColumnInfo(name = "lastSeen")
+    private final long mLastSeen;
+
+    // When the dataset was last selected by the user, in milliseconds since the epoch.
+    @ColumnInfo(name = "lastUsed")
+    private final long mLastUsed;
+
+    @ColumnInfo(name = "useCount")
+    private final int mUseCount;
+
+    // See addUsage().
+    @ColumnInfo(name = "usageScore")
+    private final double mUsageScore;
+
+    @Ignore
     public AutofillDataset(@NonNull String id, @NonNull String datasetName,
                            @NonNull String packageName) {
+        this(id, datasetName, packageName, null, null, 0);
+    }
+
+    /**
+     * Creates a dataset that was never used. Saving it counts as a use at {@code lastSeen}, so
+     * that it ranks above older datasets until it is actually used.
+     */
+    @Ignore
+    public AutofillDataset(@NonNull String id, @NonNull String datasetName,
+            @NonNull String packageName, @Nullable String webDomain, @Nullable String contentHash,
+            long lastSeen) {
+        this(id, datasetName, packageName, webDomain, contentHash, lastSeen, 0, 0,
+                lastSeen * USAGE_SCORE_PER_MILLISECOND);
+    }
+
+    public AutofillDataset(@NonNull String id, @NonNull String datasetName,
+            @NonNull String packageName, @Nullable String webDomain, @Nullable String contentHash,
+            long lastSeen, long lastUsed, int useCount, double usageScore) {
         mId = id;
         mDatasetName = datasetName;
         mPackageName = packageName;
+        mWebDomain = webDomain;
+        mContentHash = contentHash;
+        mLastSeen = lastSeen;
+        mLastUsed = lastUsed;
+        mUseCount = useCount;
+        mUsageScore = usageScore;
+    }
+
+    /**
+     * Returns {@code usageScore} with a use at {@code timeMillis} added.
+     * <p>
+     * The score is the log of the sum of {@code 2^(t / USAGE_HALF_LIFE_MILLIS)} over the times
+     * {@code t} the dataset was used, so recent and frequent uses both raise it. Scores of all
+     * datasets decay at the same rate, which keeps their order unchanged as time passes: stored
+     * scores never need to be updated, and can be indexed to rank datasets.
+     */
+    public static double addUsage(double usageScore, long timeMillis) {
+        double use = timeMillis * USAGE_SCORE_PER_MILLISECOND;
+        // log(e^a + e^b), without overflowing.
+        return Math.max(usageScore, use) + Math.log1p(Math.exp(-Math.abs(usageScore - use)));
+    }
+
+    /**
+     * Computes the hash identifying the content of a dataset, so that saving the same values
+     * again updates the existing dataset instead of adding a duplicate. It doesn't depend on the
+     * dataset id or name, nor on the order of the fields.
+     */
+    @NonNull
+    public static String computeContentHash(@NonNull String packageName,
+            @Nullable String webDomain, int partition, @NonNull List<FilledAutofillField> fields) {
+        List<FilledAutofillField> sortedFields = new ArrayList<>(fields);
+        sortedFields.sort(Comparator.comparing(FilledAutofillField::getFieldTypeName));
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, packageName);
+        putString(hasher, webDomain);
+        hasher.putInt(partition);
+        hasher.putInt(sortedFields.size());
+        for (FilledAutofillField field : sortedFields) {
+            putString(hasher, field.getFieldTypeName());
+            putString(hasher, field.getTextValue());
+            hasher.putLong(field.getDateValue() != null ? field.getDateValue() : -1);
+            hasher.putInt(field.getToggleValue() != null ? (field.getToggleValue() ? 1 : 0) : -1);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Length prefixed, so that the boundaries between strings (and null) are unambiguous.
+     */
+    private static void putString(Hasher hasher, @Nullable String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
     }
 
     @NonNull
@@ -56,6 +183,32 @@ public class AutofillDataset {
         return mPackageName;
     }
 
+    @Nullable
+    public String getWebDomain() {
+        return mWebDomain;
+    }
+
+    @Nullable
+    public String getContentHash() {
+        return mContentHash;
+    }
+
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
+    public long getLastUsed() {
+        return mLastUsed;
+    }
+
+    public int getUseCount() {
+        return mUseCount;
+    }
+
+    public double getUsageScore() {
+        return mUsageScore;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -65,7 +218,16 @@ public class AutofillDataset {
 
         if (!mId.equals(that.mId)) return false;
         if (!mDatasetName.equals(that.mDatasetName)) return false;
-        return mPackageName.equals(that.mPackageName);
+        if (!mPackageName.equals(that.mPackageName)) return false;
+        if (mWebDomain != null ? !mWebDomain.equals(that.mWebDomain) : that.mWebDomain != null)
+            return false;
+        if (mContentHash != null ? !mContentHash.equals(that.mContentHash) :
+                that.mContentHash != null)
+            return false;
+        if (mLastSeen != that.mLastSeen) return false;
+        if (mLastUsed != that.mLastUsed) return false;
+        if (mUseCount != that.mUseCount) return false;
+        return Double.compare(mUsageScore, that.mUsageScore) == 0;
     }
 
     @Override
@@ -73,6 +235,13 @@ public class AutofillDataset {
         int result = mId.hashCode();
         result = 31 * result + mDatasetName.hashCode();
         result = 31 * result + mPackageName.hashCode();
+        result = 31 * result + (mWebDomain != null ? mWebDomain.hashCode() : 0);
+        result = 31 * result + (mContentHash != null ? mContentHash.hashCode() : 0);
+        result = 31 * result + (int) (mLastSeen ^ (mLastSeen >>> 32));
+        result = 31 * result + (int) (mLastUsed ^ (mLastUsed >>> 32));
+        result = 31 * result + mUseCount;
+        long usageScoreBits = Double.doubleToLongBits(mUsageScore);
+        result = 31 * result + (int) (usageScoreBits ^ (usageScoreBits >>> 32));
         return result;
     }
 }
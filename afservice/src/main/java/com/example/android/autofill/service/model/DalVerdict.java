@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.support.annotation.NonNull;
+
+/**
+ * Cached outcome of a Digital Asset Links check between a web domain and an app signed with a
+ * given certificate, valid until {@link #getExpiresAt()}.
+ */
+@Entity(primaryKeys = {"requirement", "webDomain", "packageName", "fingerprint"})
+public class DalVerdict {
+    @NonNull
+    @ColumnInfo(name = "requirement")
+    private final String mRequirement;
+
+    @NonNull
+    @ColumnInfo(name = "webDomain")
+    private final String mWebDomain;
+
+    @NonNull
+    @ColumnInfo(name = "packageName")
+    private final String mPackageName;
+
+    @NonNull
+    @ColumnInfo(name = "fingerprint")
+    private final String mFingerprint;
+
+    @ColumnInfo(name = "linked")
+    private final boolean mLinked;
+
+    @ColumnInfo(name = "expiresAt")
+    private final long mExpiresAt;
+
+    // Transient failures (e.g. no network) are only cached in memory, for a short time.
+    @Ignore
+    private final boolean mFailed;
+
+    public DalVerdict(@NonNull String requirement, @NonNull String webDomain,
+            @NonNull String packageName, @NonNull String fingerprint, boolean linked,
+            long expiresAt) {
+        this(requirement, webDomain, packageName, fingerprint, linked, expiresAt, false);
+    }
+
+    @Ignore
+    private DalVerdict(@NonNull String requirement, @NonNull String webDomain,
+            @NonNull String packageName, @NonNull String fingerprint, boolean linked,
+            long expiresAt, boolean failed) {
+        mRequirement = requirement;
+        mWebDomain = webDomain;
+        mPackageName = packageName;
+        mFingerprint = fingerprint;
+        mLinked = linked;
+        mExpiresAt = expiresAt;
+        mFailed = failed;
+    }
+
+    /**
+     * Creates a verdict for a check that could not be completed, which is never persisted.
+     */
+    public static DalVerdict failure(@NonNull String requirement, @NonNull String webDomain,
+            @NonNull String packageName, @NonNull String fingerprint, long expiresAt) {
+        return new DalVerdict(requirement, webDomain, packageName, fingerprint, false, expiresAt,
+                true);
+    }
+
+    /**
+     * Key identifying the checks this verdict answers.
+     */
+    @NonNull
+    public static String getKey(@NonNull String requirement, @NonNull String webDomain,
+            @NonNull String packageName, @NonNull String fingerprint) {
+        return requirement + '|' + webDomain + '|' + packageName + '|' + fingerprint;
+    }
+
+    @NonNull
+    public String getKey() {
+        return getKey(mRequirement, mWebDomain, mPackageName, mFingerprint);
+    }
+
+    @NonNull
+    public String getRequirement() {
+        return mRequirement;
+    }
+
+    @NonNull
+    public String getWebDomain() {
+        return mWebDomain;
+    }
+
+    @NonNull
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    @NonNull
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public boolean isLinked() {
+        return mLinked;
+    }
+
+    public long getExpiresAt() {
+        return mExpiresAt;
+    }
+
+    public boolean isFailed() {
+        return mFailed;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= mExpiresAt;
+    }
+}
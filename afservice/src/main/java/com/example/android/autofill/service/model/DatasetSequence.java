@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.support.annotation.NonNull;
+
+/**
+ * Named counter stored in the database, so values can be allocated in the same transaction as
+ * the rows that use them.
+ */
+@Entity(primaryKeys = {"name"})
+public class DatasetSequence {
+    /**
+     * Sequence of the {@code X} in dataset names of the form {@code dataset-X.P}.
+     */
+    public static final String DATASET_NUMBER = "datasetNumber";
+
+    @NonNull
+    @ColumnInfo(name = "name")
+    private final String mName;
+
+    @ColumnInfo(name = "nextValue")
+    private final int mNextValue;
+
+    public DatasetSequence(@NonNull String name, int nextValue) {
+        mName = name;
+        mNextValue = nextValue;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    public int getNextValue() {
+        return mNextValue;
+    }
+}
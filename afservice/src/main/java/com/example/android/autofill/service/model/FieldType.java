@@ -21,7 +21,7 @@ import android.arch.persistence.room.Embedded;
 import android.arch.persistence.room.Entity;
 import android.support.annotation.NonNull;
 
-import static com.example.android.autofill.service.data.source.local.db.Converters.IntList;
+import java.util.Collection;
 
 @Entity(primaryKeys = {"typeName"})
 public class FieldType {
@@ -29,9 +29,9 @@ public class FieldType {
     @ColumnInfo(name = "typeName")
     private final String mTypeName;
 
-    @NonNull
+    // Bitmask with the bit 1 << type set for each supported View.AUTOFILL_TYPE_* value.
     @ColumnInfo(name = "autofillTypes")
-    private final IntList mAutofillTypes;
+    private final int mAutofillTypes;
 
     @NonNull
     @ColumnInfo(name = "saveInfo")
@@ -45,7 +45,7 @@ public class FieldType {
     @Embedded
     private final FakeData mFakeData;
 
-    public FieldType(@NonNull String typeName, @NonNull IntList autofillTypes,
+    public FieldType(@NonNull String typeName, int autofillTypes,
             @NonNull Integer saveInfo, @NonNull Integer partition, @NonNull FakeData fakeData) {
         mTypeName = typeName;
         mAutofillTypes = autofillTypes;
@@ -59,11 +59,32 @@ public class FieldType {
         return mTypeName;
     }
 
-    @NonNull
-    public IntList getAutofillTypes() {
+    /**
+     * Gets the supported autofill types, as a bitmask built by {@link #toAutofillTypes}.
+     */
+    public int getAutofillTypes() {
         return mAutofillTypes;
     }
 
+    /**
+     * Returns whether this type supports the given {@code View.AUTOFILL_TYPE_*} value.
+     */
+    public boolean supportsAutofillType(int autofillType) {
+        return ((mAutofillTypes >>> autofillType) & 1) != 0;
+    }
+
+    /**
+     * Converts a collection of {@code View.AUTOFILL_TYPE_*} values to the bitmask stored in the
+     * {@code autofillTypes} column.
+     */
+    public static int toAutofillTypes(Collection<Integer> autofillTypes) {
+        int bitmask = 0;
+        for (int autofillType : autofillTypes) {
+            bitmask |= 1 << autofillType;
+        }
+        return bitmask;
+    }
+
     @NonNull
     public Integer getSaveInfo() {
         return mSaveInfo;
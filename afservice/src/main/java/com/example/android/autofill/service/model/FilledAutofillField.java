@@ -19,6 +19,7 @@ import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.ForeignKey;
 import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
 import android.support.annotation.NonNull;
 
 import javax.annotation.Nullable;
@@ -28,6 +29,9 @@ import javax.annotation.Nullable;
                 childColumns = "datasetId", onDelete = ForeignKey.CASCADE),
         @ForeignKey(entity = FieldType.class, parentColumns = "typeName",
                 childColumns = "fieldTypeName", onDelete = ForeignKey.CASCADE)
+}, indices = {
+        // Covers the fieldTypeName IN (...) lookups joined on datasetId.
+        @Index(value = {"fieldTypeName", "datasetId"})
 })
 public class FilledAutofillField {
 
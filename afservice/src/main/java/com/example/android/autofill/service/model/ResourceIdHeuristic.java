@@ -25,7 +25,15 @@ import android.support.annotation.NonNull;
         entity = FieldType.class, parentColumns = "typeName", childColumns = "fieldTypeName",
         onDelete = ForeignKey.CASCADE))
 public class ResourceIdHeuristic {
+    /**
+     * Package name of the heuristics that apply to all apps.
+     */
+    public static final String ALL_PACKAGES = "*";
 
+    /**
+     * Pattern found in the texts identifying a view, for the heuristics of all apps, or resource
+     * id entry of a view, for the heuristics of an app.
+     */
     @NonNull
     @ColumnInfo(name = "resourceIdHeuristic")
     public String mResourceIdHeuristic;
@@ -20,9 +20,13 @@ import android.content.SharedPreferences;
 import android.service.autofill.Dataset;
 import android.service.autofill.FillResponse;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.example.android.autofill.service.data.source.local.RetentionPolicy;
 import com.example.android.autofill.service.util.Util;
 
+import java.util.concurrent.TimeUnit;
+
 public class MyPreferences {
     private static final String RESPONSE_AUTH_KEY = "response_auth";
     private static final String DATASET_AUTH_KEY = "dataset_auth";
@@ -30,6 +34,19 @@ public class MyPreferences {
     private static final String LOGGING_LEVEL = "logging_level";
     private static final String DAL_CHECK_REQUIRED = "dal_check_required";
     private static final String NUMBER_DATASETS = "number_datasets";
+    private static final String DAL_CHECK_DEADLINE = "dal_check_deadline";
+    private static final long DEFAULT_DAL_CHECK_DEADLINE_MS = 4000;
+    private static final String DATASET_SCOPE = "dataset_scope";
+    private static final String MAX_FILL_DATASETS = "max_fill_datasets";
+    private static final int DEFAULT_MAX_FILL_DATASETS = 10;
+    private static final String MAX_DATASETS_PER_PACKAGE = "max_datasets_per_package";
+    private static final String MAX_DATASETS = "max_datasets";
+    private static final String DATASET_MAX_AGE_DAYS = "dataset_max_age_days";
+    private static final int DEFAULT_MAX_DATASETS_PER_PACKAGE = 50;
+    private static final int DEFAULT_MAX_DATASETS = 2000;
+    private static final int DEFAULT_DATASET_MAX_AGE_DAYS = 365;
+    private static final String LAST_FILL_EVENT_RESPONSE_ID = "last_fill_event_response_id";
+    private static final String LAST_FILL_EVENT_COUNT = "last_fill_event_count";
     private static MyPreferences sInstance;
     private final SharedPreferences mPrefs;
 
@@ -109,6 +126,81 @@ public class MyPreferences {
         mPrefs.edit().putInt(DAL_CHECK_REQUIRED, level.ordinal()).apply();
     }
 
+    /**
+     * Gets how long, in milliseconds, a Digital Asset Links check may take before it fails.
+     */
+    public long getDalCheckDeadlineMillis() {
+        return mPrefs.getLong(DAL_CHECK_DEADLINE, DEFAULT_DAL_CHECK_DEADLINE_MS);
+    }
+
+    public void setDalCheckDeadlineMillis(long deadlineMillis) {
+        mPrefs.edit().putLong(DAL_CHECK_DEADLINE, deadlineMillis).apply();
+    }
+
+    /**
+     * Gets which saved datasets are offered to fill requests.
+     */
+    public Util.DatasetScope getDatasetScope() {
+        return Util.DatasetScope.values()[mPrefs.getInt(DATASET_SCOPE,
+                Util.DatasetScope.All.ordinal())];
+    }
+
+    public void setDatasetScope(Util.DatasetScope scope) {
+        mPrefs.edit().putInt(DATASET_SCOPE, scope.ordinal()).apply();
+    }
+
+    /**
+     * Gets how many datasets, the most used ones, are offered in a {@link FillResponse}.
+     */
+    public int getMaxFillDatasets() {
+        return mPrefs.getInt(MAX_FILL_DATASETS, DEFAULT_MAX_FILL_DATASETS);
+    }
+
+    public void setMaxFillDatasets(int maxFillDatasets) {
+        mPrefs.edit().putInt(MAX_FILL_DATASETS, maxFillDatasets).apply();
+    }
+
+    /**
+     * Gets the limits the stored datasets are compacted to.
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return new RetentionPolicy(
+                mPrefs.getInt(MAX_DATASETS_PER_PACKAGE, DEFAULT_MAX_DATASETS_PER_PACKAGE),
+                mPrefs.getInt(MAX_DATASETS, DEFAULT_MAX_DATASETS),
+                TimeUnit.DAYS.toMillis(
+                        mPrefs.getInt(DATASET_MAX_AGE_DAYS, DEFAULT_DATASET_MAX_AGE_DAYS)));
+    }
+
+    public void setRetentionPolicy(int maxDatasetsPerPackage, int maxDatasets, int maxAgeDays) {
+        mPrefs.edit()
+                .putInt(MAX_DATASETS_PER_PACKAGE, maxDatasetsPerPackage)
+                .putInt(MAX_DATASETS, maxDatasets)
+                .putInt(DATASET_MAX_AGE_DAYS, maxAgeDays)
+                .apply();
+    }
+
+    /**
+     * Gets the id of the response whose fill events were last read, if any.
+     */
+    @Nullable
+    public String getLastFillEventResponseId() {
+        return mPrefs.getString(LAST_FILL_EVENT_RESPONSE_ID, null);
+    }
+
+    /**
+     * Gets how many fill events of {@link #getLastFillEventResponseId()} were read.
+     */
+    public int getLastFillEventCount() {
+        return mPrefs.getInt(LAST_FILL_EVENT_COUNT, 0);
+    }
+
+    public void setLastFillEvents(@Nullable String responseId, int eventCount) {
+        mPrefs.edit()
+                .putString(LAST_FILL_EVENT_RESPONSE_ID, responseId)
+                .putInt(LAST_FILL_EVENT_COUNT, eventCount)
+                .apply();
+    }
+
     public int getNumberDatasets(int defaultNumber) {
         return mPrefs.getInt(NUMBER_DATASETS, defaultNumber);
     }
@@ -43,17 +43,18 @@ import com.example.android.autofill.service.data.DataCallback;
 import com.example.android.autofill.service.data.FakeAutofillDataBuilder;
 import com.example.android.autofill.service.data.source.DefaultFieldTypesSource;
 import com.example.android.autofill.service.data.source.PackageVerificationDataSource;
-import com.example.android.autofill.service.data.source.local.DefaultFieldTypesLocalJsonSource;
+import com.example.android.autofill.service.data.source.local.DefaultFieldTypeCatalog;
 import com.example.android.autofill.service.data.source.local.LocalAutofillDataSource;
 import com.example.android.autofill.service.data.source.local.SharedPrefsPackageVerificationRepository;
 import com.example.android.autofill.service.data.source.local.dao.AutofillDao;
 import com.example.android.autofill.service.data.source.local.db.AutofillDatabase;
-import com.example.android.autofill.service.model.DatasetWithFilledAutofillFields;
 import com.example.android.autofill.service.model.FieldTypeWithHeuristics;
 import com.example.android.autofill.service.util.AppExecutors;
+import com.example.android.autofill.service.util.FillMetrics;
 import com.example.android.autofill.service.util.Util;
-import com.google.gson.GsonBuilder;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.List;
 
 import static com.example.android.autofill.service.util.Util.DalCheckRequirement.AllUrls;
@@ -77,14 +78,12 @@ public class SettingsActivity extends AppCompatActivity {
         setContentView(R.layout.multidataset_service_settings_activity);
         SharedPreferences localAfDataSourceSharedPrefs =
                 getSharedPreferences(LocalAutofillDataSource.SHARED_PREF_KEY, Context.MODE_PRIVATE);
-        DefaultFieldTypesSource defaultFieldTypesSource =
-                DefaultFieldTypesLocalJsonSource.getInstance(getResources(),
-                        new GsonBuilder().create());
+        DefaultFieldTypesSource defaultFieldTypesSource = DefaultFieldTypeCatalog.getInstance();
         AutofillDao autofillDao = AutofillDatabase.getInstance(
-                this, defaultFieldTypesSource, new AppExecutors()).autofillDao();
+                this, defaultFieldTypesSource).autofillDao();
         mPackageName = getPackageName();
         mLocalAutofillDataSource = LocalAutofillDataSource.getInstance(localAfDataSourceSharedPrefs,
-                autofillDao, new AppExecutors());
+                autofillDao, AppExecutors.getInstance());
         mAutofillManager = getSystemService(AutofillManager.class);
         mPackageVerificationDataSource =
                 SharedPrefsPackageVerificationRepository.getInstance(this);
@@ -107,6 +106,10 @@ public class SettingsActivity extends AppCompatActivity {
                 R.id.settings_clear_data_label,
                 R.id.settings_clear_data_icon,
                 (view) -> buildClearDataDialog().show());
+        setupSettingsButton(R.id.settings_fill_metrics_container,
+                R.id.settings_fill_metrics_label,
+                R.id.settings_fill_metrics_icon,
+                (view) -> buildFillMetricsDialog().show());
         setupSettingsButton(R.id.settings_auth_credentials_container,
                 R.id.settings_auth_credentials_label,
                 R.id.settings_auth_credentials_icon,
@@ -177,6 +180,20 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
 
+    private AlertDialog buildFillMetricsDialog() {
+        StringWriter metrics = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(metrics);
+        FillMetrics.getInstance().dump(printWriter);
+        printWriter.flush();
+        return new AlertDialog.Builder(SettingsActivity.this)
+                .setMessage(metrics.toString())
+                .setTitle(R.string.settings_fill_metrics_title)
+                .setNeutralButton(R.string.settings_fill_metrics_reset,
+                        (dialog, which) -> FillMetrics.getInstance().reset())
+                .setPositiveButton(R.string.settings_ok, null)
+                .create();
+    }
+
     private AlertDialog buildClearDataDialog() {
         return new AlertDialog.Builder(SettingsActivity.this)
                 .setMessage(R.string.settings_clear_data_confirmation)
@@ -236,14 +253,11 @@ public class SettingsActivity extends AppCompatActivity {
         if (numOfDatasets < 0 || numOfDatasets > 10) {
             logw("Number of Datasets (%d) out of range.", numOfDatasets);
         }
+        AutofillDataBuilder autofillDataBuilder =
+                new FakeAutofillDataBuilder(fieldTypes, mPackageName);
         for (int i = 0; i < numOfDatasets; i++) {
-            int datasetNumber = mLocalAutofillDataSource.getDatasetNumber();
-            AutofillDataBuilder autofillDataBuilder =
-                    new FakeAutofillDataBuilder(fieldTypes, mPackageName, datasetNumber);
-            List<DatasetWithFilledAutofillFields> datasetsWithFilledAutofillFields =
-                    autofillDataBuilder.buildDatasetsByPartition(datasetNumber);
             // Save datasets to database.
-            mLocalAutofillDataSource.saveAutofillDatasets(datasetsWithFilledAutofillFields);
+            mLocalAutofillDataSource.saveAutofillDatasets(autofillDataBuilder);
         }
         return true;
     }
@@ -63,6 +63,8 @@ public class DebugService extends AutofillService {
 
     private static final String TAG = "DebugService";
 
+    private final KeywordHintMatcher mKeywordHintMatcher = KeywordHintMatcher.getDefault();
+
     private boolean mAuthenticateResponses;
     private boolean mAuthenticateDatasets;
     private int mNumberDatasets;
@@ -204,8 +206,8 @@ public class DebugService extends AutofillService {
 
         CharSequence text = node.getText();
         CharSequence className = node.getClassName();
-        if (text != null && className != null && className.toString().contains("EditText")) {
-            hint = inferHint(node, text.toString());
+        if (text != null && className != null && TextUtils.indexOf(className, "EditText") >= 0) {
+            hint = inferHint(node, text);
             if (hint != null) {
                 // NODE: text should not be logged, as it could contain PII
                 Log.d(TAG, "Found hint using text(" + text + "): " + hint);
@@ -224,30 +226,25 @@ public class DebugService extends AutofillService {
      * @return standard autofill hint, or {@code null} when it could not be inferred.
      */
     @Nullable
-    protected String inferHint(ViewNode node, @Nullable String actualHint) {
+    protected String inferHint(ViewNode node, @Nullable CharSequence actualHint) {
         if (actualHint == null) return null;
 
-        String hint = actualHint.toLowerCase();
-        if (hint.contains("label") || hint.contains("container")) {
-            Log.v(TAG, "Ignoring 'label/container' hint: " + hint);
-            return null;
+        int rule = mKeywordHintMatcher.findRule(actualHint);
+        if (rule != KeywordHintMatcher.NO_RULE) {
+            String hint = mKeywordHintMatcher.getHint(rule);
+            if (hint == null) {
+                Log.v(TAG, "Ignoring 'label/container' hint: " + actualHint);
+            }
+            return hint;
         }
 
-        if (hint.contains("password")) return View.AUTOFILL_HINT_PASSWORD;
-        if (hint.contains("username")
-                || (hint.contains("login") && hint.contains("id")))
-            return View.AUTOFILL_HINT_USERNAME;
-        if (hint.contains("email")) return View.AUTOFILL_HINT_EMAIL_ADDRESS;
-        if (hint.contains("name")) return View.AUTOFILL_HINT_NAME;
-        if (hint.contains("phone")) return View.AUTOFILL_HINT_PHONE;
-
         // When everything else fails, return the full string - this is helpful to help app
         // developers visualize when autofill is triggered when it shouldn't (for example, in a
         // chat conversation window), so they can mark the root view of such activities with
         // android:importantForAutofill=noExcludeDescendants
         if (node.isEnabled() && node.getAutofillType() != View.AUTOFILL_TYPE_NONE) {
             Log.v(TAG, "Falling back to " + actualHint);
-            return actualHint;
+            return actualHint.toString();
         }
         return null;
     }
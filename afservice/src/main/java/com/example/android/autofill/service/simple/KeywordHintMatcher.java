@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.autofill.service.simple;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+
+import com.example.android.autofill.service.util.MultiPatternMatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Infers an autofill hint from a text identifying a view (its hint, resource id, text...) with a
+ * table of keywords, ignoring case.
+ * <p>
+ * The table is a list of rules checked in order: a rule applies when all its keywords occur in
+ * the text, and the first rule that applies classifies it. A rule without a hint marks texts that
+ * must be ignored, such as labels. All the keywords are compiled in a single
+ * {@link MultiPatternMatcher}, so a text is classified in one pass over its characters and
+ * without allocating, whatever the size of the table.
+ */
+public final class KeywordHintMatcher {
+    public static final int NO_RULE = -1;
+
+    private static KeywordHintMatcher sDefault;
+
+    private final MultiPatternMatcher mMatcher;
+    // Keywords and hint of each rule, by rule index. Keywords are bits of the match mask.
+    private final long[] mRuleMasks;
+    private final String[] mRuleHints;
+
+    private KeywordHintMatcher(Builder builder) {
+        mMatcher = builder.mMatcherBuilder.build();
+        mRuleMasks = new long[builder.mRuleMasks.size()];
+        for (int i = 0; i < mRuleMasks.length; i++) {
+            mRuleMasks[i] = builder.mRuleMasks.get(i);
+        }
+        mRuleHints = builder.mRuleHints.toArray(new String[builder.mRuleHints.size()]);
+    }
+
+    /**
+     * Returns the matcher with the default table: the English keywords {@link DebugService}
+     * always used, plus a few localized ones.
+     */
+    public static synchronized KeywordHintMatcher getDefault() {
+        if (sDefault == null) {
+            sDefault = new Builder()
+                    .addRule(null, "label")
+                    .addRule(null, "container")
+                    .addRule(View.AUTOFILL_HINT_PASSWORD, "password")
+                    .addRule(View.AUTOFILL_HINT_PASSWORD, "passwort")
+                    .addRule(View.AUTOFILL_HINT_PASSWORD, "contrase\u00f1a")
+                    .addRule(View.AUTOFILL_HINT_PASSWORD, "mot de passe")
+                    .addRule(View.AUTOFILL_HINT_PASSWORD, "senha")
+                    .addRule(View.AUTOFILL_HINT_USERNAME, "username")
+                    .addRule(View.AUTOFILL_HINT_USERNAME, "login", "id")
+                    .addRule(View.AUTOFILL_HINT_USERNAME, "benutzername")
+                    .addRule(View.AUTOFILL_HINT_USERNAME, "usuario")
+                    .addRule(View.AUTOFILL_HINT_USERNAME, "identifiant")
+                    .addRule(View.AUTOFILL_HINT_EMAIL_ADDRESS, "email")
+                    .addRule(View.AUTOFILL_HINT_EMAIL_ADDRESS, "e-mail")
+                    .addRule(View.AUTOFILL_HINT_EMAIL_ADDRESS, "correo")
+                    .addRule(View.AUTOFILL_HINT_EMAIL_ADDRESS, "courriel")
+                    .addRule(View.AUTOFILL_HINT_NAME, "name")
+                    .addRule(View.AUTOFILL_HINT_NAME, "nombre")
+                    .addRule(View.AUTOFILL_HINT_NAME, "nome")
+                    .addRule(View.AUTOFILL_HINT_PHONE, "phone")
+                    .addRule(View.AUTOFILL_HINT_PHONE, "telefon")
+                    .addRule(View.AUTOFILL_HINT_PHONE, "tel\u00e9fono")
+                    .build();
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns the index of the first rule that applies to {@code text}, or {@link #NO_RULE}.
+     */
+    public int findRule(@NonNull CharSequence text) {
+        long matchMask = mMatcher.findMatchMask(text);
+        if (matchMask == 0) {
+            return NO_RULE;
+        }
+        for (int i = 0; i < mRuleMasks.length; i++) {
+            if ((matchMask & mRuleMasks[i]) == mRuleMasks[i]) {
+                return i;
+            }
+        }
+        return NO_RULE;
+    }
+
+    /**
+     * Returns the autofill hint of a rule, or {@code null} if texts it applies to are ignored.
+     */
+    @Nullable
+    public String getHint(int rule) {
+        return mRuleHints[rule];
+    }
+
+    public static final class Builder {
+        private final MultiPatternMatcher.Builder mMatcherBuilder =
+                new MultiPatternMatcher.Builder();
+        private final Map<String, Integer> mKeywordIds = new HashMap<>();
+        private final List<Long> mRuleMasks = new ArrayList<>();
+        private final List<String> mRuleHints = new ArrayList<>();
+
+        /**
+         * Adds a rule giving {@code hint}, or ignoring the text if {@code null}, to texts in which
+         * all the {@code keywords} occur.
+         *
+         * @throws IllegalArgumentException if there are no keywords, or one is empty.
+         * @throws IllegalStateException if the table has more than
+         *                               {@link MultiPatternMatcher#MAX_MASK_PATTERNS} keywords.
+         */
+        public Builder addRule(@Nullable String hint, @NonNull String... keywords) {
+            if (keywords.length == 0) {
+                throw new IllegalArgumentException("No keywords for " + hint);
+            }
+            long mask = 0;
+            for (String keyword : keywords) {
+                String lowerCaseKeyword = keyword.toLowerCase(Locale.US);
+                Integer id = mKeywordIds.get(lowerCaseKeyword);
+                if (id == null) {
+                    if (mKeywordIds.size() == MultiPatternMatcher.MAX_MASK_PATTERNS) {
+                        throw new IllegalStateException("Too many keywords: " + keyword);
+                    }
+                    id = mMatcherBuilder.add(lowerCaseKeyword);
+                    mKeywordIds.put(lowerCaseKeyword, id);
+                }
+                mask |= 1L << id;
+            }
+            mRuleMasks.add(mask);
+            mRuleHints.add(hint);
+            return this;
+        }
+
+        public KeywordHintMatcher build() {
+            return new KeywordHintMatcher(this);
+        }
+    }
+}
@@ -22,37 +22,96 @@ import android.support.annotation.VisibleForTesting;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Global executor pools for the whole application.
  * <p>
  * Grouping tasks like this avoids the effects of task starvation (e.g. disk reads don't wait behind
- * webservice requests).
+ * webservice requests). The pools are shared by the whole process, see {@link #getInstance()}.
  */
 public class AppExecutors {
+    private static AppExecutors sInstance;
 
     private static final int THREAD_COUNT = 3;
 
-    private final Executor diskIO;
+    // The database runs in WAL mode, where readers don't wait for the writer, and the framework
+    // keeps a small pool of read connections. Stay within it together with the fill workers.
+    private static final int DISK_READ_THREAD_COUNT = 2;
+
+    // Fill requests block on queries and network checks: more than one thread keeps a slow
+    // request from holding up the requests of other apps, but only a few, as each holds a read
+    // connection.
+    private static final int FILL_WORKER_THREAD_COUNT = 2;
+
+    private final Executor diskRead;
+
+    private final Executor diskWrite;
 
     private final Executor networkIO;
 
     private final Executor mainThread;
 
+    private final Executor fillWorker;
+
     @VisibleForTesting
-    AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread) {
-        this.diskIO = diskIO;
+    AppExecutors(Executor diskRead, Executor diskWrite, Executor networkIO, Executor mainThread,
+            Executor fillWorker) {
+        this.diskRead = diskRead;
+        this.diskWrite = diskWrite;
         this.networkIO = networkIO;
         this.mainThread = mainThread;
+        this.fillWorker = fillWorker;
     }
 
-    public AppExecutors() {
-        this(new DiskIOThreadExecutor(), Executors.newFixedThreadPool(THREAD_COUNT),
-                new MainThreadExecutor());
+    private AppExecutors() {
+        this(Executors.newFixedThreadPool(DISK_READ_THREAD_COUNT, newThreadFactory("DiskRead")),
+                Executors.newSingleThreadExecutor(newThreadFactory("DiskWrite")),
+                Executors.newFixedThreadPool(THREAD_COUNT, newThreadFactory("NetworkIO")),
+                new MainThreadExecutor(),
+                Executors.newFixedThreadPool(FILL_WORKER_THREAD_COUNT,
+                        newThreadFactory("FillWorker")));
+    }
+
+    /**
+     * Returns the executors of the process. Components must share them rather than creating their
+     * own, so that e.g. there is a single disk write thread applying writes in order.
+     */
+    public static synchronized AppExecutors getInstance() {
+        if (sInstance == null) {
+            sInstance = new AppExecutors();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates daemon threads named after their pool, so they show up in traces and never keep
+     * the process alive.
+     */
+    private static ThreadFactory newThreadFactory(String poolName) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                    poolName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Pool running database queries, which run concurrently with each other and with writes.
+     */
+    public Executor diskRead() {
+        return diskRead;
     }
 
-    public Executor diskIO() {
-        return diskIO;
+    /**
+     * Single thread running database writes, so they are applied in the order they were issued
+     * and never queue reads behind them.
+     */
+    public Executor diskWrite() {
+        return diskWrite;
     }
 
     public Executor networkIO() {
@@ -63,29 +122,21 @@ public class AppExecutors {
         return mainThread;
     }
 
-    private static class MainThreadExecutor implements Executor {
-        private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
-
-        @Override
-        public void execute(@NonNull Runnable command) {
-            mainThreadHandler.post(command);
-        }
-    }
-
     /**
-     * Executor that runs a task on a new background thread.
+     * Dedicated pool running whole fill requests, from parsing to completing the
+     * {@link android.service.autofill.FillCallback}, without going through the main thread.
+     * Requests may run concurrently, including requests of the same app.
      */
-    private static class DiskIOThreadExecutor implements Executor {
-
-        private final Executor mDiskIO;
+    public Executor fillWorker() {
+        return fillWorker;
+    }
 
-        public DiskIOThreadExecutor() {
-            mDiskIO = Executors.newSingleThreadExecutor();
-        }
+    private static class MainThreadExecutor implements Executor {
+        private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
 
         @Override
         public void execute(@NonNull Runnable command) {
-            mDiskIO.execute(command);
+            mainThreadHandler.post(command);
         }
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.util;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide latency histograms and counters for each stage of the autofill pipeline, kept per
+ * calling package.
+ * <p>
+ * Recording only touches atomics: the per-package histograms are created the first time a package
+ * is seen, and the most recent samples are kept in a fixed-size ring buffer. Everything can be
+ * printed with {@link #dump(PrintWriter)}, e.g. by {@code adb shell dumpsys activity service}.
+ */
+public final class FillMetrics {
+    private static final int MAX_PACKAGES = 32;
+    private static final String OTHER_PACKAGES = "<other>";
+    // Must be a power of two.
+    private static final int RECENT_SAMPLE_COUNT = 64;
+    private static final int STAGE_SHIFT = 56;
+    private static final long DURATION_MASK = (1L << STAGE_SHIFT) - 1;
+
+    private static FillMetrics sInstance;
+
+    private final ConcurrentHashMap<String, PackageMetrics> mPackageMetrics =
+            new ConcurrentHashMap<>();
+    private final AtomicLong mNextRecentSample = new AtomicLong();
+    private final AtomicLongArray mRecentSamples = new AtomicLongArray(RECENT_SAMPLE_COUNT);
+    private final AtomicReferenceArray<String> mRecentPackages =
+            new AtomicReferenceArray<>(RECENT_SAMPLE_COUNT);
+
+    private FillMetrics() {
+    }
+
+    public static synchronized FillMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new FillMetrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Monotonic timestamp used as the start of a measured stage.
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, which was obtained from {@link #now()}.
+     */
+    public void recordStage(String packageName, Stage stage, long startNanos) {
+        long durationNanos = now() - startNanos;
+        getPackageMetrics(packageName).mHistograms[stage.ordinal()].recordNanos(durationNanos);
+        int slot = (int) (mNextRecentSample.getAndIncrement() & (RECENT_SAMPLE_COUNT - 1));
+        mRecentPackages.set(slot, packageName);
+        mRecentSamples.set(slot, ((long) stage.ordinal() << STAGE_SHIFT)
+                | (TimeUnit.NANOSECONDS.toMicros(durationNanos) & DURATION_MASK));
+    }
+
+    public void increment(String packageName, Counter counter) {
+        getPackageMetrics(packageName).mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public void reset() {
+        mPackageMetrics.clear();
+        mNextRecentSample.set(0);
+        for (int i = 0; i < RECENT_SAMPLE_COUNT; i++) {
+            mRecentPackages.set(i, null);
+            mRecentSamples.set(i, 0);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Fill metrics (latencies in ms):");
+        List<String> packageNames = new ArrayList<>(mPackageMetrics.keySet());
+        Collections.sort(packageNames);
+        if (packageNames.isEmpty()) {
+            pw.println("  No requests recorded.");
+        }
+        for (String packageName : packageNames) {
+            PackageMetrics metrics = mPackageMetrics.get(packageName);
+            pw.print("  ");
+            pw.print(packageName);
+            pw.println(':');
+            pw.print("    ");
+            for (Counter counter : Counter.values()) {
+                pw.print(counter.mLabel);
+                pw.print('=');
+                pw.print(metrics.mCounters.get(counter.ordinal()));
+                pw.print(' ');
+            }
+            pw.println();
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = metrics.mHistograms[stage.ordinal()];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                pw.println(String.format(Locale.US,
+                        "    %-16s n=%-5d p50=%-8s p95=%-8s p99=%-8s max=%s", stage.mLabel,
+                        histogram.getCount(), millis(histogram.getPercentileMicros(50)),
+                        millis(histogram.getPercentileMicros(95)),
+                        millis(histogram.getPercentileMicros(99)),
+                        millis(histogram.getMaxMicros())));
+            }
+        }
+        long next = mNextRecentSample.get();
+        long count = Math.min(next, RECENT_SAMPLE_COUNT);
+        pw.print("Recent samples (newest first, ");
+        pw.print(count);
+        pw.println("):");
+        Stage[] stages = Stage.values();
+        for (long i = next - 1; i >= next - count; i--) {
+            int slot = (int) (i & (RECENT_SAMPLE_COUNT - 1));
+            long sample = mRecentSamples.get(slot);
+            pw.println(String.format(Locale.US, "  %-16s %s %s",
+                    stages[(int) (sample >>> STAGE_SHIFT)].mLabel,
+                    millis(sample & DURATION_MASK), mRecentPackages.get(slot)));
+        }
+    }
+
+    private PackageMetrics getPackageMetrics(String packageName) {
+        PackageMetrics metrics = mPackageMetrics.get(packageName);
+        if (metrics == null && mPackageMetrics.size() >= MAX_PACKAGES) {
+            // Bound the memory used by the histograms, the long tail is aggregated.
+            packageName = OTHER_PACKAGES;
+            metrics = mPackageMetrics.get(packageName);
+        }
+        if (metrics == null) {
+            metrics = new PackageMetrics();
+            PackageMetrics previous = mPackageMetrics.putIfAbsent(packageName, metrics);
+            if (previous != null) {
+                metrics = previous;
+            }
+        }
+        return metrics;
+    }
+
+    @NonNull
+    private static String millis(long micros) {
+        return String.format(Locale.US, "%.2f", micros / 1000.0);
+    }
+
+    /**
+     * Measured stages of the fill and save pipelines.
+     */
+    public enum Stage {
+        PARSE("parse"),
+        HINT_MAP("hint map"),
+        HEURISTICS("heuristics"),
+        // Hint inference, metadata and field types of a fill request, from the cache or not.
+        RESOLVE("resolve"),
+        SIGNATURE("signature"),
+        DATASET_QUERY("dataset query"),
+        DAL_CHECK("dal check"),
+        DATASET_BIND("dataset bind"),
+        RESPONSE_BUILD("response build"),
+        FILL_TOTAL("fill total"),
+        WARM_UP("warm up"),
+        // Latency of the first fill request after a bind, depending on whether the warm-up had
+        // completed when it arrived.
+        FIRST_FILL_COLD("first fill cold"),
+        FIRST_FILL_WARM("first fill warm");
+
+        private final String mLabel;
+
+        Stage(String label) {
+            mLabel = label;
+        }
+    }
+
+    public enum Counter {
+        FILL_REQUESTS("fills"),
+        SAVE_REQUESTS("saves"),
+        CANCELLED_FILL_REQUESTS("cancelled"),
+        // Fill requests answered with the manual flow, heuristics learned when the user picked a
+        // field there, and fill requests in which heuristics classified views: the latter would
+        // have needed the manual flow otherwise.
+        MANUAL_RESPONSES("manual"),
+        LEARNED_HEURISTICS("learned"),
+        INFERRED_FILLS("inferred"),
+        // Fill requests for a screen whose resolved metadata was cached.
+        CACHED_RESOLUTIONS("cached");
+
+        private final String mLabel;
+
+        Counter(String label) {
+            mLabel = label;
+        }
+    }
+
+    private static final class PackageMetrics {
+        private final LatencyHistogram[] mHistograms =
+                new LatencyHistogram[Stage.values().length];
+        private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+
+        private PackageMetrics() {
+            for (int i = 0; i < mHistograms.length; i++) {
+                mHistograms[i] = new LatencyHistogram();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton finding which of a set of patterns occur in a text, ignoring case.
+ * <p>
+ * All the patterns are compiled in a single automaton, so a text is matched against all of them
+ * in one pass over its characters, whatever the number of patterns. The automaton is immutable,
+ * stored in flat arrays, and matching never allocates.
+ */
+public final class MultiPatternMatcher {
+    public static final int NO_MATCH = -1;
+    /**
+     * Maximum number of patterns for {@link #findMatchMask}.
+     */
+    public static final int MAX_MASK_PATTERNS = Long.SIZE;
+
+    // Transitions of state s are the keys and targets between mFirstTransition[s] (inclusive)
+    // and mFirstTransition[s + 1] (exclusive), sorted by key. State 0 is the root.
+    private final int[] mFirstTransition;
+    private final char[] mTransitionKeys;
+    private final int[] mTransitionTargets;
+    // State to fall back to when a character has no transition: the longest proper suffix of the
+    // state that is also a prefix of a pattern.
+    private final int[] mFailure;
+    // Longest pattern that ends at each state, or NO_MATCH.
+    private final int[] mLongestMatch;
+    // Patterns that end at each state, as a bit mask. Only built for small automatons.
+    private final long[] mMatchMasks;
+    private final int[] mPatternLengths;
+
+    private MultiPatternMatcher(Builder builder) {
+        List<Map<Character, Integer>> trie = builder.mTrie;
+        int stateCount = trie.size();
+        mFailure = new int[stateCount];
+        mLongestMatch = new int[stateCount];
+        mPatternLengths = new int[builder.mPatternLengths.size()];
+        for (int i = 0; i < mPatternLengths.length; i++) {
+            mPatternLengths[i] = builder.mPatternLengths.get(i);
+        }
+        mFirstTransition = new int[stateCount + 1];
+        int transitionCount = 0;
+        for (int state = 0; state < stateCount; state++) {
+            mFirstTransition[state] = transitionCount;
+            transitionCount += trie.get(state).size();
+        }
+        mFirstTransition[stateCount] = transitionCount;
+        mTransitionKeys = new char[transitionCount];
+        mTransitionTargets = new int[transitionCount];
+        for (int state = 0; state < stateCount; state++) {
+            int transition = mFirstTransition[state];
+            // Tree maps iterate in key order.
+            for (Map.Entry<Character, Integer> entry : trie.get(state).entrySet()) {
+                mTransitionKeys[transition] = entry.getKey();
+                mTransitionTargets[transition] = entry.getValue();
+                transition++;
+            }
+        }
+        mMatchMasks = mPatternLengths.length <= MAX_MASK_PATTERNS ? new long[stateCount] : null;
+        // States are visited by increasing depth, so failure states are computed first.
+        mLongestMatch[0] = builder.mPatternsByState.get(0);
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int t = mFirstTransition[state]; t < mFirstTransition[state + 1]; t++) {
+                int target = mTransitionTargets[t];
+                mFailure[target] = state == 0 ? 0 : next(mFailure[state], mTransitionKeys[t]);
+                int ownPattern = builder.mPatternsByState.get(target);
+                // A pattern ending at the state itself is longer than the ones ending at its
+                // failure state, which is shallower.
+                mLongestMatch[target] = ownPattern != NO_MATCH
+                        ? ownPattern : mLongestMatch[mFailure[target]];
+                if (mMatchMasks != null) {
+                    mMatchMasks[target] = (ownPattern != NO_MATCH ? 1L << ownPattern : 0)
+                            | mMatchMasks[mFailure[target]];
+                }
+                queue.add(target);
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the longest pattern occurring in {@code text}, the first one added if
+     * there are several, or {@link #NO_MATCH}.
+     */
+    public int findLongestMatch(@NonNull CharSequence text) {
+        int bestPattern = NO_MATCH;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            int pattern = mLongestMatch[state];
+            if (pattern != NO_MATCH && (bestPattern == NO_MATCH
+                    || mPatternLengths[pattern] > mPatternLengths[bestPattern]
+                    || (mPatternLengths[pattern] == mPatternLengths[bestPattern]
+                    && pattern < bestPattern))) {
+                bestPattern = pattern;
+            }
+        }
+        return bestPattern;
+    }
+
+    /**
+     * Returns a mask in which bit {@code id} is set for each pattern occurring in {@code text}.
+     * Only available when the automaton has at most {@link #MAX_MASK_PATTERNS} patterns.
+     *
+     * @throws IllegalStateException if the automaton has more patterns.
+     */
+    public long findMatchMask(@NonNull CharSequence text) {
+        if (mMatchMasks == null) {
+            throw new IllegalStateException("Too many patterns for a match mask: "
+                    + mPatternLengths.length);
+        }
+        long mask = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            mask |= mMatchMasks[state];
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the length of the pattern with the given id.
+     */
+    public int getPatternLength(int patternId) {
+        return mPatternLengths[patternId];
+    }
+
+    /**
+     * Number of patterns the automaton was built with.
+     */
+    public int getPatternCount() {
+        return mPatternLengths.length;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = findTransition(state, c);
+            if (target != -1) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = mFailure[state];
+        }
+    }
+
+    private int findTransition(int state, char c) {
+        int low = mFirstTransition[state];
+        int high = mFirstTransition[state + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = mTransitionKeys[middle];
+            if (key < c) {
+                low = middle + 1;
+            } else if (key > c) {
+                high = middle - 1;
+            } else {
+                return mTransitionTargets[middle];
+            }
+        }
+        return -1;
+    }
+
+    public static final class Builder {
+        private final List<Map<Character, Integer>> mTrie = new ArrayList<>();
+        private final List<Integer> mPatternsByState = new ArrayList<>();
+        private final List<Integer> mPatternLengths = new ArrayList<>();
+
+        public Builder() {
+            addState();
+        }
+
+        /**
+         * Adds {@code pattern}, which must not be empty, and returns its id. Ids are assigned in
+         * order from 0. Adding a pattern again returns a new id, which is never matched.
+         */
+        public int add(@NonNull String pattern) {
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            String lowerCasePattern = pattern.toLowerCase(Locale.US);
+            int state = 0;
+            for (int i = 0; i < lowerCasePattern.length(); i++) {
+                Map<Character, Integer> transitions = mTrie.get(state);
+                Integer target = transitions.get(lowerCasePattern.charAt(i));
+                if (target == null) {
+                    target = addState();
+                    transitions.put(lowerCasePattern.charAt(i), target);
+                }
+                state = target;
+            }
+            int patternId = mPatternLengths.size();
+            mPatternLengths.add(lowerCasePattern.length());
+            if (mPatternsByState.get(state) == NO_MATCH) {
+                mPatternsByState.set(state, patternId);
+            }
+            return patternId;
+        }
+
+        public MultiPatternMatcher build() {
+            return new MultiPatternMatcher(this);
+        }
+
+        private int addState() {
+            mTrie.add(new TreeMap<>());
+            mPatternsByState.add(NO_MATCH);
+            return mTrie.size() - 1;
+        }
+    }
+}
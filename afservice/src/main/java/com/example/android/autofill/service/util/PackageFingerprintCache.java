@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.autofill.service.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.android.autofill.service.util.Util.logd;
+
+/**
+ * Process-wide cache of the signing certificate fingerprints of client packages.
+ * <p>
+ * Computing a fingerprint means fetching the package signatures from the {@link PackageManager},
+ * parsing the X.509 certificate and hashing it, which is too expensive to repeat on every request.
+ * Fingerprints are computed once per installed version of a package and dropped when the package
+ * is replaced or removed, so later lookups are a single map access. The receiver is registered
+ * for as long as the process, and so the cache, lives.
+ */
+public final class PackageFingerprintCache {
+    private static PackageFingerprintCache sInstance;
+
+    private final PackageManager mPackageManager;
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    // Bumped on every invalidation, so that a fingerprint computed concurrently with a package
+    // update is not cached.
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private PackageFingerprintCache(Context context) {
+        mPackageManager = context.getPackageManager();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_FULLY_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                if (data != null) {
+                    invalidate(data.getSchemeSpecificPart());
+                }
+            }
+        }, filter);
+    }
+
+    public static synchronized PackageFingerprintCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageFingerprintCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the fingerprint of the signing certificate of {@code packageName}, in the format
+     * returned by {@link SecurityHelper#getFingerprint(PackageInfo, String)}.
+     */
+    public String getFingerprint(String packageName) throws PackageManager.NameNotFoundException,
+            IOException, NoSuchAlgorithmException, CertificateException {
+        Entry entry = mEntries.get(packageName);
+        if (entry != null) {
+            return entry.mFingerprint;
+        }
+        long generation = mGeneration.get();
+        PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
+                PackageManager.GET_SIGNATURES);
+        String fingerprint = SecurityHelper.getFingerprint(packageInfo, packageName);
+        if (generation == mGeneration.get()) {
+            mEntries.put(packageName, new Entry(packageInfo, fingerprint));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Drops the cached fingerprint of {@code packageName}, e.g. because it was updated.
+     */
+    public void invalidate(String packageName) {
+        mGeneration.incrementAndGet();
+        Entry entry = mEntries.remove(packageName);
+        if (entry != null) {
+            logd("Dropped fingerprint of %s (version %d, updated at %d)", packageName,
+                    entry.mVersionCode, entry.mLastUpdateTime);
+        }
+    }
+
+    public void clear() {
+        mGeneration.incrementAndGet();
+        mEntries.clear();
+    }
+
+    private static final class Entry {
+        private final long mLastUpdateTime;
+        private final long mVersionCode;
+        private final String mFingerprint;
+
+        private Entry(PackageInfo packageInfo, String fingerprint) {
+            mLastUpdateTime = packageInfo.lastUpdateTime;
+            mVersionCode = getVersionCode(packageInfo);
+            mFingerprint = fingerprint;
+        }
+
+        @SuppressWarnings("deprecation")
+        private static long getVersionCode(PackageInfo packageInfo) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                    ? packageInfo.getLongVersionCode() : packageInfo.versionCode;
+        }
+    }
+}
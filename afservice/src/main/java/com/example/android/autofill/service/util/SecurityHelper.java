@@ -32,6 +32,7 @@ import java.security.cert.X509Certificate;
  * Helper class for security checks.
  */
 public final class SecurityHelper {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     private SecurityHelper() {
         throw new UnsupportedOperationException("Provides static methods only.");
@@ -58,21 +59,18 @@ public final class SecurityHelper {
     }
 
     private static String toHexFormat(byte[] bytes) {
-        StringBuilder builder = new StringBuilder(bytes.length * 2);
-        for (int i = 0; i < bytes.length; i++) {
-            String hex = Integer.toHexString(bytes[i]);
-            int length = hex.length();
-            if (length == 1) {
-                hex = "0" + hex;
-            }
-            if (length > 2) {
-                hex = hex.substring(length - 2, length);
-            }
-            builder.append(hex.toUpperCase());
-            if (i < (bytes.length - 1)) {
-                builder.append(':');
+        if (bytes.length == 0) {
+            return "";
+        }
+        // Two upper case digits per byte, separated by colons: "AB:CD:...".
+        char[] chars = new char[bytes.length * 3 - 1];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            if (i > 0) {
+                chars[j++] = ':';
             }
+            chars[j++] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[j++] = HEX_DIGITS[bytes[i] & 0xF];
         }
-        return builder.toString();
+        return new String(chars);
     }
 }
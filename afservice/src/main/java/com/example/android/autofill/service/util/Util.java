@@ -300,6 +300,13 @@ public final class Util {
 
     public enum DalCheckRequirement {Disabled, LoginOnly, AllUrls}
 
+    /**
+     * Which saved datasets are offered to a fill request: all of them, only the ones saved from
+     * the requesting app, or the ones saved from the same web domain (by any app) when the page
+     * has one and else the requesting app's.
+     */
+    public enum DatasetScope {All, Package, WebDomainOrPackage}
+
     /**
      * Helper interface used to filter Assist nodes.
      */